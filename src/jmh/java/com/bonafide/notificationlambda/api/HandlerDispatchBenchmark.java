@@ -0,0 +1,101 @@
+package com.bonafide.notificationlambda.api;
+
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import com.bonafide.notificationlambda.model.RequestType;
+import com.bonafide.notificationlambda.simulation.InMemoryDynamoDbClient;
+import com.bonafide.notificationlambda.simulation.InMemoryManagementApiClient;
+import com.bonafide.notificationlambda.simulation.SimulatedDeployment;
+import com.bonafide.notificationlambda.simulation.SyntheticConnections;
+import com.bonafide.notificationlambda.simulation.SyntheticEvents;
+import org.openjdk.jmh.annotations.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One full invocation per {@link RequestType}, through both entry points, against a
+ * preloaded in-memory deployment. Sends go to a ROLE audience, so their cost grows with
+ * the population; the other routes touch a single connection. Disconnects re-insert
+ * their connection before dispatching so the population stays constant.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HandlerDispatchBenchmark {
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int connections;
+
+    @Param({"WEBSOCKET_CONNECT", "WEBSOCKET_DISCONNECT", "WEBSOCKET_DEFAULT", "HTTP_API", "DIRECT_INVOKE", "DYNAMODB_STREAM"})
+    public RequestType requestType;
+
+    private SimulatedDeployment deployment;
+    private NotificationLambdaHandler handler;
+    private NotificationStreamHandler streamHandler;
+    private ConnectionRecord subject;
+    private Map<String, Object> event;
+    private byte[] eventBytes;
+
+    @Setup
+    public void setUp() {
+        deployment = new SimulatedDeployment(new InMemoryDynamoDbClient(), new InMemoryManagementApiClient(), new Properties());
+        List<ConnectionRecord> population = SyntheticConnections.records(connections, SyntheticConnections.SEED);
+        deployment.load(population);
+        handler = deployment.getHandler();
+        streamHandler = new NotificationStreamHandler(handler);
+        Random random = new Random(SyntheticConnections.SEED);
+        subject = population.get(random.nextInt(population.size()));
+        switch (requestType) {
+            case WEBSOCKET_CONNECT:
+                event = SyntheticEvents.connect(subject);
+                break;
+            case WEBSOCKET_DISCONNECT:
+                event = SyntheticEvents.disconnect(subject.getConnectionId());
+                break;
+            case WEBSOCKET_DEFAULT:
+                event = SyntheticEvents.heartbeat(subject.getConnectionId());
+                break;
+            case HTTP_API:
+                event = SyntheticEvents.httpSend(
+                    SyntheticConnections.notification(SyntheticConnections.Audience.ROLE, population, random));
+                break;
+            case DIRECT_INVOKE:
+                event = SyntheticEvents.directSend(
+                    SyntheticConnections.notification(SyntheticConnections.Audience.ROLE, population, random));
+                break;
+            case DYNAMODB_STREAM:
+                event = SyntheticEvents.streamModify(subject, SimulatedDeployment.CONNECTIONS_TABLE);
+                break;
+            default:
+                throw new IllegalArgumentException("No event for " + requestType);
+        }
+        eventBytes = SyntheticEvents.toBytes(event);
+    }
+
+    @Benchmark
+    public Map<String, Object> dispatchMap() {
+        restoreSubject();
+        return handler.handleRequest(event, null);
+    }
+
+    @Benchmark
+    public int dispatchStream() throws IOException {
+        restoreSubject();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(256);
+        streamHandler.handleRequest(new ByteArrayInputStream(eventBytes), output, null);
+        return output.size();
+    }
+
+    private void restoreSubject() {
+        if (requestType == RequestType.WEBSOCKET_DISCONNECT) {
+            deployment.store(subject);
+        }
+    }
+}
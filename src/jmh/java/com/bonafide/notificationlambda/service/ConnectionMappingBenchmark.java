@@ -0,0 +1,56 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import com.bonafide.notificationlambda.simulation.SyntheticConnections;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ConnectionItemCodec#toRecord}, which every read path maps items with, over the
+ * items a full scan returns, per item format: mapping alone, and mapping followed by the
+ * attribute reads of an eligibility check, which unpack compact items.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConnectionMappingBenchmark {
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int connections;
+
+    @Param({"1", "2"})
+    public int format;
+
+    private List<Map<String, AttributeValue>> items;
+
+    @Setup
+    public void setUp() {
+        items = new ArrayList<>(connections);
+        for (ConnectionRecord record : SyntheticConnections.records(connections, SyntheticConnections.SEED)) {
+            items.add(SyntheticConnections.item(record, 7200, format));
+        }
+    }
+
+    @Benchmark
+    public void mapItems(Blackhole blackhole) {
+        for (Map<String, AttributeValue> item : items) {
+            blackhole.consume(ConnectionItemCodec.toRecord(item));
+        }
+    }
+
+    @Benchmark
+    public void mapAndReadItems(Blackhole blackhole) {
+        for (Map<String, AttributeValue> item : items) {
+            ConnectionRecord connection = ConnectionItemCodec.toRecord(item);
+            blackhole.consume(connection.getRoles());
+            blackhole.consume(connection.getSubscribedTopics());
+        }
+    }
+}
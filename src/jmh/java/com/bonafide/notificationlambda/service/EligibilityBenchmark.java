@@ -0,0 +1,57 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import com.bonafide.notificationlambda.model.NotificationRequest;
+import com.bonafide.notificationlambda.simulation.SyntheticConnections;
+import org.openjdk.jmh.annotations.*;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Eligibility over a whole population, per audience shape: the compiled
+ * {@link EligibilityQuery} the scan paths evaluate per connection, and the registry's
+ * {@link EligibilityIndex}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EligibilityBenchmark {
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int connections;
+
+    @Param({"USERS", "ROLE", "TEAM", "TOPIC", "BROADCAST"})
+    public SyntheticConnections.Audience audience;
+
+    private List<ConnectionRecord> population;
+    private NotificationRequest notification;
+    private EligibilityIndex eligibilityIndex;
+
+    @Setup
+    public void setUp() {
+        population = SyntheticConnections.records(connections, SyntheticConnections.SEED);
+        notification = SyntheticConnections.notification(audience, population, new Random(SyntheticConnections.SEED));
+        eligibilityIndex = new EligibilityIndex();
+        population.forEach(eligibilityIndex::put);
+    }
+
+    @Benchmark
+    public int matchCompiled() {
+        EligibilityQuery query = EligibilityQuery.compile(notification);
+        int eligible = 0;
+        for (ConnectionRecord connection : population) {
+            if (query.matches(connection)) {
+                eligible++;
+            }
+        }
+        return eligible;
+    }
+
+    @Benchmark
+    public int matchBitmap() {
+        return eligibilityIndex.match(EligibilityQuery.compile(notification)).size();
+    }
+}
@@ -0,0 +1,37 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import com.bonafide.notificationlambda.simulation.SyntheticConnections;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** {@code HttpApiService.countByAttribute}, the scan-based fallback of /metrics. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MetricsAggregationBenchmark {
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int connections;
+
+    @Param({"roles", "teams", "department"})
+    public String attribute;
+
+    private HttpApiService httpApiService;
+    private List<ConnectionRecord> population;
+
+    @Setup
+    public void setUp() {
+        httpApiService = new HttpApiService((NotificationService) null, null);
+        population = SyntheticConnections.records(connections, SyntheticConnections.SEED);
+    }
+
+    @Benchmark
+    public void countByAttribute(Blackhole blackhole) {
+        blackhole.consume(httpApiService.countByAttribute(population, attribute));
+    }
+}
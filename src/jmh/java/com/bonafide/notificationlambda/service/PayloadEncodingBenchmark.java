@@ -0,0 +1,51 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.config.JsonMappers;
+import com.bonafide.notificationlambda.model.NotificationRequest;
+import com.bonafide.notificationlambda.simulation.SyntheticConnections;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.core.SdkBytes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payload encoding, which happens once per notification whatever the number of
+ * recipients, so it is parameterized by payload size rather than connection count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PayloadEncodingBenchmark {
+    @Param({"0", "10", "100", "1000"})
+    public int dataEntries;
+
+    private NotificationPayloadEncoder encoder;
+    private NotificationRequest notification;
+
+    @Setup
+    public void setUp() {
+        encoder = new NotificationPayloadEncoder(JsonMappers.shared());
+        Map<String, Object> data = new HashMap<>();
+        for (int i = 0; i < dataEntries; i++) {
+            data.put("field" + i, i % 2 == 0 ? "value-" + i : i);
+        }
+        List<Map<String, Object>> actions = new ArrayList<>();
+        actions.add(Map.of("label", "Open", "url", "/processes/42"));
+        notification = SyntheticConnections.notification(SyntheticConnections.Audience.ROLE, List.of(),
+            new Random(SyntheticConnections.SEED));
+        notification.setData(data);
+        notification.setActions(actions);
+    }
+
+    @Benchmark
+    public SdkBytes encode() {
+        return encoder.encode(notification);
+    }
+}
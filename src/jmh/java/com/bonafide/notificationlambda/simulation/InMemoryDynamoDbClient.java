@@ -0,0 +1,577 @@
+package com.bonafide.notificationlambda.simulation;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * DynamoDB stand-in holding tables in memory, covering the operations and the expression
+ * subset the services use: key lookups, paginated and segmented Scan, Query on the
+ * partition key, SET/ADD updates, simple conditions, batch writes and reads, and
+ * transactions. Filter expressions are not evaluated; a scan honours a projection of
+ * attribute names, other reads return full items. Expressions naming a DynamoDB reserved
+ * word directly are rejected as DynamoDB rejects them. Calls can be slowed down and throttled per {@link StandInBehavior}.
+ */
+public class InMemoryDynamoDbClient implements DynamoDbClient {
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final Set<String> BATCH_OPERATIONS = Set.of("batchWriteItem");
+    private final Map<String, Table> tables = new ConcurrentHashMap<>();
+    private final StandInBehavior behavior;
+    private final LatencyRecorder recorder;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder throttles = new LongAdder();
+
+    public InMemoryDynamoDbClient() {
+        this(StandInBehavior.IMMEDIATE, null);
+    }
+
+    /** Every call is delayed and possibly throttled per {@code behavior}; latencies go to {@code recorder} if set. */
+    public InMemoryDynamoDbClient(StandInBehavior behavior, LatencyRecorder recorder) {
+        this.behavior = behavior;
+        this.recorder = recorder;
+    }
+
+    public InMemoryDynamoDbClient createTable(String tableName, String hashKey, String rangeKey) {
+        tables.put(tableName, new Table(hashKey, rangeKey));
+        return this;
+    }
+
+    /** Writes an item directly, bypassing conditions, e.g. to preload a population. */
+    public void load(String tableName, Map<String, AttributeValue> item) {
+        Table table = table(tableName);
+        table.put(item);
+    }
+
+    public int itemCount(String tableName) {
+        return table(tableName).size();
+    }
+
+    @Override
+    public GetItemResponse getItem(GetItemRequest request) {
+        return call("getItem", () -> doGetItem(request));
+    }
+
+    @Override
+    public PutItemResponse putItem(PutItemRequest request) {
+        return call("putItem", () -> doPutItem(request));
+    }
+
+    @Override
+    public DeleteItemResponse deleteItem(DeleteItemRequest request) {
+        return call("deleteItem", () -> doDeleteItem(request));
+    }
+
+    @Override
+    public UpdateItemResponse updateItem(UpdateItemRequest request) {
+        return call("updateItem", () -> doUpdateItem(request));
+    }
+
+    @Override
+    public ScanResponse scan(ScanRequest request) {
+        return call("scan", () -> doScan(request));
+    }
+
+    @Override
+    public QueryResponse query(QueryRequest request) {
+        return call("query", () -> doQuery(request));
+    }
+
+    @Override
+    public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+        return call("batchWriteItem", () -> doBatchWriteItem(request));
+    }
+
+    @Override
+    public BatchGetItemResponse batchGetItem(BatchGetItemRequest request) {
+        return call("batchGetItem", () -> doBatchGetItem(request));
+    }
+
+    @Override
+    public TransactWriteItemsResponse transactWriteItems(TransactWriteItemsRequest request) {
+        return call("transactWriteItems", () -> doTransactWriteItems(request));
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getThrottles() {
+        return throttles.sum();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private GetItemResponse doGetItem(GetItemRequest request) {
+        DynamoDbReservedWords.check(request.projectionExpression());
+        Map<String, AttributeValue> item = table(request.tableName()).get(request.key());
+        return item != null ? GetItemResponse.builder().item(item).build() : GetItemResponse.builder().build();
+    }
+
+    private PutItemResponse doPutItem(PutItemRequest request) {
+        Table table = table(request.tableName());
+        synchronized (table) {
+            Map<String, AttributeValue> old = table.get(request.item());
+            check(request.conditionExpression(), old, request.expressionAttributeNames(), request.expressionAttributeValues());
+            table.put(new HashMap<>(request.item()));
+            PutItemResponse.Builder response = PutItemResponse.builder();
+            if (old != null && request.returnValues() == ReturnValue.ALL_OLD) {
+                response.attributes(old);
+            }
+            return response.build();
+        }
+    }
+
+    private DeleteItemResponse doDeleteItem(DeleteItemRequest request) {
+        Table table = table(request.tableName());
+        synchronized (table) {
+            Map<String, AttributeValue> old = table.get(request.key());
+            check(request.conditionExpression(), old, request.expressionAttributeNames(), request.expressionAttributeValues());
+            table.remove(request.key());
+            DeleteItemResponse.Builder response = DeleteItemResponse.builder();
+            if (old != null && request.returnValues() == ReturnValue.ALL_OLD) {
+                response.attributes(old);
+            }
+            return response.build();
+        }
+    }
+
+    private UpdateItemResponse doUpdateItem(UpdateItemRequest request) {
+        Table table = table(request.tableName());
+        synchronized (table) {
+            Map<String, AttributeValue> old = table.get(request.key());
+            check(request.conditionExpression(), old, request.expressionAttributeNames(), request.expressionAttributeValues());
+            table.put(update(old, request.key(), request.updateExpression(),
+                request.expressionAttributeNames(), request.expressionAttributeValues()));
+            UpdateItemResponse.Builder response = UpdateItemResponse.builder();
+            if (old != null && request.returnValues() == ReturnValue.ALL_OLD) {
+                response.attributes(old);
+            }
+            return response.build();
+        }
+    }
+
+    private ScanResponse doScan(ScanRequest request) {
+        DynamoDbReservedWords.check(request.filterExpression());
+        Table table = table(request.tableName());
+        int totalSegments = request.totalSegments() != null ? request.totalSegments() : 1;
+        int segment = request.segment() != null ? request.segment() : 0;
+        int limit = request.limit() != null ? request.limit() : DEFAULT_PAGE_SIZE;
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        Map<String, AttributeValue> lastKey = null;
+        for (Map<String, AttributeValue> item : table.after(request.hasExclusiveStartKey() ? request.exclusiveStartKey() : null)) {
+            if (Math.floorMod(table.hashOf(item).hashCode(), totalSegments) != segment) {
+                continue;
+            }
+            items.add(project(item, request.projectionExpression(), request.expressionAttributeNames()));
+            if (items.size() >= limit) {
+                lastKey = table.keyOf(item);
+                break;
+            }
+        }
+        ScanResponse.Builder response = ScanResponse.builder().items(items).count(items.size()).scannedCount(items.size());
+        if (lastKey != null) {
+            response.lastEvaluatedKey(lastKey);
+        }
+        return response.build();
+    }
+
+    private static Map<String, AttributeValue> project(Map<String, AttributeValue> item, String projection,
+                                                       Map<String, String> names) {
+        DynamoDbReservedWords.check(projection);
+        if (projection == null || projection.isBlank()) {
+            return item;
+        }
+        Map<String, AttributeValue> projected = new HashMap<>();
+        for (String name : projection.split(",")) {
+            String attribute = name(name.trim(), names);
+            AttributeValue value = item.get(attribute);
+            if (value != null) {
+                projected.put(attribute, value);
+            }
+        }
+        return projected;
+    }
+
+    private QueryResponse doQuery(QueryRequest request) {
+        DynamoDbReservedWords.check(request.keyConditionExpression());
+        DynamoDbReservedWords.check(request.filterExpression());
+        DynamoDbReservedWords.check(request.projectionExpression());
+        Table table = table(request.tableName());
+        String[] condition = request.keyConditionExpression().split("=");
+        AttributeValue partition = request.expressionAttributeValues().get(condition[1].trim());
+        int limit = request.limit() != null ? request.limit() : DEFAULT_PAGE_SIZE;
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        Map<String, AttributeValue> lastKey = null;
+        for (Map<String, AttributeValue> item : table.partition(partition,
+                request.hasExclusiveStartKey() ? request.exclusiveStartKey() : null)) {
+            items.add(item);
+            if (items.size() >= limit) {
+                lastKey = table.keyOf(item);
+                break;
+            }
+        }
+        QueryResponse.Builder response = QueryResponse.builder().items(items).count(items.size()).scannedCount(items.size());
+        if (lastKey != null) {
+            response.lastEvaluatedKey(lastKey);
+        }
+        return response.build();
+    }
+
+    private BatchWriteItemResponse doBatchWriteItem(BatchWriteItemRequest request) {
+        Map<String, List<WriteRequest>> unprocessed = new HashMap<>();
+        request.requestItems().forEach((tableName, writes) -> {
+            Table table = table(tableName);
+            synchronized (table) {
+                for (WriteRequest write : writes) {
+                    if (behavior.throttled()) {
+                        throttles.increment();
+                        unprocessed.computeIfAbsent(tableName, name -> new ArrayList<>()).add(write);
+                    } else if (write.putRequest() != null) {
+                        table.put(new HashMap<>(write.putRequest().item()));
+                    } else if (write.deleteRequest() != null) {
+                        table.remove(write.deleteRequest().key());
+                    }
+                }
+            }
+        });
+        return BatchWriteItemResponse.builder().unprocessedItems(unprocessed).build();
+    }
+
+    private BatchGetItemResponse doBatchGetItem(BatchGetItemRequest request) {
+        Map<String, List<Map<String, AttributeValue>>> responses = new HashMap<>();
+        request.requestItems().forEach((tableName, keys) -> {
+            DynamoDbReservedWords.check(keys.projectionExpression());
+            Table table = table(tableName);
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            for (Map<String, AttributeValue> key : keys.keys()) {
+                Map<String, AttributeValue> item = table.get(key);
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+            responses.put(tableName, items);
+        });
+        return BatchGetItemResponse.builder().responses(responses).unprocessedKeys(Map.of()).build();
+    }
+
+    private synchronized TransactWriteItemsResponse doTransactWriteItems(TransactWriteItemsRequest request) {
+        List<CancellationReason> reasons = new ArrayList<>();
+        boolean failed = false;
+        for (TransactWriteItem item : request.transactItems()) {
+            try {
+                if (item.put() != null) {
+                    Put put = item.put();
+                    check(put.conditionExpression(), table(put.tableName()).get(put.item()),
+                        put.expressionAttributeNames(), put.expressionAttributeValues());
+                } else if (item.delete() != null) {
+                    Delete delete = item.delete();
+                    check(delete.conditionExpression(), table(delete.tableName()).get(delete.key()),
+                        delete.expressionAttributeNames(), delete.expressionAttributeValues());
+                } else if (item.update() != null) {
+                    Update update = item.update();
+                    check(update.conditionExpression(), table(update.tableName()).get(update.key()),
+                        update.expressionAttributeNames(), update.expressionAttributeValues());
+                }
+                reasons.add(CancellationReason.builder().code("None").build());
+            } catch (ConditionalCheckFailedException e) {
+                reasons.add(CancellationReason.builder().code("ConditionalCheckFailed").build());
+                failed = true;
+            }
+        }
+        if (failed) {
+            throw TransactionCanceledException.builder()
+                .message("Transaction cancelled")
+                .cancellationReasons(reasons)
+                .build();
+        }
+        for (TransactWriteItem item : request.transactItems()) {
+            if (item.put() != null) {
+                Table table = table(item.put().tableName());
+                synchronized (table) {
+                    table.put(new HashMap<>(item.put().item()));
+                }
+            } else if (item.delete() != null) {
+                Table table = table(item.delete().tableName());
+                synchronized (table) {
+                    table.remove(item.delete().key());
+                }
+            } else if (item.update() != null) {
+                Update update = item.update();
+                Table table = table(update.tableName());
+                synchronized (table) {
+                    table.put(update(table.get(update.key()), update.key(), update.updateExpression(),
+                        update.expressionAttributeNames(), update.expressionAttributeValues()));
+                }
+            }
+        }
+        return TransactWriteItemsResponse.builder().build();
+    }
+
+    /**
+     * Applies the configured latency, then throttles single-item operations by throwing
+     * ProvisionedThroughputExceededException; batch writes are throttled per item by
+     * returning it unprocessed instead.
+     */
+    private <T> T call(String operation, Supplier<T> action) {
+        long start = System.nanoTime();
+        calls.increment();
+        try {
+            behavior.pause();
+            if (!BATCH_OPERATIONS.contains(operation) && behavior.throttled()) {
+                throttles.increment();
+                throw ProvisionedThroughputExceededException.builder()
+                    .message("Rate of requests exceeds the allowed throughput")
+                    .statusCode(400)
+                    .build();
+            }
+            return action.get();
+        } finally {
+            if (recorder != null) {
+                recorder.record("dynamodb." + operation, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private Table table(String tableName) {
+        Table table = tables.get(tableName);
+        if (table == null) {
+            throw ResourceNotFoundException.builder().message("Table not found: " + tableName).build();
+        }
+        return table;
+    }
+
+    /**
+     * Supports {@code SET a = :v, b = :w}, {@code SET l = list_append(if_not_exists(l, :empty), :v)},
+     * {@code ADD n :delta} (numbers, number sets and string sets) and {@code REMOVE} clauses.
+     */
+    private static Map<String, AttributeValue> update(Map<String, AttributeValue> old, Map<String, AttributeValue> key,
+                                                      String expression, Map<String, String> names,
+                                                      Map<String, AttributeValue> values) {
+        DynamoDbReservedWords.check(expression);
+        Map<String, AttributeValue> item = old != null ? new HashMap<>(old) : new HashMap<>(key);
+        String[] clauses = expression.trim().split("\\s+(?=(SET|ADD|REMOVE)\\s)");
+        for (String clause : clauses) {
+            String body = clause.trim().substring(clause.trim().indexOf(' ') + 1);
+            if (clause.trim().startsWith("SET")) {
+                for (String assignment : splitTopLevel(body)) {
+                    String[] parts = assignment.split("=", 2);
+                    String attribute = name(parts[0].trim(), names);
+                    String value = parts[1].trim();
+                    if (value.startsWith("list_append(")) {
+                        // list_append(if_not_exists(attribute, :empty), :value)
+                        String[] arguments = value.replaceAll("[()]|list_append|if_not_exists", "").split(",");
+                        AttributeValue current = item.get(attribute);
+                        List<AttributeValue> appended = new ArrayList<>(current != null ? current.l() : values.get(arguments[1].trim()).l());
+                        appended.addAll(values.get(arguments[2].trim()).l());
+                        item.put(attribute, AttributeValue.builder().l(appended).build());
+                        continue;
+                    }
+                    item.put(attribute, values.get(value));
+                }
+            } else if (clause.trim().startsWith("ADD")) {
+                for (String addition : body.split(",")) {
+                    String[] parts = addition.trim().split("\\s+");
+                    String attribute = name(parts[0], names);
+                    AttributeValue current = item.get(attribute);
+                    if (values.get(parts[1]).hasNs()) {
+                        Set<String> members = new LinkedHashSet<>(current != null ? current.ns() : List.of());
+                        members.addAll(values.get(parts[1]).ns());
+                        item.put(attribute, AttributeValue.builder().ns(members).build());
+                        continue;
+                    }
+                    if (values.get(parts[1]).hasSs()) {
+                        Set<String> members = new LinkedHashSet<>(current != null ? current.ss() : List.of());
+                        members.addAll(values.get(parts[1]).ss());
+                        item.put(attribute, AttributeValue.builder().ss(members).build());
+                        continue;
+                    }
+                    long sum = (current != null ? Long.parseLong(current.n()) : 0) + Long.parseLong(values.get(parts[1]).n());
+                    item.put(attribute, AttributeValue.builder().n(String.valueOf(sum)).build());
+                }
+            } else if (clause.trim().startsWith("REMOVE")) {
+                for (String attribute : body.split(",")) {
+                    item.remove(name(attribute.trim(), names));
+                }
+            }
+        }
+        return item;
+    }
+
+    /** Splits on the commas outside parentheses. */
+    private static List<String> splitTopLevel(String expression) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                parts.add(expression.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(expression.substring(start));
+        return parts;
+    }
+
+    /**
+     * Evaluates conditions made of {@code attribute_exists}, {@code attribute_not_exists},
+     * {@code [NOT] contains(set, :v)} and comparisons, joined by AND and then by OR.
+     */
+    private static void check(String condition, Map<String, AttributeValue> item, Map<String, String> names,
+                              Map<String, AttributeValue> values) {
+        DynamoDbReservedWords.check(condition);
+        if (condition == null || condition.isBlank()) {
+            return;
+        }
+        for (String alternative : condition.split("\\s+OR\\s+")) {
+            boolean holds = true;
+            for (String clause : alternative.split("\\s+AND\\s+")) {
+                holds &= holds(clause.trim(), item, names, values);
+            }
+            if (holds) {
+                return;
+            }
+        }
+        throw ConditionalCheckFailedException.builder().message("The conditional request failed").build();
+    }
+
+    private static boolean holds(String term, Map<String, AttributeValue> item, Map<String, String> names,
+                                 Map<String, AttributeValue> values) {
+        if (term.startsWith("attribute_exists(")) {
+            return item != null && item.containsKey(name(term.substring(17, term.length() - 1).trim(), names));
+        }
+        if (term.startsWith("attribute_not_exists(")) {
+            return item == null || !item.containsKey(name(term.substring(21, term.length() - 1).trim(), names));
+        }
+        if (term.startsWith("contains(") || term.startsWith("NOT contains(")) {
+            String[] arguments = term.substring(term.indexOf('(') + 1, term.length() - 1).split(",");
+            AttributeValue set = item != null ? item.get(name(arguments[0].trim(), names)) : null;
+            AttributeValue member = values.get(arguments[1].trim());
+            boolean contains = set != null && (set.hasNs() ? set.ns().contains(member.n())
+                : set.hasSs() && set.ss().contains(member.s()));
+            return term.startsWith("NOT") != contains;
+        }
+        String[] parts = term.split("\\s+");
+        AttributeValue actual = item != null ? item.get(name(parts[0], names)) : null;
+        AttributeValue expected = values.get(parts[2]);
+        if (actual != null && actual.s() != null && expected.s() != null) {
+            return "=".equals(parts[1]) == actual.s().equals(expected.s());
+        }
+        return actual != null && actual.n() != null && compare(Double.parseDouble(actual.n()),
+            parts[1], Double.parseDouble(expected.n()));
+    }
+
+    private static boolean compare(double actual, String operator, double expected) {
+        switch (operator) {
+            case "<": return actual < expected;
+            case "<=": return actual <= expected;
+            case ">": return actual > expected;
+            case ">=": return actual >= expected;
+            case "=": return actual == expected;
+            case "<>": return actual != expected;
+            default: throw new IllegalArgumentException("Unsupported operator: " + operator);
+        }
+    }
+
+    private static String name(String token, Map<String, String> names) {
+        return token.startsWith("#") && names != null ? names.get(token) : token;
+    }
+
+    private static String scalar(AttributeValue value) {
+        return value.s() != null ? value.s() : value.n();
+    }
+
+    /** Items by partition key, then by sort key (empty for tables without one). */
+    private static final class Table {
+        private final String hashKey;
+        private final String rangeKey;
+        private final ConcurrentSkipListMap<String, ConcurrentSkipListMap<String, Map<String, AttributeValue>>> partitions =
+            new ConcurrentSkipListMap<>();
+
+        Table(String hashKey, String rangeKey) {
+            this.hashKey = hashKey;
+            this.rangeKey = rangeKey;
+        }
+
+        String hashOf(Map<String, AttributeValue> item) {
+            return scalar(item.get(hashKey));
+        }
+
+        private String rangeOf(Map<String, AttributeValue> item) {
+            return rangeKey != null ? scalar(item.get(rangeKey)) : "";
+        }
+
+        Map<String, AttributeValue> keyOf(Map<String, AttributeValue> item) {
+            Map<String, AttributeValue> key = new HashMap<>();
+            key.put(hashKey, item.get(hashKey));
+            if (rangeKey != null) {
+                key.put(rangeKey, item.get(rangeKey));
+            }
+            return key;
+        }
+
+        Map<String, AttributeValue> get(Map<String, AttributeValue> key) {
+            Map<String, Map<String, AttributeValue>> partition = partitions.get(hashOf(key));
+            return partition != null ? partition.get(rangeOf(key)) : null;
+        }
+
+        void put(Map<String, AttributeValue> item) {
+            partitions.computeIfAbsent(hashOf(item), hash -> new ConcurrentSkipListMap<>()).put(rangeOf(item), item);
+        }
+
+        void remove(Map<String, AttributeValue> key) {
+            String hash = hashOf(key);
+            ConcurrentSkipListMap<String, Map<String, AttributeValue>> partition = partitions.get(hash);
+            if (partition != null) {
+                partition.remove(rangeOf(key));
+                if (partition.isEmpty()) {
+                    partitions.remove(hash, partition);
+                }
+            }
+        }
+
+        int size() {
+            int size = 0;
+            for (Map<String, Map<String, AttributeValue>> partition : partitions.values()) {
+                size += partition.size();
+            }
+            return size;
+        }
+
+        /** Items in key order, starting after the given key. */
+        Iterable<Map<String, AttributeValue>> after(Map<String, AttributeValue> startKey) {
+            NavigableMap<String, ConcurrentSkipListMap<String, Map<String, AttributeValue>>> remaining =
+                startKey != null ? partitions.tailMap(hashOf(startKey), true) : partitions;
+            String startHash = startKey != null ? hashOf(startKey) : null;
+            String startRange = startKey != null ? rangeOf(startKey) : null;
+            return () -> remaining.entrySet().stream()
+                .flatMap(entry -> (entry.getKey().equals(startHash)
+                    ? entry.getValue().tailMap(startRange, false)
+                    : entry.getValue()).values().stream())
+                .iterator();
+        }
+
+        Iterable<Map<String, AttributeValue>> partition(AttributeValue hash, Map<String, AttributeValue> startKey) {
+            ConcurrentSkipListMap<String, Map<String, AttributeValue>> partition = partitions.get(scalar(hash));
+            if (partition == null) {
+                return List.of();
+            }
+            return startKey != null ? partition.tailMap(rangeOf(startKey), false).values() : partition.values();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.bonafide.notificationlambda.simulation;
+
+import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiClient;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.GetConnectionRequest;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.GetConnectionResponse;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.GoneException;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.LimitExceededException;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.PostToConnectionRequest;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.PostToConnectionResponse;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * API Gateway Management stand-in. Posts are delayed per {@link StandInBehavior}, throttled
+ * with LimitExceededException (429) at the throttle rate, and answered with GoneException
+ * (410) at the Gone rate; a connection that went away stays gone for later posts.
+ */
+public class InMemoryManagementApiClient implements ApiGatewayManagementApiClient {
+    private final StandInBehavior behavior;
+    private final LatencyRecorder recorder;
+    private final Set<String> goneConnections = ConcurrentHashMap.newKeySet();
+    private final LongAdder posts = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder gone = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    public InMemoryManagementApiClient() {
+        this(StandInBehavior.IMMEDIATE, null);
+    }
+
+    public InMemoryManagementApiClient(StandInBehavior behavior, LatencyRecorder recorder) {
+        this.behavior = behavior;
+        this.recorder = recorder;
+    }
+
+    @Override
+    public PostToConnectionResponse postToConnection(PostToConnectionRequest request) {
+        long start = System.nanoTime();
+        posts.increment();
+        try {
+            behavior.pause();
+            if (goneConnections.contains(request.connectionId()) || behavior.gone()) {
+                goneConnections.add(request.connectionId());
+                gone.increment();
+                throw GoneException.builder().message("Connection is gone").statusCode(410).build();
+            }
+            if (behavior.throttled()) {
+                throttled.increment();
+                throw LimitExceededException.builder().message("Rate exceeded").statusCode(429).build();
+            }
+            delivered.increment();
+            bytes.add(request.data().asByteArrayUnsafe().length);
+            return PostToConnectionResponse.builder().build();
+        } finally {
+            if (recorder != null) {
+                recorder.record("management.postToConnection", System.nanoTime() - start);
+            }
+        }
+    }
+
+    @Override
+    public GetConnectionResponse getConnection(GetConnectionRequest request) {
+        behavior.pause();
+        return GetConnectionResponse.builder().build();
+    }
+
+    public long getPosts() {
+        return posts.sum();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    public long getGone() {
+        return gone.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public String serviceName() {
+        return "execute-api";
+    }
+
+    @Override
+    public void close() {
+    }
+}
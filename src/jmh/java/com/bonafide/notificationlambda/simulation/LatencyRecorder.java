@@ -0,0 +1,56 @@
+package com.bonafide.notificationlambda.simulation;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Latency samples per named stage, summarized as percentiles. */
+public class LatencyRecorder {
+    private final Map<String, Samples> stages = new ConcurrentHashMap<>();
+
+    public void record(String stage, long nanos) {
+        stages.computeIfAbsent(stage, name -> new Samples()).add(nanos);
+    }
+
+    public void reset() {
+        stages.clear();
+    }
+
+    /** Per stage: count and p50/p90/p99/max in milliseconds, stages in name order. */
+    public Map<String, Map<String, Object>> summary() {
+        Map<String, Map<String, Object>> summary = new TreeMap<>();
+        stages.forEach((stage, samples) -> summary.put(stage, samples.summary()));
+        return summary;
+    }
+
+    private static final class Samples {
+        private long[] values = new long[1024];
+        private int size;
+
+        synchronized void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+
+        synchronized Map<String, Object> summary() {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", size);
+            summary.put("p50", millis(sorted, 0.50));
+            summary.put("p90", millis(sorted, 0.90));
+            summary.put("p99", millis(sorted, 0.99));
+            summary.put("max", millis(sorted, 1.0));
+            return summary;
+        }
+
+        private static double millis(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0.0;
+            }
+            int index = Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1);
+            return Math.round(sorted[Math.max(0, index)] / 1e3) / 1e3;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.bonafide.notificationlambda.simulation;
+
+import com.bonafide.notificationlambda.api.NotificationLambdaHandler;
+import com.bonafide.notificationlambda.config.JsonMappers;
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Offline load test of the real handler against the in-memory stand-ins. Runs a connect
+ * storm that registers the whole population, heartbeat traffic against random
+ * connections, and broadcast sends that fan out to everyone, each spread over a number
+ * of simulated warm containers. For each phase it prints throughput, latency percentiles
+ * per stage (invocation, DynamoDB operation, postToConnection) and the allocation rate.
+ *
+ * <pre>
+ * mvn -Pbenchmarks package
+ * java -cp target/notificationlambda-0.1.0-SNAPSHOT-benchmarks.jar \
+ *     com.bonafide.notificationlambda.simulation.LoadHarness --connections=100000 --api-gone-rate=0.01
+ * </pre>
+ *
+ * Options (defaults in brackets): --connections [100000], --containers [32],
+ * --heartbeats [100000], --broadcasts [3], --ddb-latency-ms [2], --ddb-jitter-ms [3],
+ * --ddb-throttle-rate [0], --api-latency-ms [5], --api-jitter-ms [10],
+ * --api-throttle-rate [0], --api-gone-rate [0], and any number of
+ * --set=&lt;property&gt;=&lt;value&gt; overrides of notification-service properties.
+ */
+public final class LoadHarness {
+    private final Map<String, String> options;
+    private final Properties overrides;
+    private final LatencyRecorder recorder = new LatencyRecorder();
+
+    private LoadHarness(Map<String, String> options, Properties overrides) {
+        this.options = options;
+        this.overrides = overrides;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        Properties overrides = new Properties();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --option=value, got " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if ("set".equals(name)) {
+                overrides.setProperty(value.substring(0, value.indexOf('=')), value.substring(value.indexOf('=') + 1));
+            } else {
+                options.put(name, value);
+            }
+        }
+        Map<String, Object> report = new LoadHarness(options, overrides).run();
+        System.out.println(JsonMappers.shared().copy().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(report));
+        System.exit(0);
+    }
+
+    private Map<String, Object> run() throws Exception {
+        int connections = intOption("connections", 100_000);
+        int containers = intOption("containers", 32);
+        InMemoryDynamoDbClient dynamoDb = new InMemoryDynamoDbClient(StandInBehavior.builder()
+            .latencyMillis(doubleOption("ddb-latency-ms", 2))
+            .latencyJitterMillis(doubleOption("ddb-jitter-ms", 3))
+            .throttleRate(doubleOption("ddb-throttle-rate", 0))
+            .build(), recorder);
+        InMemoryManagementApiClient managementApi = new InMemoryManagementApiClient(StandInBehavior.builder()
+            .latencyMillis(doubleOption("api-latency-ms", 5))
+            .latencyJitterMillis(doubleOption("api-jitter-ms", 10))
+            .throttleRate(doubleOption("api-throttle-rate", 0))
+            .goneRate(doubleOption("api-gone-rate", 0))
+            .build(), recorder);
+        SimulatedDeployment deployment = new SimulatedDeployment(dynamoDb, managementApi, overrides);
+        List<NotificationLambdaHandler> handlers = new ArrayList<>();
+        handlers.add(deployment.getHandler());
+        for (int i = 1; i < containers; i++) {
+            handlers.add(deployment.newHandler());
+        }
+
+        List<ConnectionRecord> population = SyntheticConnections.records(connections, SyntheticConnections.SEED);
+        Random random = new Random(SyntheticConnections.SEED);
+        List<Map<String, Object>> connects = new ArrayList<>(connections);
+        population.forEach(connection -> connects.add(SyntheticEvents.connect(connection)));
+        List<Map<String, Object>> heartbeats = new ArrayList<>();
+        for (int i = 0; i < intOption("heartbeats", 100_000); i++) {
+            heartbeats.add(SyntheticEvents.heartbeat(population.get(random.nextInt(connections)).getConnectionId()));
+        }
+        List<Map<String, Object>> broadcasts = new ArrayList<>();
+        for (int i = 0; i < intOption("broadcasts", 3); i++) {
+            broadcasts.add(SyntheticEvents.directSend(
+                SyntheticConnections.notification(SyntheticConnections.Audience.BROADCAST, population, random)));
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("options", Map.of("connections", connections, "containers", containers, "settings", options));
+        report.put("connectStorm", phase("connect", handlers, connects, dynamoDb, managementApi));
+        report.put("heartbeats", phase("heartbeat", handlers, heartbeats, dynamoDb, managementApi));
+        report.put("broadcasts", phase("broadcast", handlers.subList(0, Math.max(1, Math.min(containers, broadcasts.size()))),
+            broadcasts, dynamoDb, managementApi));
+        report.put("storedConnections", dynamoDb.itemCount(SimulatedDeployment.CONNECTIONS_TABLE));
+        return report;
+    }
+
+    /**
+     * Dispatches the events over the containers, each container handling one invocation at a
+     * time on its own platform thread, as separate Lambda processes would.
+     */
+    private Map<String, Object> phase(String name, List<NotificationLambdaHandler> handlers, List<Map<String, Object>> events,
+                                      InMemoryDynamoDbClient dynamoDb, InMemoryManagementApiClient managementApi) throws Exception {
+        recorder.reset();
+        long callsBefore = dynamoDb.getCalls();
+        long throttlesBefore = dynamoDb.getThrottles();
+        long postsBefore = managementApi.getPosts();
+        long deliveredBefore = managementApi.getDelivered();
+        long goneBefore = managementApi.getGone();
+        long throttledBefore = managementApi.getThrottled();
+        long allocatedBefore = allocatedBytes();
+        AtomicInteger next = new AtomicInteger();
+        LongAdder errors = new LongAdder();
+        long start = System.nanoTime();
+        try (ExecutorService containers = Executors.newThreadPerTaskExecutor(Thread.ofPlatform().factory())) {
+            List<Future<?>> running = new ArrayList<>();
+            for (NotificationLambdaHandler handler : handlers) {
+                running.add(containers.submit(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < events.size()) {
+                        long invocationStart = System.nanoTime();
+                        Map<String, Object> response = handler.handleRequest(events.get(index), null);
+                        recorder.record("invocation." + name, System.nanoTime() - invocationStart);
+                        Object status = response.get("statusCode");
+                        if (status instanceof Integer && (Integer) status >= 500 || "FAILED".equals(response.get("status"))) {
+                            errors.increment();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> container : running) {
+                container.get();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long allocated = allocatedBytes() - allocatedBefore;
+        long delivered = managementApi.getDelivered() - deliveredBefore;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("invocations", events.size());
+        result.put("errors", errors.sum());
+        result.put("seconds", round(seconds));
+        result.put("invocationsPerSecond", round(events.size() / seconds));
+        result.put("dynamoDbCalls", dynamoDb.getCalls() - callsBefore);
+        result.put("dynamoDbThrottles", dynamoDb.getThrottles() - throttlesBefore);
+        result.put("posts", managementApi.getPosts() - postsBefore);
+        result.put("delivered", delivered);
+        result.put("deliveredPerSecond", round(delivered / seconds));
+        result.put("gone", managementApi.getGone() - goneBefore);
+        result.put("throttled", managementApi.getThrottled() - throttledBefore);
+        if (allocatedBefore >= 0) {
+            result.put("allocatedMBPerSecond", round(allocated / seconds / (1024 * 1024)));
+            result.put("allocatedKBPerInvocation", round(allocated / 1024.0 / events.size()));
+        }
+        result.put("latencyMs", recorder.summary());
+        return result;
+    }
+
+    /** Bytes allocated by all threads so far, or -1 where the JVM cannot tell. */
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getTotalThreadAllocatedBytes();
+            }
+        }
+        return -1;
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return options.containsKey(name) ? Integer.parseInt(options.get(name)) : defaultValue;
+    }
+
+    private double doubleOption(String name, double defaultValue) {
+        return options.containsKey(name) ? Double.parseDouble(options.get(name)) : defaultValue;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
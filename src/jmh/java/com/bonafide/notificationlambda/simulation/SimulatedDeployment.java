@@ -0,0 +1,99 @@
+package com.bonafide.notificationlambda.simulation;
+
+import com.bonafide.notificationlambda.api.NotificationLambdaHandler;
+import com.bonafide.notificationlambda.config.NotificationProperties;
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import java.util.*;
+
+/**
+ * A handler wired to in-memory stand-ins for DynamoDB and the API Gateway Management
+ * API, with the connections, recipient index and notification status tables created and
+ * optionally preloaded, so the real routing and services run without AWS. Asynchronous
+ * fan-out shards run on the local dispatcher of the container that submitted them.
+ */
+public final class SimulatedDeployment {
+    public static final String CONNECTIONS_TABLE = "simulated-connections";
+    public static final String INDEX_TABLE = "simulated-connection-index";
+    public static final String STATUS_TABLE = "simulated-notification-status";
+    public static final long TTL_SECONDS = 7200;
+
+    private final InMemoryDynamoDbClient dynamoDb;
+    private final InMemoryManagementApiClient managementApi;
+    private final NotificationProperties properties;
+    private final NotificationLambdaHandler handler;
+
+    public SimulatedDeployment(InMemoryDynamoDbClient dynamoDb, InMemoryManagementApiClient managementApi,
+                               Properties overrides) {
+        this.dynamoDb = dynamoDb
+            .createTable(CONNECTIONS_TABLE, "connectionId", null)
+            .createTable(INDEX_TABLE, "indexKey", "connectionId")
+            .createTable(STATUS_TABLE, "notificationId", null);
+        this.managementApi = managementApi;
+        Properties properties = defaultProperties();
+        properties.putAll(overrides);
+        this.properties = new NotificationProperties(properties);
+        this.handler = newHandler();
+    }
+
+    /** Another warm container sharing the same tables and management API. */
+    public NotificationLambdaHandler newHandler() {
+        return new NotificationLambdaHandler(properties, CONNECTIONS_TABLE, INDEX_TABLE, STATUS_TABLE, dynamoDb, managementApi, null);
+    }
+
+    /**
+     * Settings that keep the service itself from being the bottleneck being measured:
+     * no snapshot priming, no send rate ceiling and a long delivery timeout.
+     */
+    public static Properties defaultProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("notification.snapstart.priming.enabled", "false");
+        properties.setProperty("notification.metrics.counters.enabled", "false");
+        properties.setProperty("notification.delivery.rate.initial-per-second", "10000000");
+        properties.setProperty("notification.delivery.rate.max-per-second", "10000000");
+        properties.setProperty("notification.timeout-ms", "600000");
+        properties.setProperty("notification.retry.delay-ms", "10");
+        properties.setProperty("notification.fanout.dispatcher", "local");
+        return properties;
+    }
+
+    /** Writes the connections and their index entries straight into the tables. */
+    public void load(List<ConnectionRecord> population) {
+        for (ConnectionRecord connection : population) {
+            store(connection);
+        }
+    }
+
+    public void store(ConnectionRecord connection) {
+        dynamoDb.load(CONNECTIONS_TABLE, SyntheticConnections.item(connection, TTL_SECONDS));
+        for (String indexKey : indexKeys(connection)) {
+            Map<String, AttributeValue> entry = new HashMap<>();
+            entry.put("indexKey", AttributeValue.builder().s(indexKey).build());
+            entry.put("connectionId", AttributeValue.builder().s(connection.getConnectionId()).build());
+            entry.put("userId", AttributeValue.builder().s(connection.getUserId()).build());
+            dynamoDb.load(INDEX_TABLE, entry);
+        }
+    }
+
+    public NotificationLambdaHandler getHandler() {
+        return handler;
+    }
+
+    public InMemoryDynamoDbClient getDynamoDb() {
+        return dynamoDb;
+    }
+
+    public InMemoryManagementApiClient getManagementApi() {
+        return managementApi;
+    }
+
+    private static Set<String> indexKeys(ConnectionRecord connection) {
+        Set<String> keys = new LinkedHashSet<>();
+        keys.add("user#" + connection.getUserId());
+        connection.getRoles().forEach(role -> keys.add("role#" + role));
+        connection.getTeams().forEach(team -> keys.add("team#" + team));
+        keys.add("department#" + connection.getDepartment());
+        connection.getSubscribedTopics().forEach(topic -> keys.add("topic#" + topic));
+        return keys;
+    }
+}
@@ -0,0 +1,38 @@
+package com.bonafide.notificationlambda.simulation;
+
+import lombok.Builder;
+import lombok.Data;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a stand-in service behaves per call: a latency drawn uniformly from
+ * {@code [latencyMillis, latencyMillis + latencyJitterMillis]}, and the probability that a
+ * call is throttled or, for the management API, answered with Gone.
+ */
+@Data
+@Builder
+public class StandInBehavior {
+    public static final StandInBehavior IMMEDIATE = StandInBehavior.builder().build();
+
+    private double latencyMillis;
+    private double latencyJitterMillis;
+    private double throttleRate;
+    private double goneRate;
+
+    public void pause() {
+        double millis = latencyMillis + (latencyJitterMillis > 0 ? ThreadLocalRandom.current().nextDouble(latencyJitterMillis) : 0);
+        if (millis > 0) {
+            LockSupport.parkNanos((long) (millis * TimeUnit.MILLISECONDS.toNanos(1)));
+        }
+    }
+
+    public boolean throttled() {
+        return throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate;
+    }
+
+    public boolean gone() {
+        return goneRate > 0 && ThreadLocalRandom.current().nextDouble() < goneRate;
+    }
+}
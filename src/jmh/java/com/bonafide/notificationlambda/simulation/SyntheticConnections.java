@@ -0,0 +1,147 @@
+package com.bonafide.notificationlambda.simulation;
+
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import com.bonafide.notificationlambda.model.NotificationRequest;
+import com.bonafide.notificationlambda.service.ConnectionItemCodec;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import java.util.*;
+
+/**
+ * Reproducible connection populations with skewed attribute distributions: most users
+ * hold the USER role and a few hold several, a handful of teams are much larger than the
+ * long tail, users keep about two connections open, and three in ten connections keep the
+ * default subscriptions while the rest subscribe to one to three topics.
+ */
+public final class SyntheticConnections {
+    public static final long SEED = 42L;
+    public static final List<String> ROLES = List.of(
+        "USER", "DEVELOPER", "MANAGER", "SUPPORT", "ADMIN", "AUDITOR", "FINANCE", "OPERATOR");
+    public static final List<String> DEPARTMENTS = List.of(
+        "ENGINEERING", "SALES", "SUPPORT", "FINANCE", "OPERATIONS", "HR", "LEGAL", "MARKETING", "GENERAL");
+    public static final List<String> DEFAULT_TOPICS = List.of("PROCESS_COMPLETE", "SYSTEM_ALERTS", "ERROR_ALERTS");
+    private static final int TEAMS = 200;
+    private static final int TOPICS = 20;
+
+    /** Who a synthetic notification is addressed to. */
+    public enum Audience {
+        USERS,
+        ROLE,
+        TEAM,
+        TOPIC,
+        BROADCAST
+    }
+
+    private SyntheticConnections() {
+    }
+
+    public static List<ConnectionRecord> records(int count, long seed) {
+        Random random = new Random(seed);
+        List<ConnectionRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(record(i, count, random));
+        }
+        return records;
+    }
+
+    public static ConnectionRecord record(int ordinal, int population, Random random) {
+        List<String> roles = new ArrayList<>();
+        roles.add("USER");
+        while (random.nextDouble() < 0.3 && roles.size() < 4) {
+            String role = ROLES.get(skewed(random, ROLES.size()));
+            if (!roles.contains(role)) {
+                roles.add(role);
+            }
+        }
+        List<String> teams = new ArrayList<>();
+        teams.add(team(skewed(random, TEAMS)));
+        if (random.nextDouble() < 0.2) {
+            String second = team(skewed(random, TEAMS));
+            if (!teams.contains(second)) {
+                teams.add(second);
+            }
+        }
+        List<String> topics;
+        if (random.nextDouble() < 0.3) {
+            topics = DEFAULT_TOPICS;
+        } else {
+            topics = new ArrayList<>();
+            int subscriptions = 1 + random.nextInt(3);
+            while (topics.size() < subscriptions) {
+                String topic = topic(skewed(random, TOPICS));
+                if (!topics.contains(topic)) {
+                    topics.add(topic);
+                }
+            }
+        }
+        long now = System.currentTimeMillis() / 1000;
+        return ConnectionRecord.builder()
+            .connectionId(connectionId(ordinal))
+            .userId(userId(random.nextInt(Math.max(1, population / 2))))
+            .roles(roles)
+            .teams(teams)
+            .department(DEPARTMENTS.get(skewed(random, DEPARTMENTS.size())))
+            .connectedAt(now)
+            .lastSeen(now)
+            .subscribedTopics(topics)
+            .build();
+    }
+
+    /** The item {@code ConnectionService.storeConnection} would write for the record by default. */
+    public static Map<String, AttributeValue> item(ConnectionRecord record, long ttlSeconds) {
+        return item(record, ttlSeconds, ConnectionItemCodec.COMPACT);
+    }
+
+    /** The item in the given {@link ConnectionItemCodec} format. */
+    public static Map<String, AttributeValue> item(ConnectionRecord record, long ttlSeconds, int format) {
+        return ConnectionItemCodec.toItem(record, record.getLastSeen() + ttlSeconds, format);
+    }
+
+    public static NotificationRequest notification(Audience audience, List<ConnectionRecord> population, Random random) {
+        NotificationRequest.NotificationRequestBuilder request = NotificationRequest.builder()
+            .type(topic(skewed(random, TOPICS)))
+            .title("Synthetic notification")
+            .message("Generated for performance measurements")
+            .moduleName("simulation")
+            .priority("MEDIUM")
+            .data(Map.of("processId", "p-" + random.nextInt(1_000_000), "progress", 100))
+            .timestamp(System.currentTimeMillis());
+        switch (audience) {
+            case USERS:
+                List<String> users = new ArrayList<>();
+                for (int i = 0; i < 5 && !population.isEmpty(); i++) {
+                    users.add(population.get(random.nextInt(population.size())).getUserId());
+                }
+                return request.targetUsers(users).build();
+            case ROLE:
+                return request.requiredRoles(List.of("ADMIN")).build();
+            case TEAM:
+                return request.targetTeams(List.of(team(skewed(random, TEAMS)))).build();
+            case BROADCAST:
+                return request.type("ALL").requiredRoles(List.of("USER")).build();
+            default:
+                return request.build();
+        }
+    }
+
+    public static String connectionId(int ordinal) {
+        return "conn-" + ordinal;
+    }
+
+    public static String userId(int ordinal) {
+        return "user-" + ordinal;
+    }
+
+    public static String team(int ordinal) {
+        return "team-" + ordinal;
+    }
+
+    public static String topic(int ordinal) {
+        return "TOPIC_" + ordinal;
+    }
+
+    /** Index in [0, size) with low indexes much more likely, roughly Zipf-shaped. */
+    private static int skewed(Random random, int size) {
+        double r = random.nextDouble();
+        return Math.min(size - 1, (int) (size * r * r * r));
+    }
+}
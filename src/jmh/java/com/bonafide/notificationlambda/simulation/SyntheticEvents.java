@@ -0,0 +1,109 @@
+package com.bonafide.notificationlambda.simulation;
+
+import com.bonafide.notificationlambda.config.JsonMappers;
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import com.bonafide.notificationlambda.model.NotificationRequest;
+import java.util.*;
+
+/** Lambda events shaped like the ones API Gateway, DynamoDB Streams and direct callers send. */
+public final class SyntheticEvents {
+    private SyntheticEvents() {
+    }
+
+    public static Map<String, Object> connect(ConnectionRecord connection) {
+        Map<String, Object> query = new HashMap<>();
+        query.put("userId", connection.getUserId());
+        query.put("roles", String.join(",", connection.getRoles()));
+        query.put("teams", String.join(",", connection.getTeams()));
+        query.put("department", connection.getDepartment());
+        Map<String, Object> event = websocket("$connect", connection.getConnectionId());
+        event.put("queryStringParameters", query);
+        return event;
+    }
+
+    public static Map<String, Object> disconnect(String connectionId) {
+        return websocket("$disconnect", connectionId);
+    }
+
+    public static Map<String, Object> heartbeat(String connectionId) {
+        Map<String, Object> event = websocket("$default", connectionId);
+        event.put("body", "{\"action\":\"heartbeat\"}");
+        return event;
+    }
+
+    public static Map<String, Object> httpSend(NotificationRequest notification) {
+        Map<String, Object> http = new HashMap<>();
+        http.put("method", "POST");
+        http.put("path", "/api/notifications/send");
+        Map<String, Object> requestContext = new HashMap<>();
+        requestContext.put("http", http);
+        requestContext.put("routeKey", "POST /api/notifications/send");
+        Map<String, Object> event = new HashMap<>();
+        event.put("version", "2.0");
+        event.put("rawPath", "/api/notifications/send");
+        event.put("requestContext", requestContext);
+        event.put("headers", Map.of("content-type", "application/json"));
+        event.put("body", json(notification));
+        return event;
+    }
+
+    public static Map<String, Object> directSend(NotificationRequest notification) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("action", "send_notification");
+        event.put("notification", JsonMappers.shared().convertValue(notification, Map.class));
+        return event;
+    }
+
+    /** A MODIFY record for the connection, as written by the table's stream with NEW_AND_OLD_IMAGES. */
+    public static Map<String, Object> streamModify(ConnectionRecord connection, String tableName) {
+        Map<String, Object> image = new HashMap<>();
+        image.put("connectionId", Map.of("S", connection.getConnectionId()));
+        image.put("userId", Map.of("S", connection.getUserId()));
+        image.put("roles", Map.of("SS", connection.getRoles()));
+        image.put("teams", Map.of("SS", connection.getTeams()));
+        image.put("department", Map.of("S", connection.getDepartment()));
+        image.put("connectedAt", Map.of("N", String.valueOf(connection.getConnectedAt())));
+        image.put("lastSeen", Map.of("N", String.valueOf(connection.getLastSeen())));
+        image.put("subscribedTopics", Map.of("SS", connection.getSubscribedTopics()));
+        Map<String, Object> change = new HashMap<>();
+        change.put("Keys", Map.of("connectionId", Map.of("S", connection.getConnectionId())));
+        change.put("NewImage", image);
+        change.put("OldImage", image);
+        Map<String, Object> record = new HashMap<>();
+        record.put("eventSource", "aws:dynamodb");
+        record.put("eventName", "MODIFY");
+        record.put("eventSourceARN", "arn:aws:dynamodb:us-east-1:000000000000:table/" + tableName + "/stream/simulated");
+        record.put("dynamodb", change);
+        Map<String, Object> event = new HashMap<>();
+        event.put("Records", List.of(record));
+        return event;
+    }
+
+    public static byte[] toBytes(Map<String, Object> event) {
+        try {
+            return JsonMappers.shared().writeValueAsBytes(event);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unserializable event", e);
+        }
+    }
+
+    private static Map<String, Object> websocket(String routeKey, String connectionId) {
+        Map<String, Object> requestContext = new HashMap<>();
+        requestContext.put("routeKey", routeKey);
+        requestContext.put("connectionId", connectionId);
+        requestContext.put("eventType", routeKey.substring(1).toUpperCase());
+        requestContext.put("stage", "simulated");
+        Map<String, Object> event = new HashMap<>();
+        event.put("requestContext", requestContext);
+        event.put("isBase64Encoded", false);
+        return event;
+    }
+
+    private static String json(Object value) {
+        try {
+            return JsonMappers.shared().writeValueAsString(value);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unserializable value", e);
+        }
+    }
+}
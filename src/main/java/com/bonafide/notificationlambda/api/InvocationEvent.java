@@ -0,0 +1,225 @@
+package com.bonafide.notificationlambda.api;
+
+import com.bonafide.notificationlambda.config.JsonMappers;
+import com.bonafide.notificationlambda.model.DeliveryShard;
+import com.bonafide.notificationlambda.model.NotificationRequest;
+import com.bonafide.notificationlambda.model.RequestType;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import lombok.Data;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The parts of a Lambda event the handler routes on, read either in a single pass over
+ * the raw event stream or from the runtime's pre-parsed map. Fields the handler never
+ * looks at are skipped without being materialized, and direct-invoke notifications
+ * are bound to {@link NotificationRequest} as they are read.
+ */
+@Data
+public class InvocationEvent {
+    private static final TypeReference<List<NotificationRequest>> NOTIFICATION_LIST = new TypeReference<>() {};
+    private static final TypeReference<List<Map<String, Object>>> RECORD_LIST = new TypeReference<>() {};
+
+    private boolean requestContextPresent;
+    private boolean httpPresent;
+    private boolean directInvoke;
+    private String routeKey;
+    private String connectionId;
+    private String httpMethod;
+    private String httpPath;
+    private String rawPath;
+    private Map<String, String> queryStringParameters;
+    private String body;
+    private String action;
+    private NotificationRequest notification;
+    private List<NotificationRequest> notifications;
+    private DeliveryShard shard;
+    /** Epoch millis after which a {@code replay} direct invoke resends buffered notifications. */
+    private Long since;
+    private List<Map<String, Object>> records;
+
+    public RequestType requestType() {
+        if (requestContextPresent) {
+            if (rawPath != null && rawPath.contains("api") && httpPresent) {
+                return RequestType.HTTP_API;
+            }
+            if (routeKey != null) {
+                switch (routeKey) {
+                    case "$connect": return RequestType.WEBSOCKET_CONNECT;
+                    case "$disconnect": return RequestType.WEBSOCKET_DISCONNECT;
+                    case "$default": return RequestType.WEBSOCKET_DEFAULT;
+                }
+            }
+        }
+        if (records != null && !records.isEmpty() && "aws:dynamodb".equals(records.get(0).get("eventSource"))) {
+            return RequestType.DYNAMODB_STREAM;
+        }
+        return directInvoke ? RequestType.DIRECT_INVOKE : RequestType.UNKNOWN;
+    }
+
+    public Map<String, String> getQueryStringParameters() {
+        return queryStringParameters != null ? queryStringParameters : Map.of();
+    }
+
+    /** Reads one event object from the parser, which must be positioned before its START_OBJECT. */
+    public static InvocationEvent read(JsonParser parser) throws IOException {
+        InvocationEvent event = new InvocationEvent();
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return event;
+        }
+        String topLevelConnectionId = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NULL) {
+                if ("requestSource".equals(field) || "action".equals(field)) {
+                    event.directInvoke = true;
+                }
+                continue;
+            }
+            switch (field) {
+                case "requestContext":
+                    event.requestContextPresent = true;
+                    readRequestContext(parser, event);
+                    break;
+                case "rawPath":
+                    event.rawPath = parser.getValueAsString();
+                    break;
+                case "queryStringParameters":
+                    event.queryStringParameters = readStringMap(parser);
+                    break;
+                case "body":
+                    event.body = parser.getValueAsString();
+                    break;
+                case "action":
+                    event.directInvoke = true;
+                    event.action = parser.getValueAsString();
+                    break;
+                case "requestSource":
+                    event.directInvoke = true;
+                    parser.skipChildren();
+                    break;
+                case "notification":
+                    event.notification = JsonMappers.shared().readValue(parser, NotificationRequest.class);
+                    break;
+                case "notifications":
+                    event.notifications = JsonMappers.shared().readValue(parser, NOTIFICATION_LIST);
+                    break;
+                case "shard":
+                    event.shard = JsonMappers.shared().readValue(parser, DeliveryShard.class);
+                    break;
+                case "connectionId":
+                    topLevelConnectionId = parser.getValueAsString();
+                    break;
+                case "since":
+                    event.since = parser.getValueAsLong();
+                    break;
+                case "Records":
+                    event.records = JsonMappers.shared().readValue(parser, RECORD_LIST);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        // As in fromMap: the request context's connection id wins, whichever field came first.
+        if (event.connectionId == null) {
+            event.connectionId = topLevelConnectionId;
+        }
+        return event;
+    }
+
+    /** Builds the event from the map the runtime produced for {@code RequestHandler} invocations. */
+    @SuppressWarnings("unchecked")
+    public static InvocationEvent fromMap(Map<String, Object> map) {
+        InvocationEvent event = new InvocationEvent();
+        if (map.get("requestContext") instanceof Map) {
+            Map<String, Object> requestContext = (Map<String, Object>) map.get("requestContext");
+            event.requestContextPresent = true;
+            event.routeKey = (String) requestContext.get("routeKey");
+            event.connectionId = (String) requestContext.get("connectionId");
+            if (requestContext.get("http") instanceof Map) {
+                Map<String, Object> http = (Map<String, Object>) requestContext.get("http");
+                event.httpPresent = true;
+                event.httpMethod = (String) http.get("method");
+                event.httpPath = (String) http.get("path");
+            }
+        }
+        event.rawPath = map.get("rawPath") != null ? map.get("rawPath").toString() : null;
+        if (map.get("queryStringParameters") instanceof Map) {
+            Map<String, String> params = new HashMap<>();
+            ((Map<String, Object>) map.get("queryStringParameters"))
+                .forEach((name, value) -> params.put(name, value != null ? value.toString() : null));
+            event.queryStringParameters = params;
+        }
+        event.body = (String) map.get("body");
+        event.directInvoke = map.containsKey("requestSource") || map.containsKey("action");
+        event.action = (String) map.get("action");
+        if (map.get("notification") != null) {
+            event.notification = JsonMappers.shared().convertValue(map.get("notification"), NotificationRequest.class);
+        }
+        if (map.get("notifications") != null) {
+            event.notifications = JsonMappers.shared().convertValue(map.get("notifications"), NOTIFICATION_LIST);
+        }
+        if (map.get("shard") != null) {
+            event.shard = JsonMappers.shared().convertValue(map.get("shard"), DeliveryShard.class);
+        }
+        if (event.connectionId == null && map.get("connectionId") != null) {
+            event.connectionId = map.get("connectionId").toString();
+        }
+        if (map.get("since") instanceof Number) {
+            event.since = ((Number) map.get("since")).longValue();
+        }
+        if (map.get("Records") instanceof List) {
+            event.records = (List<Map<String, Object>>) map.get("Records");
+        }
+        return event;
+    }
+
+    private static void readRequestContext(JsonParser parser, InvocationEvent event) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("routeKey".equals(field)) {
+                event.routeKey = parser.getValueAsString();
+            } else if ("connectionId".equals(field)) {
+                event.connectionId = parser.getValueAsString();
+            } else if ("http".equals(field) && value == JsonToken.START_OBJECT) {
+                event.httpPresent = true;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String httpField = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("method".equals(httpField)) {
+                        event.httpMethod = parser.getValueAsString();
+                    } else if ("path".equals(httpField)) {
+                        event.httpPath = parser.getValueAsString();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static Map<String, String> readStringMap(JsonParser parser) throws IOException {
+        Map<String, String> values = new HashMap<>();
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return values;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            values.put(name, parser.getValueAsString());
+            parser.skipChildren();
+        }
+        return values;
+    }
+}
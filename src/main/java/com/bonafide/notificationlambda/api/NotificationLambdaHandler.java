@@ -3,47 +3,329 @@ package com.bonafide.notificationlambda.api;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.bonafide.notificationlambda.config.JsonMappers;
+import com.bonafide.notificationlambda.config.LazyComponent;
+import com.bonafide.notificationlambda.config.NotificationProperties;
 import com.bonafide.notificationlambda.model.RequestType;
+import com.bonafide.notificationlambda.service.AdaptiveRateLimiter;
+import com.bonafide.notificationlambda.service.CatchUpBuffer;
 import com.bonafide.notificationlambda.service.ConnectionService;
+import com.bonafide.notificationlambda.service.DeliveryInstrumentation;
+import com.bonafide.notificationlambda.service.DeliveryRetryPolicy;
+import com.bonafide.notificationlambda.service.DeliveryScheduler;
+import com.bonafide.notificationlambda.service.DeliveryStatusStore;
+import com.bonafide.notificationlambda.service.DigestCoalescer;
+import com.bonafide.notificationlambda.service.IdempotencyStore;
+import com.bonafide.notificationlambda.service.LambdaShardDispatcher;
+import com.bonafide.notificationlambda.service.LocalShardDispatcher;
 import com.bonafide.notificationlambda.service.NotificationService;
+import com.bonafide.notificationlambda.service.ShardDispatcher;
+import com.bonafide.notificationlambda.service.ShardedFanout;
 import com.bonafide.notificationlambda.service.WebSocketService;
 import com.bonafide.notificationlambda.service.HttpApiService;
+import com.bonafide.notificationlambda.service.ManagementApiClientProvider;
+import com.bonafide.notificationlambda.service.NotificationPayloadEncoder;
+import com.bonafide.notificationlambda.model.DeliveryAggregate;
+import com.bonafide.notificationlambda.model.DeliveryShard;
 import com.bonafide.notificationlambda.model.NotificationRequest;
 import com.bonafide.notificationlambda.model.NotificationResult;
+import com.bonafide.notificationlambda.model.WebSocketMessage;
 import lombok.extern.slf4j.Slf4j;
+import org.crac.Core;
+import org.crac.Resource;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.lambda.LambdaClient;
+import software.amazon.awssdk.services.lambda.model.InvocationType;
+import software.amazon.awssdk.services.lambda.model.InvokeRequest;
 import java.util.*;
 import java.net.URI;
 import java.time.Instant;
 
 @Slf4j
-public class NotificationLambdaHandler implements RequestHandler<Map<String, Object>, Map<String, Object>> {
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+public class NotificationLambdaHandler implements RequestHandler<Map<String, Object>, Map<String, Object>>, Resource {
+    private static final ObjectMapper objectMapper = JsonMappers.shared();
     private static final String CONNECTIONS_TABLE = System.getenv("CONNECTIONS_TABLE");
+    private static final String CONNECTION_INDEX_TABLE = System.getenv("CONNECTION_INDEX_TABLE");
+    private static final String NOTIFICATION_STATUS_TABLE = System.getenv("NOTIFICATION_STATUS_TABLE");
+    private static final String AWS_LAMBDA_FUNCTION_NAME = System.getenv("AWS_LAMBDA_FUNCTION_NAME");
     private static final String WEBSOCKET_API_ENDPOINT = System.getenv("WEBSOCKET_API_ENDPOINT");
     private static final String AWS_REGION = System.getenv("AWS_REGION");
-    private final DynamoDbClient dynamoDbClient;
-    private final ConnectionService connectionService;
-    private final NotificationService notificationService;
-    private final WebSocketService webSocketService;
-    private final HttpApiService httpApiService;
+    private static final String PRIMING_CONNECTION_ID = "snapstart-priming";
+    private final NotificationProperties properties;
+    private final LazyComponent<DynamoDbClient> dynamoDbClient;
+    private final LazyComponent<ConnectionService> connectionService;
+    private final LazyComponent<ManagementApiClientProvider> clientProvider;
+    private final LazyComponent<WebSocketService> webSocketService;
+    private final LazyComponent<NotificationService> notificationService;
+    private final LazyComponent<ShardedFanout> shardedFanout;
+    private final LazyComponent<HttpApiService> httpApiService;
+    private final LazyComponent<LambdaClient> lambdaClient;
+    private final boolean catchUpAvailable;
+    private final List<String> defaultTopics;
+    private final String connectionsTable;
+    private final long notificationTimeoutMillis;
+    private final long deadlineMarginMillis;
+    private volatile boolean checkpointing;
 
+    /**
+     * Only loads properties; every client and service is built by the first route that
+     * needs it, so a $disconnect never builds the WebSocket client or the delivery stack.
+     */
     public NotificationLambdaHandler() {
-        this.dynamoDbClient = DynamoDbClient.builder()
+        this(loadProperties(), CONNECTIONS_TABLE, CONNECTION_INDEX_TABLE, NOTIFICATION_STATUS_TABLE, null, null, null);
+    }
+
+    /**
+     * Wires the handler to the given clients instead of building AWS ones, for running the
+     * real routing and services against stand-ins. A null client is built as usual.
+     */
+    public NotificationLambdaHandler(NotificationProperties properties, String connectionsTable, String indexTable,
+                                     DynamoDbClient dynamoDb, ApiGatewayManagementApiClient managementClient) {
+        this(properties, connectionsTable, indexTable, null, dynamoDb, managementClient, null);
+    }
+
+    /**
+     * As above, with the asynchronous fan-out enabled when {@code statusTable} is set. A null
+     * dispatcher is chosen by {@code notification.fanout.dispatcher}.
+     */
+    @SuppressWarnings("this-escape")
+    public NotificationLambdaHandler(NotificationProperties properties, String connectionsTable, String indexTable,
+                                     String statusTable, DynamoDbClient dynamoDb,
+                                     ApiGatewayManagementApiClient managementClient, ShardDispatcher dispatcher) {
+        this.properties = properties;
+        this.dynamoDbClient = new LazyComponent<>("dynamoDbClient", () -> dynamoDb != null ? dynamoDb : DynamoDbClient.builder()
+            .region(software.amazon.awssdk.regions.Region.of(AWS_REGION))
+            .httpClient(ApacheHttpClient.builder()
+                .maxConnections(properties.getInt("notification.dynamodb.max-connections", 50))
+                .build())
+            .build());
+        this.connectionService = new LazyComponent<>("connectionService", () ->
+            new ConnectionService(dynamoDbClient.get(), connectionsTable, indexTable, properties));
+        this.clientProvider = new LazyComponent<>("managementApiClient", () -> managementClient != null
+            ? new ManagementApiClientProvider(managementClient)
+            : new ManagementApiClientProvider(WEBSOCKET_API_ENDPOINT, AWS_REGION,
+                properties.getInt("notification.websocket.max-connections", 64),
+                properties.getLong("notification.websocket.connection-max-idle-ms", 60000),
+                properties.getBoolean("notification.websocket.tcp-keep-alive", true)));
+        this.webSocketService = new LazyComponent<>("webSocketService", () -> {
+            WebSocketService service = new WebSocketService(
+                clientProvider.get(),
+                properties.getInt("notification.delivery.max-in-flight", 64),
+                DeliveryRetryPolicy.fromProperties(properties),
+                AdaptiveRateLimiter.fromProperties(properties),
+                properties.getInt("notification.batch-size", 100));
+            if (!checkpointing) {
+                service.prewarm(properties.getInt("notification.websocket.prewarm-connections", 0));
+            }
+            return service;
+        });
+        boolean asyncAvailable = statusTable != null && !statusTable.isBlank();
+        this.notificationService = new LazyComponent<>("notificationService", () -> NotificationService.builder()
+            .connectionService(connectionService.get())
+            .webSocketService(webSocketService.get())
+            .deliveryScheduler(new DeliveryScheduler(
+                properties.getInt("notification.delivery.max-in-flight", 64),
+                properties.getDouble("notification.delivery.high-reserved-share", 0.25),
+                properties.getDouble("notification.delivery.low-max-share", 0.5)))
+            .timeoutMillis(properties.getLong("notification.timeout-ms", 30000))
+            .instrumentation(DeliveryInstrumentation.fromProperties(properties))
+            .idempotencyStore(properties.getBoolean("notification.idempotency.enabled", true)
+                ? IdempotencyStore.fromProperties(properties, asyncAvailable ? dynamoDbClient.get() : null, statusTable)
+                : null)
+            .digestCoalescer(DigestCoalescer.fromProperties(properties))
+            .catchUpBuffer(CatchUpBuffer.fromProperties(properties, asyncAvailable ? dynamoDbClient.get() : null,
+                asyncAvailable ? statusTable : null))
+            .build());
+        this.shardedFanout = new LazyComponent<>("shardedFanout", () -> ShardedFanout.fromProperties(properties,
+            new DeliveryStatusStore(dynamoDbClient.get(), statusTable,
+                properties.getLong("notification.fanout.status-ttl-seconds", 86400)),
+            dispatcher != null ? dispatcher : shardDispatcher()));
+        this.httpApiService = new LazyComponent<>("httpApiService", () ->
+            new HttpApiService(notificationService, connectionService, asyncAvailable ? shardedFanout : () -> null,
+                properties.getBoolean("notification.fanout.async.enabled", false)));
+        this.lambdaClient = new LazyComponent<>("lambdaClient", () -> LambdaClient.builder()
             .region(software.amazon.awssdk.regions.Region.of(AWS_REGION))
-            .build();
-        this.connectionService = new ConnectionService(dynamoDbClient, CONNECTIONS_TABLE);
-        this.webSocketService = new WebSocketService(WEBSOCKET_API_ENDPOINT, AWS_REGION);
-        this.notificationService = new NotificationService(connectionService, webSocketService);
-        this.httpApiService = new HttpApiService(notificationService, connectionService);
+            .httpClient(ApacheHttpClient.builder().build())
+            .build());
+        this.catchUpAvailable = asyncAvailable && properties.getBoolean("notification.catchup.enabled", true);
+        this.defaultTopics = List.of(properties.getString("notification.connection.default-topics",
+            "PROCESS_COMPLETE,SYSTEM_ALERTS,ERROR_ALERTS").split("\\s*,\\s*"));
+        this.connectionsTable = connectionsTable;
+        this.notificationTimeoutMillis = properties.getLong("notification.timeout-ms", 30000);
+        this.deadlineMarginMillis = properties.getLong("notification.delivery.deadline-margin-ms", 1000);
+        if (properties.getBoolean("notification.snapstart.priming.enabled", true)) {
+            // Last statement: the CRaC context only calls back at checkpoint, after construction.
+            Core.getGlobalContext().register(this);
+        }
+    }
+
+    /** Shards go to this function's own workers, unless configured to run in this container. */
+    private ShardDispatcher shardDispatcher() {
+        if ("local".equalsIgnoreCase(properties.getString("notification.fanout.dispatcher", "lambda"))) {
+            return new LocalShardDispatcher(this::deliverShard);
+        }
+        return new LambdaShardDispatcher(lambdaClient.get(), functionName(), objectMapper);
+    }
+
+    private String functionName() {
+        return AWS_LAMBDA_FUNCTION_NAME != null ? AWS_LAMBDA_FUNCTION_NAME
+            : properties.getString("notification.aws.lambda.function-name", "notification-service-lambda");
+    }
+
+    /**
+     * API Gateway rejects posts to a connection until its $connect returns, so the replay
+     * runs in an asynchronous invocation of this function, or on a virtual thread when
+     * {@code notification.fanout.dispatcher} keeps asynchronous work in this container. The
+     * latter is not durable: the thread outlives $connect, and Lambda may freeze or recycle
+     * the container before it finishes, so it only suits local runs and the simulations.
+     */
+    private void dispatchReplay(String connectionId, long sinceMillis) {
+        if ("local".equalsIgnoreCase(properties.getString("notification.fanout.dispatcher", "lambda"))) {
+            Thread.ofVirtual().start(() -> replay(connectionId, sinceMillis, notificationService.get().deadlineFor(Long.MAX_VALUE)));
+            return;
+        }
+        try {
+            lambdaClient.get().invoke(InvokeRequest.builder()
+                .functionName(functionName())
+                .invocationType(InvocationType.EVENT)
+                .payload(SdkBytes.fromByteArrayUnsafe(objectMapper.writeValueAsBytes(Map.of(
+                    "action", "replay",
+                    "connectionId", connectionId,
+                    "since", sinceMillis))))
+                .build());
+        } catch (Exception e) {
+            log.error("Error dispatching replay for connection {}", connectionId, e);
+        }
+    }
+
+    private NotificationResult replay(String connectionId, long sinceMillis, long deadlineMillis) {
+        if (!webSocketService.get().awaitConnection(connectionId, properties.getLong("notification.catchup.connect-wait-ms", 5000))) {
+            log.info("Connection {} not established in time, skipping replay", connectionId);
+            return NotificationResult.builder().status("NO_RECIPIENTS").message("Connection not established").build();
+        }
+        return notificationService.get().replay(connectionId, sinceMillis, deadlineMillis);
+    }
+
+    /** {@code since} as epoch millis or an ISO-8601 instant, such as the {@code sentAt} of the last frame received. */
+    private static Long parseSince(String since) {
+        if (since == null || since.isBlank()) {
+            return null;
+        }
+        try {
+            return since.chars().allMatch(Character::isDigit) ? Long.parseLong(since) : Instant.parse(since).toEpochMilli();
+        } catch (Exception e) {
+            log.info("Ignoring unparseable since: {}", since);
+            return null;
+        }
+    }
+
+    private NotificationResult deliverShard(DeliveryShard shard) {
+        return deliverShard(shard, notificationService.get().deadlineFor(Long.MAX_VALUE));
+    }
+
+    private NotificationResult deliverShard(DeliveryShard shard, long deadlineMillis) {
+        if (shardedFanout.get().isShardRecorded(shard)) {
+            log.info("Shard {} of notification {} already delivered, skipping", shard.getShard(), shard.getNotificationId());
+            DeliveryAggregate aggregate = shardedFanout.get().getDelivery(shard.getNotificationId());
+            return NotificationResult.builder()
+                .status(aggregate != null ? aggregate.getStatus() : null)
+                .message("Shard already delivered")
+                .duplicate(true)
+                .build();
+        }
+        NotificationResult result = notificationService.get().deliverShard(shard, deadlineMillis);
+        shardedFanout.get().recordShard(shard, result);
+        return result;
+    }
+
+    private static NotificationProperties loadProperties() {
+        long start = System.nanoTime();
+        NotificationProperties properties = NotificationProperties.load();
+        LazyComponent.record("properties", (System.nanoTime() - start) / 1_000_000);
+        return properties;
+    }
+
+    /**
+     * Runs before the SnapStart snapshot is taken: builds every component and exercises the
+     * Jackson bindings on every route, so the classes they load and the code they JIT-compile
+     * are part of the snapshot instead of the first invocation. Nothing is sent over the
+     * network, since connections opened now would be stale after restore.
+     */
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        long start = System.nanoTime();
+        checkpointing = true;
+        try {
+            NotificationRequest sample = objectMapper.readValue(
+                "{\"type\":\"SYSTEM_ALERTS\",\"title\":\"priming\",\"message\":\"priming\",\"priority\":\"LOW\","
+                    + "\"targetUsers\":[\"" + PRIMING_CONNECTION_ID + "\"],\"data\":{\"k\":1},\"timestamp\":0}",
+                NotificationRequest.class);
+            new NotificationPayloadEncoder(objectMapper).encode(sample);
+            objectMapper.readValue("{\"action\":\"heartbeat\",\"topics\":[]}", WebSocketMessage.class);
+            InvocationEvent.read(objectMapper.getFactory().createParser(
+                "{\"rawPath\":\"/api/notifications/health\",\"requestContext\":{\"routeKey\":\"$default\","
+                    + "\"connectionId\":\"" + PRIMING_CONNECTION_ID + "\",\"http\":{\"method\":\"GET\",\"path\":\"/\"}},"
+                    + "\"queryStringParameters\":{\"limit\":\"1\"},\"body\":\"{}\"}"));
+            objectMapper.writeValueAsString(httpApiService.get().handleRequest("GET", "/api/notifications/health", null, Map.of(),
+                System.currentTimeMillis()));
+            connectionService.get();
+            notificationService.get();
+        } catch (Exception e) {
+            log.warn("Snapshot priming did not complete", e);
+        } finally {
+            checkpointing = false;
+        }
+        log.info("Primed for snapshot in {} ms, component init times: {}",
+            (System.nanoTime() - start) / 1_000_000, LazyComponent.initTimes());
+    }
+
+    /**
+     * Warms the network path once restored: a DynamoDB read exercises the SDK marshallers and
+     * opens a pooled connection, and the management client, rebuilt in case anything was
+     * pooled at checkpoint, opens at least one.
+     */
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        long start = System.nanoTime();
+        if (dynamoDbClient.isInitialized()) {
+            try {
+                dynamoDbClient.get().getItem(GetItemRequest.builder()
+                    .tableName(connectionsTable)
+                    .key(Map.of("connectionId", AttributeValue.builder().s(PRIMING_CONNECTION_ID).build()))
+                    .build());
+            } catch (Exception e) {
+                log.warn("DynamoDB warm-up after restore did not complete", e);
+            }
+        }
+        if (clientProvider.isInitialized()) {
+            clientProvider.get().close();
+            webSocketService.get().prewarm(Math.max(1, properties.getInt("notification.websocket.prewarm-connections", 0)));
+        }
+        LazyComponent.record("restore", (System.nanoTime() - start) / 1_000_000);
     }
 
     @Override
     public Map<String, Object> handleRequest(Map<String, Object> event, Context context) {
+        if (log.isDebugEnabled()) {
+            try {
+                log.debug("Received event: {}", objectMapper.writeValueAsString(event));
+            } catch (Exception e) {
+                log.debug("Received unserializable event", e);
+            }
+        }
+        return handle(InvocationEvent.fromMap(event), context);
+    }
+
+    /** Routes an event read by either entry point; {@link NotificationStreamHandler} reads it straight from the stream. */
+    Map<String, Object> handle(InvocationEvent event, Context context) {
         try {
-            log.info("Received event: {}", objectMapper.writeValueAsString(event));
-            RequestType requestType = determineRequestType(event);
+            RequestType requestType = event.requestType();
+            log.debug("Routing {} request", requestType);
             switch (requestType) {
                 case WEBSOCKET_CONNECT:
                     return handleWebSocketConnect(event);
@@ -52,51 +334,32 @@ public class NotificationLambdaHandler implements RequestHandler<Map<String, Obj
                 case WEBSOCKET_DEFAULT:
                     return handleWebSocketDefault(event);
                 case HTTP_API:
-                    return handleHttpApi(event);
+                    return handleHttpApi(event, deliveryDeadline(context));
                 case DIRECT_INVOKE:
-                    return handleDirectInvoke(event);
+                    return handleDirectInvoke(event, deliveryDeadline(context));
+                case DYNAMODB_STREAM:
+                    return handleDynamoDbStream(event);
                 default:
                     return createErrorResponse(400, "Unknown request type");
             }
         } catch (Exception e) {
             log.error("Error processing request", e);
             return createErrorResponse(500, "Internal server error: " + e.getMessage());
-        }
-    }
-
-    private RequestType determineRequestType(Map<String, Object> event) {
-        if (event.containsKey("requestContext")) {
-            Map<String, Object> requestContext = (Map<String, Object>) event.get("requestContext");
-            log.info("raw path :: {}, contains http :: {}", requestContext.getOrDefault("rawPath","").toString(), requestContext.containsKey("http"));
-            if (event.getOrDefault("rawPath","").toString().contains("api") && requestContext.containsKey("http")) {
-                return RequestType.HTTP_API;
+        } finally {
+            if (connectionService.isInitialized()) {
+                connectionService.get().flushHeartbeats();
             }
-
-            if (requestContext.containsKey("routeKey")) {
-                String routeKey = (String) requestContext.get("routeKey");
-                switch (routeKey) {
-                    case "$connect": return RequestType.WEBSOCKET_CONNECT;
-                    case "$disconnect": return RequestType.WEBSOCKET_DISCONNECT;
-                    case "$default": return RequestType.WEBSOCKET_DEFAULT;
-                }
-            }
-        }
-        if (event.containsKey("requestSource") || event.containsKey("action")) {
-            return RequestType.DIRECT_INVOKE;
         }
-        return RequestType.UNKNOWN;
     }
 
-    private Map<String, Object> handleWebSocketConnect(Map<String, Object> event) {
+    private Map<String, Object> handleWebSocketConnect(InvocationEvent event) {
         try {
-            Map<String, Object> requestContext = (Map<String, Object>) event.get("requestContext");
-            String connectionId = (String) requestContext.get("connectionId");
-            Map<String, Object> queryParams = (Map<String, Object>) event.get("queryStringParameters");
-            if (queryParams == null) queryParams = new HashMap<>();
-            String userId = (String) queryParams.getOrDefault("userId", "anonymous");
-            String roles = (String) queryParams.getOrDefault("roles", "USER");
-            String teams = (String) queryParams.getOrDefault("teams", "DEFAULT");
-            String department = (String) queryParams.getOrDefault("department", "GENERAL");
+            String connectionId = event.getConnectionId();
+            Map<String, String> queryParams = event.getQueryStringParameters();
+            String userId = queryParams.getOrDefault("userId", "anonymous");
+            String roles = queryParams.getOrDefault("roles", "USER");
+            String teams = queryParams.getOrDefault("teams", "DEFAULT");
+            String department = queryParams.getOrDefault("department", "GENERAL");
             com.bonafide.notificationlambda.model.ConnectionRecord connection = com.bonafide.notificationlambda.model.ConnectionRecord.builder()
                 .connectionId(connectionId)
                 .userId(userId)
@@ -105,9 +368,13 @@ public class NotificationLambdaHandler implements RequestHandler<Map<String, Obj
                 .department(department)
                 .connectedAt(Instant.now().getEpochSecond())
                 .lastSeen(Instant.now().getEpochSecond())
-                .subscribedTopics(Arrays.asList("PROCESS_COMPLETE", "SYSTEM_ALERTS", "ERROR_ALERTS", "ALL"))
+                .subscribedTopics(defaultTopics)
                 .build();
-            connectionService.storeConnection(connection);
+            connectionService.get().storeConnection(connection);
+            Long since = catchUpAvailable ? parseSince(queryParams.get("since")) : null;
+            if (since != null) {
+                dispatchReplay(connectionId, since);
+            }
             log.info("WebSocket connected: {} for user {}", connectionId, userId);
             return createSuccessResponse();
         } catch (Exception e) {
@@ -116,11 +383,10 @@ public class NotificationLambdaHandler implements RequestHandler<Map<String, Obj
         }
     }
 
-    private Map<String, Object> handleWebSocketDisconnect(Map<String, Object> event) {
+    private Map<String, Object> handleWebSocketDisconnect(InvocationEvent event) {
         try {
-            Map<String, Object> requestContext = (Map<String, Object>) event.get("requestContext");
-            String connectionId = (String) requestContext.get("connectionId");
-            connectionService.removeConnection(connectionId);
+            String connectionId = event.getConnectionId();
+            connectionService.get().removeConnection(connectionId);
             log.info("WebSocket disconnected: {}", connectionId);
             return createSuccessResponse();
         } catch (Exception e) {
@@ -129,25 +395,20 @@ public class NotificationLambdaHandler implements RequestHandler<Map<String, Obj
         }
     }
 
-    private Map<String, Object> handleWebSocketDefault(Map<String, Object> event) {
+    private Map<String, Object> handleWebSocketDefault(InvocationEvent event) {
         try {
-            Map<String, Object> requestContext = (Map<String, Object>) event.get("requestContext");
-            String connectionId = (String) requestContext.get("connectionId");
-            String body = (String) event.get("body");
+            String connectionId = event.getConnectionId();
+            String body = event.getBody();
             if (body != null && !body.isEmpty()) {
-                JsonNode messageNode = objectMapper.readTree(body);
-                String action = messageNode.path("action").asText("unknown");
+                WebSocketMessage message = objectMapper.readValue(body, WebSocketMessage.class);
+                String action = message.getAction() != null ? message.getAction() : "unknown";
                 switch (action) {
                     case "heartbeat":
-                        connectionService.updateHeartbeat(connectionId);
+                        connectionService.get().updateHeartbeat(connectionId);
                         break;
                     case "subscribe":
-                        JsonNode topicsNode = messageNode.path("topics");
-                        List<String> topics = new ArrayList<>();
-                        if (topicsNode.isArray()) {
-                            topicsNode.forEach(topic -> topics.add(topic.asText()));
-                        }
-                        connectionService.updateSubscriptions(connectionId, topics);
+                        connectionService.get().updateSubscriptions(connectionId,
+                            message.getTopics() != null ? message.getTopics() : new ArrayList<>());
                         break;
                     default:
                         log.info("Unknown WebSocket action: {}", action);
@@ -160,39 +421,59 @@ public class NotificationLambdaHandler implements RequestHandler<Map<String, Obj
         }
     }
 
-    private Map<String, Object> handleHttpApi(Map<String, Object> event) {
+    /**
+     * Epoch millis after which deliveries stop starting sends and retries, leaving
+     * {@code notification.delivery.deadline-margin-ms} of the invocation for pruning and the response.
+     */
+    private long deliveryDeadline(Context context) {
+        long remaining = context != null ? context.getRemainingTimeInMillis() - deadlineMarginMillis : Long.MAX_VALUE;
+        return System.currentTimeMillis() + Math.min(notificationTimeoutMillis, Math.max(0, remaining));
+    }
+
+    private Map<String, Object> handleHttpApi(InvocationEvent event, long deadlineMillis) {
         try {
-            Map<String, Object> requestContext = (Map<String, Object>) event.get("requestContext");
-            Map<String, Object> http = (Map<String, Object>) requestContext.get("http");
-            String method = (String) http.get("method");
-            String path = (String) http.get("path");
+            String method = event.getHttpMethod();
+            String path = event.getHttpPath();
             log.info("HTTP API request: {} {}", method, path);
 
             if ("OPTIONS".equals(method)) {
-                return handleCorsOptions(event);
+                return handleCorsOptions();
             }
 
-            return httpApiService.handleRequest(method, path, event);
+            return httpApiService.get().handleRequest(method, path, event.getBody(), event.getQueryStringParameters(), deadlineMillis);
         } catch (Exception e) {
             log.error("Error handling HTTP API request", e);
             return createErrorResponse(500, "Internal server error: " + e.getMessage());
         }
     }
 
-    private Map<String, Object> handleDirectInvoke(Map<String, Object> event) {
+    private Map<String, Object> handleDirectInvoke(InvocationEvent event, long deadlineMillis) {
         try {
-            String action = (String) event.get("action");
+            String action = event.getAction();
             if ("send_notification".equals(action)) {
-                Map<String, Object> notification = (Map<String, Object>) event.get("notification");
-                NotificationRequest request = objectMapper.convertValue(notification, NotificationRequest.class);
-                NotificationResult result = notificationService.sendNotification(request);
-                return Map.of(
-                    "status", result.getStatus(),
-                    "sent", result.getSent(),
-                    "failed", result.getFailed(),
-                    "total_recipients", result.getTotalRecipients(),
-                    "message", result.getMessage()
-                );
+                return toDirectInvokeResult(notificationService.get().sendNotification(event.getNotification(), deadlineMillis));
+            }
+            if ("deliver_shard".equals(action)) {
+                if (event.getShard() == null || event.getShard().getNotification() == null) {
+                    return createErrorResponse(400, "deliver_shard requires a shard with a notification");
+                }
+                return toDirectInvokeResult(deliverShard(event.getShard(), deadlineMillis));
+            }
+            if ("replay".equals(action)) {
+                if (event.getConnectionId() == null || event.getSince() == null) {
+                    return createErrorResponse(400, "replay requires connectionId and since");
+                }
+                return toDirectInvokeResult(replay(event.getConnectionId(), event.getSince(), deadlineMillis));
+            }
+            if ("reconcile_counters".equals(action)) {
+                return Map.of("statusCode", 200, "counters", connectionService.get().reconcileCounters());
+            }
+            if ("send_notifications".equals(action)) {
+                List<Map<String, Object>> results = new ArrayList<>();
+                for (NotificationResult result : notificationService.get().sendNotifications(event.getNotifications(), deadlineMillis)) {
+                    results.add(toDirectInvokeResult(result));
+                }
+                return Map.of("results", results);
             }
             return createErrorResponse(400, "Unknown action: " + action);
         } catch (Exception e) {
@@ -201,18 +482,42 @@ public class NotificationLambdaHandler implements RequestHandler<Map<String, Obj
         }
     }
 
+    private static Map<String, Object> toDirectInvokeResult(NotificationResult result) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", result.getStatus());
+        response.put("sent", result.getSent());
+        response.put("failed", result.getFailed());
+        response.put("total_recipients", result.getTotalRecipients());
+        response.put("message", result.getMessage());
+        if (result.getStageTimingsMs() != null) {
+            response.put("stage_timings_ms", result.getStageTimingsMs());
+        }
+        return response;
+    }
+
+    /** Reports the records that failed as batch item failures, so Lambda redelivers them instead of moving on. */
+    private Map<String, Object> handleDynamoDbStream(InvocationEvent event) {
+        List<Map<String, Object>> records = event.getRecords();
+        List<Map<String, Object>> failures = new ArrayList<>();
+        for (String sequenceNumber : connectionService.get().applyStreamRecords(records)) {
+            failures.add(Map.of("itemIdentifier", sequenceNumber));
+        }
+        log.info("Applied {} connection stream records, {} failed", records.size() - failures.size(), failures.size());
+        return Map.of("batchItemFailures", failures);
+    }
+
     private Map<String, Object> createSuccessResponse() {
         return Map.of("statusCode", 200);
     }
 
-    private Map<String, Object> createErrorResponse(int statusCode, String message) {
+    Map<String, Object> createErrorResponse(int statusCode, String message) {
         return Map.of(
             "statusCode", statusCode,
             "body", objectMapper.valueToTree(Map.of("error", message)).toString()
         );
     }
 
-    private Map<String, Object> handleCorsOptions(Map<String, Object> event) {
+    private Map<String, Object> handleCorsOptions() {
         return Map.of(
                 "statusCode", 200,
                 "headers", Map.of(
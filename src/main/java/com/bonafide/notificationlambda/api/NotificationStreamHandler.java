@@ -0,0 +1,46 @@
+package com.bonafide.notificationlambda.api;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.bonafide.notificationlambda.config.JsonMappers;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Stream entry point for the same routes as {@link NotificationLambdaHandler}. The event
+ * is read once with a streaming parser into an {@link InvocationEvent} and the response
+ * is serialized straight to the output stream, so no invocation builds the event as
+ * nested maps. Configure it as {@code com.bonafide.notificationlambda.api.NotificationStreamHandler::handleRequest}.
+ */
+@Slf4j
+public class NotificationStreamHandler implements RequestStreamHandler {
+    private static final ObjectMapper objectMapper = JsonMappers.shared();
+    private final NotificationLambdaHandler handler;
+
+    public NotificationStreamHandler() {
+        this(new NotificationLambdaHandler());
+    }
+
+    NotificationStreamHandler(NotificationLambdaHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+        InvocationEvent event;
+        try (JsonParser parser = objectMapper.getFactory().createParser(input)) {
+            event = InvocationEvent.read(parser);
+        } catch (IOException e) {
+            log.error("Error reading event", e);
+            objectMapper.writeValue(output, handler.createErrorResponse(400, "Malformed event"));
+            return;
+        }
+        Map<String, Object> response = handler.handle(event, context);
+        objectMapper.writeValue(output, response);
+    }
+}
@@ -0,0 +1,18 @@
+package com.bonafide.notificationlambda.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The container-wide Jackson mapper. ObjectMapper is thread-safe once configured and
+ * expensive to build, so every component shares this one instead of creating its own.
+ */
+public final class JsonMappers {
+    private static final ObjectMapper SHARED = new ObjectMapper();
+
+    private JsonMappers() {
+    }
+
+    public static ObjectMapper shared() {
+        return SHARED;
+    }
+}
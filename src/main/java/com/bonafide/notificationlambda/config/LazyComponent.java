@@ -0,0 +1,60 @@
+package com.bonafide.notificationlambda.config;
+
+import lombok.extern.slf4j.Slf4j;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A container-wide component built on first use, so an invocation only pays for the
+ * components its route needs. How long each component took to build is logged and kept
+ * for {@link #initTimes()}.
+ */
+@Slf4j
+public final class LazyComponent<T> implements Supplier<T> {
+    private static final Map<String, Long> INIT_MILLIS = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    private final String name;
+    private final Supplier<T> factory;
+    private volatile T value;
+
+    public LazyComponent(String name, Supplier<T> factory) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+    @Override
+    public T get() {
+        T current = value;
+        if (current == null) {
+            synchronized (this) {
+                current = value;
+                if (current == null) {
+                    long start = System.nanoTime();
+                    current = factory.get();
+                    value = current;
+                    record(name, (System.nanoTime() - start) / 1_000_000);
+                }
+            }
+        }
+        return current;
+    }
+
+    public boolean isInitialized() {
+        return value != null;
+    }
+
+    /** Records the init time of a step that is not a lazy component, such as loading properties. */
+    public static void record(String name, long millis) {
+        INIT_MILLIS.put(name, millis);
+        log.info("Initialized {} in {} ms", name, millis);
+    }
+
+    /** Build time per component, in the order the components were built. */
+    public static Map<String, Long> initTimes() {
+        synchronized (INIT_MILLIS) {
+            return new LinkedHashMap<>(INIT_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.bonafide.notificationlambda.config;
+
+import lombok.extern.slf4j.Slf4j;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Settings from {@code notificationlambda/notification-service.properties}.
+ * Every key can be overridden by an environment variable named after it,
+ * e.g. {@code notification.scan.segments} by {@code NOTIFICATION_SCAN_SEGMENTS}.
+ */
+@Slf4j
+public class NotificationProperties {
+    private static final String RESOURCE = "notificationlambda/notification-service.properties";
+    private final Properties properties;
+
+    public NotificationProperties(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static NotificationProperties load() {
+        Properties properties = new Properties();
+        try (InputStream in = NotificationProperties.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (Exception e) {
+            log.error("Error loading {}", RESOURCE, e);
+        }
+        return new NotificationProperties(properties);
+    }
+
+    public String getString(String key, String defaultValue) {
+        String value = System.getenv(toEnvName(key));
+        if (value == null || value.isBlank()) {
+            value = properties.getProperty(key);
+        }
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(getString(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value for {}, using {}", key, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public long getLong(String key, long defaultValue) {
+        try {
+            return Long.parseLong(getString(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value for {}, using {}", key, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        try {
+            return Double.parseDouble(getString(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value for {}, using {}", key, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(getString(key, String.valueOf(defaultValue)));
+    }
+
+    static String toEnvName(String key) {
+        return key.toUpperCase().replace('.', '_').replace('-', '_');
+    }
+}
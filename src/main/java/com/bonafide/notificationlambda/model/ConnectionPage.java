@@ -0,0 +1,17 @@
+package com.bonafide.notificationlambda.model;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConnectionPage {
+    private List<Map<String, Object>> connections;
+    private String nextCursor;
+}
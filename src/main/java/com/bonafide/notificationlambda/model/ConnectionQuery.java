@@ -0,0 +1,20 @@
+package com.bonafide.notificationlambda.model;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConnectionQuery {
+    private String userId;
+    private String team;
+    private String role;
+    private List<String> fields;
+    private Integer limit;
+    private String cursor;
+}
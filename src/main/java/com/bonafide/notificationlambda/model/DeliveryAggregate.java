@@ -0,0 +1,29 @@
+package com.bonafide.notificationlambda.model;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+/**
+ * Completion state of an asynchronous fan-out, summed over the shards reported so far.
+ * {@code status} stays IN_PROGRESS until every shard has reported.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeliveryAggregate {
+    private String notificationId;
+    private String status;
+    private String type;
+    private String priority;
+    private int totalShards;
+    private int completedShards;
+    private int failedShards;
+    private int sent;
+    private int failed;
+    private int totalRecipients;
+    private long createdAt;
+    private long updatedAt;
+}
@@ -0,0 +1,21 @@
+package com.bonafide.notificationlambda.model;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+/**
+ * One worker's part of an asynchronous fan-out: the connections of scan segment
+ * {@code shard} out of {@code totalShards}.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeliveryShard {
+    private String notificationId;
+    private int shard;
+    private int totalShards;
+    private NotificationRequest notification;
+}
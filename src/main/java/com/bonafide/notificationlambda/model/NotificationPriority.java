@@ -12,5 +12,17 @@ public enum NotificationPriority {
     /** High priority */
     HIGH,
     /** Critical priority */
-    CRITICAL
+    CRITICAL;
+
+    /** Parses the free-form priority of a request, treating missing or unknown values as MEDIUM. */
+    public static NotificationPriority from(String value) {
+        if (value != null) {
+            for (NotificationPriority priority : values()) {
+                if (priority.name().equalsIgnoreCase(value.trim())) {
+                    return priority;
+                }
+            }
+        }
+        return MEDIUM;
+    }
 } 
\ No newline at end of file
@@ -1,5 +1,7 @@
 package com.bonafide.notificationlambda.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Builder;
 import lombok.Data;
 import java.util.List;
@@ -24,4 +26,13 @@ public class NotificationRequest {
     private Map<String, Object> data;
     private List<Map<String, Object>> actions;
     private long timestamp;
+    /** Delivers to every connection, whatever its roles, teams or subscriptions, without evaluating eligibility. */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean broadcast;
+    /**
+     * Caller-chosen key identifying a logical send; retries with the same key get the first
+     * send's result instead of a second fan-out. Accepted on input, never sent to clients.
+     */
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
+    private String idempotencyKey;
 } 
\ No newline at end of file
@@ -1,9 +1,11 @@
 package com.bonafide.notificationlambda.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
+import java.util.Map;
 
 @Data
 @Builder
@@ -15,4 +17,12 @@ public class NotificationResult {
     private int failed;
     private int totalRecipients;
     private String message;
+    private String priority;
+    private Long timeToFirstDeliveryMs;
+    /** Milliseconds per delivery stage, present only when notification.metrics.result-stage-timings is enabled. */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Map<String, Double> stageTimingsMs;
+    /** True when the result is replayed for a repeated idempotency key rather than produced by a new send. */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean duplicate;
 } 
\ No newline at end of file
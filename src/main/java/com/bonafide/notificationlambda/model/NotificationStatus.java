@@ -10,5 +10,7 @@ public enum NotificationStatus {
     /** Notification failed for all recipients */
     FAILED,
     /** Notification sent to some, but not all recipients */
-    PARTIAL
+    PARTIAL,
+    /** Asynchronous fan-out still waiting for shards to report */
+    IN_PROGRESS
 } 
\ No newline at end of file
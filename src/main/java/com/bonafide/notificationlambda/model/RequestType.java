@@ -6,5 +6,6 @@ public enum RequestType {
     WEBSOCKET_DEFAULT,
     HTTP_API,
     DIRECT_INVOKE,
+    DYNAMODB_STREAM,
     UNKNOWN
 } 
\ No newline at end of file
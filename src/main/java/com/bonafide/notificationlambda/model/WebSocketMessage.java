@@ -0,0 +1,14 @@
+package com.bonafide.notificationlambda.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class WebSocketMessage {
+    private String action;
+    private List<String> topics;
+}
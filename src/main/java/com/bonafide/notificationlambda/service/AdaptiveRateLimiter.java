@@ -0,0 +1,70 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.config.NotificationProperties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces postToConnection calls across the container with an AIMD rate: every success
+ * adds {@code additiveStep / rate} (about {@code additiveStep} per second at steady
+ * state) and every throttling response multiplies the rate by {@code decreaseFactor}.
+ * Callers reserve evenly spaced send slots and wait for theirs.
+ */
+public class AdaptiveRateLimiter {
+    private final double minRate;
+    private final double maxRate;
+    private final double additiveStep;
+    private final double decreaseFactor;
+    private double rate;
+    private long nextSlotNanos;
+
+    public AdaptiveRateLimiter(double initialRate, double minRate, double maxRate, double additiveStep, double decreaseFactor) {
+        this.minRate = Math.max(0.1, minRate);
+        this.maxRate = Math.max(this.minRate, maxRate);
+        this.additiveStep = additiveStep;
+        this.decreaseFactor = decreaseFactor;
+        this.rate = Math.min(this.maxRate, Math.max(this.minRate, initialRate));
+        this.nextSlotNanos = System.nanoTime();
+    }
+
+    public static AdaptiveRateLimiter fromProperties(NotificationProperties properties) {
+        return new AdaptiveRateLimiter(
+            properties.getDouble("notification.delivery.rate.initial-per-second", 2000),
+            properties.getDouble("notification.delivery.rate.min-per-second", 10),
+            properties.getDouble("notification.delivery.rate.max-per-second", 5000),
+            properties.getDouble("notification.delivery.rate.additive-step", 20),
+            properties.getDouble("notification.delivery.rate.decrease-factor", 0.5));
+    }
+
+    /**
+     * Waits for the next send slot. Returns false without waiting when the slot lies
+     * beyond {@code deadlineNanos}.
+     */
+    public boolean acquire(long deadlineNanos) throws InterruptedException {
+        long slot;
+        synchronized (this) {
+            long now = System.nanoTime();
+            slot = Math.max(now, nextSlotNanos);
+            if (slot - deadlineNanos > 0) {
+                return false;
+            }
+            nextSlotNanos = slot + (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        }
+        long wait = slot - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        rate = Math.min(maxRate, rate + additiveStep / rate);
+    }
+
+    public synchronized void onThrottle() {
+        rate = Math.max(minRate, rate * decreaseFactor);
+    }
+
+    public synchronized double currentRate() {
+        return rate;
+    }
+}
@@ -0,0 +1,53 @@
+package com.bonafide.notificationlambda.service;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes requests to one table in BatchWriteItem chunks of 25, resubmitting
+ * unprocessed items a bounded number of times.
+ */
+@Slf4j
+final class BatchWriter {
+    private static final int BATCH_WRITE_LIMIT = 25;
+    private static final int MAX_UNPROCESSED_RETRIES = 3;
+
+    private BatchWriter() {
+    }
+
+    /** Returns the number of requests still unprocessed after all retries. */
+    static int write(DynamoDbClient dynamoDbClient, String tableName, List<WriteRequest> writes) {
+        int unprocessed = 0;
+        for (int i = 0; i < writes.size(); i += BATCH_WRITE_LIMIT) {
+            List<WriteRequest> chunk = writes.subList(i, Math.min(i + BATCH_WRITE_LIMIT, writes.size()));
+            Map<String, List<WriteRequest>> pending = Map.of(tableName, chunk);
+            for (int attempt = 0; !pending.isEmpty() && attempt <= MAX_UNPROCESSED_RETRIES; attempt++) {
+                if (attempt > 0) {
+                    sleep(50L << attempt);
+                }
+                BatchWriteItemResponse response = dynamoDbClient.batchWriteItem(BatchWriteItemRequest.builder()
+                    .requestItems(pending)
+                    .build());
+                pending = response.hasUnprocessedItems() ? response.unprocessedItems() : Map.of();
+            }
+            unprocessed += pending.getOrDefault(tableName, List.of()).size();
+        }
+        if (unprocessed > 0) {
+            log.warn("Writes to {} left unprocessed: {}", tableName, unprocessed);
+        }
+        return unprocessed;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
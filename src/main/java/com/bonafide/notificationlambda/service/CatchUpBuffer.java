@@ -0,0 +1,246 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.config.JsonMappers;
+import com.bonafide.notificationlambda.config.NotificationProperties;
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import com.bonafide.notificationlambda.model.NotificationRequest;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Recent notifications kept for connections that were down while they were sent. Each
+ * notification is written once, whoever receives it, as its own item in the status table
+ * ({@code catchup#entry#<notification id>}, sent-at and notification), conditioned on the
+ * id being new, so a retried send never records it twice. Its id is then added to the
+ * string set of a time bucket ({@code catchup#<bucket start>#<shard>}), the shard chosen by
+ * the id so a retry lands in the same item. Entries and buckets expire {@code retentionSeconds}
+ * after the bucket closes, and reads never reach further back. A reconnecting connection is
+ * replayed the entries of the buckets since its last frame that it is eligible for, the
+ * newest {@code maxReplayed}, batched {@code frameSize} to a frame.
+ */
+@Slf4j
+public class CatchUpBuffer {
+    private static final String KEY_PREFIX = "catchup#";
+    private static final String ENTRY_PREFIX = "catchup#entry#";
+    private static final int BATCH_GET_LIMIT = 100;
+    private static final int MAX_UNPROCESSED_RETRIES = 3;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final long bucketSeconds;
+    private final long retentionSeconds;
+    private final int shards;
+    private final int maxReplayed;
+    private final int frameSize;
+
+    public CatchUpBuffer(DynamoDbClient dynamoDbClient, String tableName, long bucketSeconds, long retentionSeconds,
+                         int shards, int maxReplayed, int frameSize) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.bucketSeconds = Math.max(1, bucketSeconds);
+        this.retentionSeconds = retentionSeconds;
+        this.shards = Math.max(1, shards);
+        this.maxReplayed = maxReplayed;
+        this.frameSize = Math.max(1, frameSize);
+    }
+
+    /** Null when disabled or when there is no status table to hold the buckets. */
+    public static CatchUpBuffer fromProperties(NotificationProperties properties, DynamoDbClient dynamoDbClient,
+                                               String tableName) {
+        if (!properties.getBoolean("notification.catchup.enabled", true) || tableName == null || tableName.isBlank()) {
+            return null;
+        }
+        return new CatchUpBuffer(dynamoDbClient, tableName,
+            properties.getLong("notification.catchup.bucket-seconds", 10),
+            properties.getLong("notification.catchup.retention-seconds", 300),
+            properties.getInt("notification.catchup.shards", 4),
+            properties.getInt("notification.catchup.max-replayed", 100),
+            properties.getInt("notification.catchup.frame-size", 25));
+    }
+
+    /**
+     * The id a send records its notification under: derived from the idempotency key when
+     * there is one, so a retried send records nothing new, otherwise random.
+     */
+    public static String notificationId(NotificationRequest notification) {
+        String idempotencyKey = notification.getIdempotencyKey();
+        return idempotencyKey != null && !idempotencyKey.isBlank()
+            ? UUID.nameUUIDFromBytes(idempotencyKey.getBytes(StandardCharsets.UTF_8)).toString()
+            : UUID.randomUUID().toString();
+    }
+
+    /**
+     * Records notifications by id, each at most once however often it is recorded; failures
+     * are logged, never thrown.
+     */
+    public void record(Map<String, NotificationRequest> notifications) {
+        if (notifications.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long bucket = bucketOf(now);
+        long expiresAt = bucket + bucketSeconds + retentionSeconds;
+        Map<Integer, Set<String>> idsByShard = new HashMap<>();
+        if (notifications.size() == 1) {
+            Map.Entry<String, NotificationRequest> only = notifications.entrySet().iterator().next();
+            if (putEntry(only.getKey(), only.getValue(), now, expiresAt)) {
+                idsByShard.computeIfAbsent(shardOf(only.getKey()), shard -> new LinkedHashSet<>()).add(only.getKey());
+            }
+        } else {
+            Map<String, Future<Boolean>> written = new HashMap<>();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                notifications.forEach((id, notification) ->
+                    written.put(id, executor.submit(() -> putEntry(id, notification, now, expiresAt))));
+            }
+            written.forEach((id, result) -> {
+                if (result.resultNow()) {
+                    idsByShard.computeIfAbsent(shardOf(id), shard -> new LinkedHashSet<>()).add(id);
+                }
+            });
+        }
+        idsByShard.forEach((shard, ids) -> {
+            try {
+                dynamoDbClient.updateItem(UpdateItemRequest.builder()
+                    .tableName(tableName)
+                    .key(key(KEY_PREFIX + bucket + "#" + shard))
+                    .updateExpression("ADD #ids :ids SET #expiresAt = :expiresAt")
+                    .expressionAttributeNames(Map.of("#ids", "ids", "#expiresAt", "expiresAt"))
+                    .expressionAttributeValues(Map.of(
+                        ":ids", AttributeValue.builder().ss(ids).build(),
+                        ":expiresAt", n(expiresAt)))
+                    .build());
+            } catch (Exception e) {
+                log.error("Error adding {} notifications to catch-up bucket {}#{}", ids.size(), bucket, shard, e);
+            }
+        });
+    }
+
+    /** True when the entry is stored, now or by an earlier attempt. */
+    private boolean putEntry(String id, NotificationRequest notification, long sentAt, long expiresAt) {
+        try {
+            dynamoDbClient.putItem(PutItemRequest.builder()
+                .tableName(tableName)
+                .item(Map.of(
+                    "notificationId", AttributeValue.builder().s(ENTRY_PREFIX + id).build(),
+                    "sentAt", n(sentAt),
+                    "notification", AttributeValue.builder().s(JsonMappers.shared().writeValueAsString(notification)).build(),
+                    "expiresAt", n(expiresAt)))
+                .conditionExpression("attribute_not_exists(notificationId)")
+                .build());
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return true;
+        } catch (Exception e) {
+            log.error("Error recording notification {} for catch-up", id, e);
+            return false;
+        }
+    }
+
+    /**
+     * The notifications sent after {@code sinceMillis} that the connection is eligible for,
+     * oldest first, split into frames.
+     */
+    public List<List<NotificationRequest>> frames(ConnectionRecord connection, long sinceMillis) {
+        long now = System.currentTimeMillis();
+        long from = Math.max(sinceMillis, now - retentionSeconds * 1000);
+        List<Map<String, AttributeValue>> buckets = new ArrayList<>();
+        for (long bucket = bucketOf(from); bucket <= bucketOf(now); bucket += bucketSeconds) {
+            for (int shard = 0; shard < shards; shard++) {
+                buckets.add(key(KEY_PREFIX + bucket + "#" + shard));
+            }
+        }
+        Set<String> ids = new LinkedHashSet<>();
+        batchGet(buckets, List.of("ids"), item -> {
+            if (item.containsKey("ids")) {
+                ids.addAll(item.get("ids").ss());
+            }
+        });
+        List<Map<String, AttributeValue>> entries = new ArrayList<>(ids.size());
+        batchGet(ids.stream().map(id -> key(ENTRY_PREFIX + id)).toList(), List.of("sentAt", "notification"), entries::add);
+        List<Map<String, AttributeValue>> missed = new ArrayList<>();
+        for (Map<String, AttributeValue> entry : entries) {
+            if (entry.containsKey("sentAt") && Long.parseLong(entry.get("sentAt").n()) > from) {
+                missed.add(entry);
+            }
+        }
+        missed.sort(Comparator.comparingLong(entry -> Long.parseLong(entry.get("sentAt").n())));
+        List<NotificationRequest> eligible = new ArrayList<>();
+        for (Map<String, AttributeValue> entry : missed) {
+            try {
+                NotificationRequest notification = JsonMappers.shared().readValue(entry.get("notification").s(), NotificationRequest.class);
+                if (Boolean.TRUE.equals(notification.getBroadcast()) || EligibilityQuery.compile(notification).matches(connection)) {
+                    eligible.add(notification);
+                }
+            } catch (Exception e) {
+                log.error("Skipping unreadable catch-up entry", e);
+            }
+        }
+        List<NotificationRequest> replayed = eligible.subList(Math.max(0, eligible.size() - maxReplayed), eligible.size());
+        List<List<NotificationRequest>> frames = new ArrayList<>();
+        for (int i = 0; i < replayed.size(); i += frameSize) {
+            frames.add(new ArrayList<>(replayed.subList(i, Math.min(i + frameSize, replayed.size()))));
+        }
+        return frames;
+    }
+
+    private void batchGet(List<Map<String, AttributeValue>> keys, List<String> attributes,
+                          Consumer<Map<String, AttributeValue>> items) {
+        Map<String, String> names = new HashMap<>();
+        attributes.forEach(attribute -> names.put("#" + attribute, attribute));
+        String projection = String.join(", ", names.keySet());
+        for (int i = 0; i < keys.size(); i += BATCH_GET_LIMIT) {
+            Map<String, KeysAndAttributes> pending = Map.of(tableName, KeysAndAttributes.builder()
+                .keys(keys.subList(i, Math.min(i + BATCH_GET_LIMIT, keys.size())))
+                .projectionExpression(projection)
+                .expressionAttributeNames(names)
+                .build());
+            for (int attempt = 0; !pending.isEmpty() && attempt <= MAX_UNPROCESSED_RETRIES; attempt++) {
+                BatchGetItemResponse response = dynamoDbClient.batchGetItem(BatchGetItemRequest.builder()
+                    .requestItems(pending)
+                    .build());
+                response.responses().getOrDefault(tableName, List.of()).forEach(items);
+                pending = response.hasUnprocessedKeys() ? response.unprocessedKeys() : Map.of();
+            }
+            if (!pending.isEmpty()) {
+                log.warn("{} catch-up items left unread after BatchGetItem retries", pending.get(tableName).keys().size());
+            }
+        }
+    }
+
+    private long bucketOf(long millis) {
+        long seconds = millis / 1000;
+        return seconds - seconds % bucketSeconds;
+    }
+
+    private int shardOf(String id) {
+        return Math.floorMod(id.hashCode(), shards);
+    }
+
+    private static Map<String, AttributeValue> key(String notificationId) {
+        return Map.of("notificationId", AttributeValue.builder().s(notificationId).build());
+    }
+
+    private static AttributeValue n(long value) {
+        return AttributeValue.builder().n(String.valueOf(value)).build();
+    }
+}
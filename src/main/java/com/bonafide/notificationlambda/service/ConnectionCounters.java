@@ -0,0 +1,202 @@
+package com.bonafide.notificationlambda.service;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.Delete;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Aggregate connection counts kept next to the recipient index. Every index entry is
+ * written in one transaction with the counter of its index key, conditioned on the entry
+ * being absent (put) or present (delete). A counter therefore always equals the number of
+ * entries under its key, no matter how often the same connect, disconnect or stream
+ * record is replayed. Counters are spread over {@code shards} partitions
+ * ({@code counters#<n>}, sort key = index key) and summed on read. Entries deleted by TTL
+ * on the index table bypass those transactions, so their counters stay counted until a
+ * {@link Recount} overwrites the counters with the entries actually present.
+ */
+@Slf4j
+public class ConnectionCounters {
+    static final String TOTAL_CONNECTIONS = "connections";
+    private static final String COUNTER_PREFIX = "counters#";
+    private static final String COUNT = "total";
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final int shards;
+    private final long snapshotTtlMillis;
+    private volatile Map<String, Long> snapshot;
+    private volatile long snapshotAt;
+
+    public ConnectionCounters(DynamoDbClient dynamoDbClient, String tableName, int shards, long snapshotTtlMillis) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.shards = Math.max(1, shards);
+        this.snapshotTtlMillis = snapshotTtlMillis;
+    }
+
+    /** Puts an index entry and increments its counter. */
+    void addEntry(Map<String, AttributeValue> entry, String indexKey, String connectionId) {
+        transact(TransactWriteItem.builder()
+            .put(Put.builder()
+                .tableName(tableName)
+                .item(entry)
+                .conditionExpression("attribute_not_exists(connectionId)")
+                .build())
+            .build(), counterKey(indexKey, connectionId), 1);
+    }
+
+    void removeEntry(Map<String, AttributeValue> key, String indexKey, String connectionId) {
+        transact(TransactWriteItem.builder()
+            .delete(Delete.builder()
+                .tableName(tableName)
+                .key(key)
+                .conditionExpression("attribute_exists(connectionId)")
+                .build())
+            .build(), counterKey(indexKey, connectionId), -1);
+    }
+
+    /** All counters keyed by index key (plus {@value #TOTAL_CONNECTIONS}), served from a short-lived snapshot. */
+    public Map<String, Long> read() {
+        Map<String, Long> current = snapshot;
+        if (current != null && System.currentTimeMillis() - snapshotAt < snapshotTtlMillis) {
+            return current;
+        }
+        Map<String, Long> totals = new HashMap<>();
+        forEachCounter(item -> {
+            AttributeValue count = item.get(COUNT);
+            if (count != null) {
+                totals.merge(item.get(ConnectionIndex.CONNECTION_ID).s(), Long.parseLong(count.n()), Long::sum);
+            }
+        });
+        totals.values().removeIf(count -> count <= 0);
+        snapshot = Collections.unmodifiableMap(totals);
+        snapshotAt = System.currentTimeMillis();
+        return snapshot;
+    }
+
+    /** Starts a recount of the counters from the index entries handed to it. */
+    Recount recount() {
+        return new Recount();
+    }
+
+    /**
+     * Counts index entries as a scan of the index table hands them over, then overwrites
+     * every counter with its count, zeroing counters that no entry is left under. Counted
+     * writes racing the scan can leave a counter off by the connections that changed
+     * meanwhile, which the next recount corrects.
+     */
+    final class Recount {
+        private final Map<Map<String, AttributeValue>, Long> totals = new HashMap<>();
+
+        void add(String indexKey, String connectionId) {
+            totals.merge(counterKey(indexKey, connectionId), 1L, Long::sum);
+        }
+
+        /** Writes the counts and returns the number of counters written. */
+        int apply() {
+            Map<Map<String, AttributeValue>, Long> counts = new HashMap<>(totals);
+            forEachCounter(item -> counts.putIfAbsent(Map.of(
+                ConnectionIndex.INDEX_KEY, item.get(ConnectionIndex.INDEX_KEY),
+                ConnectionIndex.CONNECTION_ID, item.get(ConnectionIndex.CONNECTION_ID)), 0L));
+            counts.forEach((key, count) -> dynamoDbClient.updateItem(UpdateItemRequest.builder()
+                .tableName(tableName)
+                .key(key)
+                .updateExpression("SET #count = :count")
+                .expressionAttributeNames(Map.of("#count", COUNT))
+                .expressionAttributeValues(Map.of(":count", AttributeValue.builder().n(String.valueOf(count)).build()))
+                .build()));
+            snapshot = null;
+            return counts.size();
+        }
+    }
+
+    /** Counters of one attribute, e.g. {@code role#}, keyed by the bare attribute value. */
+    public static Map<String, Long> byPrefix(Map<String, Long> counters, String prefix) {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((key, count) -> {
+            if (key.startsWith(prefix)) {
+                values.put(key.substring(prefix.length()), count);
+            }
+        });
+        return values;
+    }
+
+    /**
+     * Key of the counter an entry counts towards, in the shard of its connection. A user
+     * entry also counts the connection itself, since every connection has exactly one.
+     */
+    private Map<String, AttributeValue> counterKey(String indexKey, String connectionId) {
+        String counter = indexKey.startsWith("user#") ? TOTAL_CONNECTIONS : indexKey;
+        return Map.of(
+            ConnectionIndex.INDEX_KEY, AttributeValue.builder().s(COUNTER_PREFIX + Math.floorMod(connectionId.hashCode(), shards)).build(),
+            ConnectionIndex.CONNECTION_ID, AttributeValue.builder().s(counter).build());
+    }
+
+    static boolean isCounter(String indexKey) {
+        return indexKey.startsWith(COUNTER_PREFIX);
+    }
+
+    private void forEachCounter(Consumer<Map<String, AttributeValue>> consumer) {
+        for (int shard = 0; shard < shards; shard++) {
+            Map<String, AttributeValue> startKey = null;
+            do {
+                QueryRequest.Builder request = QueryRequest.builder()
+                    .tableName(tableName)
+                    .keyConditionExpression("indexKey = :indexKey")
+                    .expressionAttributeValues(Map.of(":indexKey", AttributeValue.builder().s(COUNTER_PREFIX + shard).build()));
+                if (startKey != null) {
+                    request.exclusiveStartKey(startKey);
+                }
+                QueryResponse response = dynamoDbClient.query(request.build());
+                response.items().forEach(consumer);
+                startKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty()
+                    ? response.lastEvaluatedKey() : null;
+            } while (startKey != null);
+        }
+    }
+
+    private void transact(TransactWriteItem entryWrite, Map<String, AttributeValue> counterKey, long delta) {
+        TransactWriteItem counterUpdate = TransactWriteItem.builder()
+            .update(Update.builder()
+                .tableName(tableName)
+                .key(counterKey)
+                .updateExpression("ADD #count :delta")
+                .expressionAttributeNames(Map.of("#count", COUNT))
+                .expressionAttributeValues(Map.of(":delta", AttributeValue.builder().n(String.valueOf(delta)).build()))
+                .build())
+            .build();
+        try {
+            dynamoDbClient.transactWriteItems(TransactWriteItemsRequest.builder()
+                .transactItems(entryWrite, counterUpdate)
+                .build());
+        } catch (TransactionCanceledException e) {
+            if (!isConditionFailure(e)) {
+                throw e;
+            }
+        }
+    }
+
+    private static boolean isConditionFailure(TransactionCanceledException e) {
+        if (!e.hasCancellationReasons()) {
+            return false;
+        }
+        for (CancellationReason reason : e.cancellationReasons()) {
+            if ("ConditionalCheckFailed".equals(reason.code())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,323 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import com.bonafide.notificationlambda.model.NotificationRequest;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.DeleteRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Inverted index from recipient attributes (user, role, team, department, topic)
+ * to connection ids, stored as companion items in a separate table keyed by
+ * {@code indexKey} (partition) and {@code connectionId} (sort). Entries are removed with
+ * their connection; as a backstop for removals that never ran, each entry carries an
+ * {@code expiresAt} {@code entryTtlSeconds} after its connection connected, and lookups
+ * skip entries past it until TTL deletes them.
+ */
+@Slf4j
+public class ConnectionIndex {
+    static final String INDEX_KEY = "indexKey";
+    static final String CONNECTION_ID = "connectionId";
+    static final String USER_ID = "userId";
+    static final String EXPIRES_AT = "expiresAt";
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final ConnectionCounters counters;
+    private final long entryTtlSeconds;
+
+    public ConnectionIndex(DynamoDbClient dynamoDbClient, String tableName, ConnectionCounters counters,
+                           long entryTtlSeconds) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.counters = counters;
+        this.entryTtlSeconds = entryTtlSeconds;
+    }
+
+    public ConnectionCounters getCounters() {
+        return counters;
+    }
+
+    public void addEntries(ConnectionRecord connection) {
+        write(connection.getConnectionId(), connection.getUserId(), entryExpiry(connection), indexKeys(connection), Set.of());
+    }
+
+    public void removeEntries(ConnectionRecord connection) {
+        write(connection.getConnectionId(), connection.getUserId(), 0, Set.of(), indexKeys(connection));
+    }
+
+    /**
+     * Moves the entries of an overwritten connection from its previous attributes to the
+     * new ones, touching only the keys that differ. A changed user id rewrites every entry,
+     * since each carries it.
+     */
+    public void replaceEntries(ConnectionRecord previous, ConnectionRecord connection) {
+        if (!Objects.equals(previous.getUserId(), connection.getUserId())) {
+            removeEntries(previous);
+            addEntries(connection);
+            return;
+        }
+        Set<String> removed = indexKeys(previous);
+        Set<String> added = indexKeys(connection);
+        removed.removeAll(indexKeys(connection));
+        added.removeAll(indexKeys(previous));
+        write(connection.getConnectionId(), connection.getUserId(), entryExpiry(connection), added, removed);
+    }
+
+    /** Moves the topic entries of a connection, as stored before the change, to {@code newTopics}. */
+    public void updateTopics(ConnectionRecord connection, List<String> newTopics) {
+        List<String> oldTopics = connection.getSubscribedTopics();
+        Set<String> removed = new HashSet<>(oldTopics != null ? oldTopics : List.of());
+        Set<String> added = new HashSet<>(newTopics != null ? newTopics : List.of());
+        removed.removeAll(newTopics != null ? newTopics : List.of());
+        added.removeAll(oldTopics != null ? oldTopics : List.of());
+        Set<String> addedKeys = new LinkedHashSet<>();
+        Set<String> removedKeys = new LinkedHashSet<>();
+        added.forEach(topic -> addedKeys.add(topicKey(topic)));
+        removed.forEach(topic -> removedKeys.add(topicKey(topic)));
+        write(connection.getConnectionId(), connection.getUserId(), entryExpiry(connection), addedKeys, removedKeys);
+    }
+
+    /**
+     * Overwrites the counters with the live entries of the index table, correcting the
+     * drift left by entries that TTL deleted without decrementing them. Returns the number
+     * of counters written, or 0 when counters are off.
+     */
+    public int reconcileCounters() {
+        if (counters == null) {
+            return 0;
+        }
+        long now = Instant.now().getEpochSecond();
+        ConnectionCounters.Recount recount = counters.recount();
+        new ConnectionScanner(dynamoDbClient, tableName, 1, 0).scanSegment(0, 1, item -> {
+            String indexKey = item.get(INDEX_KEY).s();
+            AttributeValue expiresAt = item.get(EXPIRES_AT);
+            if (ConnectionCounters.isCounter(indexKey) || expiresAt != null && Long.parseLong(expiresAt.n()) < now) {
+                return;
+            }
+            recount.add(indexKey, item.get(CONNECTION_ID).s());
+        }, DeliveryMetrics.disabled(), "#indexKey, #connectionId, #expiresAt",
+            Map.of("#indexKey", INDEX_KEY, "#connectionId", CONNECTION_ID, "#expiresAt", EXPIRES_AT));
+        int written = recount.apply();
+        log.info("Reconciled {} connection counters against the index", written);
+        return written;
+    }
+
+    /** Epoch seconds after which the connection's entries are dead, whether or not they were removed. */
+    private long entryExpiry(ConnectionRecord connection) {
+        long connectedAt = connection.getConnectedAt() > 0 ? connection.getConnectedAt() : Instant.now().getEpochSecond();
+        return connectedAt + entryTtlSeconds;
+    }
+
+    /**
+     * Resolves the connections matching any of the notification's targeting criteria
+     * with one Query per criterion, run concurrently, so the cost follows the number of
+     * matches rather than the size of the connections table. Connections subscribed to
+     * ALL match every notification and are read through their own topic entry; ALL is
+     * opt-in, so that stays a small partition.
+     */
+    public Optional<Collection<ConnectionRecord>> lookup(NotificationRequest notification) {
+        Set<String> keys = lookupKeys(notification);
+        Map<String, ConnectionRecord> matches = new ConcurrentHashMap<>();
+        if (keys.size() == 1) {
+            queryEntries(keys.iterator().next(), matches);
+            return Optional.of(matches.values());
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> queries = new ArrayList<>();
+            for (String indexKey : keys) {
+                queries.add(executor.submit(() -> queryEntries(indexKey, matches)));
+            }
+            for (Future<?> query : queries) {
+                query.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error querying recipient index", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while querying recipient index", e);
+        }
+        return Optional.of(matches.values());
+    }
+
+    static Set<String> lookupKeys(NotificationRequest notification) {
+        Set<String> keys = new LinkedHashSet<>();
+        if (notification.getTargetUsers() != null) {
+            notification.getTargetUsers().forEach(user -> keys.add(userKey(user)));
+        }
+        if (notification.getProcessOwnerId() != null) {
+            keys.add(userKey(notification.getProcessOwnerId()));
+        }
+        if (notification.getRequiredRoles() != null) {
+            notification.getRequiredRoles().forEach(role -> keys.add(roleKey(role)));
+        }
+        if (notification.getTargetTeams() != null) {
+            notification.getTargetTeams().forEach(team -> keys.add(teamKey(team)));
+        }
+        if (notification.getType() != null) {
+            keys.add(topicKey(notification.getType()));
+        }
+        keys.add(topicKey(EligibilityQuery.ALL_TOPICS));
+        return keys;
+    }
+
+    static Set<String> indexKeys(ConnectionRecord connection) {
+        Set<String> keys = new LinkedHashSet<>();
+        keys.add(userKey(connection.getUserId()));
+        if (connection.getRoles() != null) {
+            connection.getRoles().forEach(role -> keys.add(roleKey(role)));
+        }
+        if (connection.getTeams() != null) {
+            connection.getTeams().forEach(team -> keys.add(teamKey(team)));
+        }
+        if (connection.getDepartment() != null) {
+            keys.add(departmentKey(connection.getDepartment()));
+        }
+        if (connection.getSubscribedTopics() != null) {
+            connection.getSubscribedTopics().forEach(topic -> keys.add(topicKey(topic)));
+        }
+        return keys;
+    }
+
+    static String userKey(String userId) {
+        return "user#" + userId;
+    }
+
+    static String roleKey(String role) {
+        return "role#" + role;
+    }
+
+    static String teamKey(String team) {
+        return "team#" + team;
+    }
+
+    static String departmentKey(String department) {
+        return "department#" + department;
+    }
+
+    static String topicKey(String topic) {
+        return "topic#" + topic;
+    }
+
+    /**
+     * Reads one page of the entries under an index key: at most {@code limit} connection
+     * ids, continuing after {@code startKey}. The last evaluated key, if any, is put into
+     * {@code nextKey}.
+     */
+    List<String> queryPage(String indexKey, int limit, Map<String, AttributeValue> startKey,
+                           Map<String, AttributeValue> nextKey) {
+        QueryRequest.Builder request = QueryRequest.builder()
+            .tableName(tableName)
+            .keyConditionExpression("indexKey = :indexKey")
+            .expressionAttributeValues(Map.of(":indexKey", AttributeValue.builder().s(indexKey).build()))
+            .projectionExpression(CONNECTION_ID)
+            .limit(limit);
+        if (startKey != null) {
+            request.exclusiveStartKey(startKey);
+        }
+        QueryResponse response = dynamoDbClient.query(request.build());
+        List<String> connectionIds = new ArrayList<>(response.items().size());
+        response.items().forEach(item -> connectionIds.add(item.get(CONNECTION_ID).s()));
+        if (response.hasLastEvaluatedKey()) {
+            nextKey.putAll(response.lastEvaluatedKey());
+        }
+        return connectionIds;
+    }
+
+    private void queryEntries(String indexKey, Map<String, ConnectionRecord> matches) {
+        long now = Instant.now().getEpochSecond();
+        Map<String, AttributeValue> startKey = null;
+        do {
+            QueryRequest.Builder request = QueryRequest.builder()
+                .tableName(tableName)
+                .keyConditionExpression("indexKey = :indexKey")
+                .expressionAttributeValues(Map.of(":indexKey", AttributeValue.builder().s(indexKey).build()));
+            if (startKey != null) {
+                request.exclusiveStartKey(startKey);
+            }
+            QueryResponse response = dynamoDbClient.query(request.build());
+            for (Map<String, AttributeValue> item : response.items()) {
+                AttributeValue expiresAt = item.get(EXPIRES_AT);
+                if (expiresAt != null && Long.parseLong(expiresAt.n()) < now) {
+                    continue;
+                }
+                String connectionId = item.get(CONNECTION_ID).s();
+                AttributeValue userId = item.get(USER_ID);
+                matches.putIfAbsent(connectionId, ConnectionRecord.builder()
+                    .connectionId(connectionId)
+                    .userId(userId != null ? userId.s() : null)
+                    .build());
+            }
+            startKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty()
+                ? response.lastEvaluatedKey() : null;
+        } while (startKey != null);
+    }
+
+    /**
+     * Applies entry puts and deletes: in BatchWriteItem chunks when counters are off, or
+     * as one counted transaction per entry, run concurrently, when they are on.
+     */
+    private void write(String connectionId, String userId, long expiresAt, Set<String> added, Set<String> removed) {
+        if (counters == null) {
+            List<WriteRequest> writes = new ArrayList<>();
+            for (String indexKey : removed) {
+                writes.add(WriteRequest.builder()
+                    .deleteRequest(DeleteRequest.builder().key(key(indexKey, connectionId)).build())
+                    .build());
+            }
+            for (String indexKey : added) {
+                writes.add(WriteRequest.builder()
+                    .putRequest(PutRequest.builder().item(entry(indexKey, connectionId, userId, expiresAt)).build())
+                    .build());
+            }
+            BatchWriter.write(dynamoDbClient, tableName, writes);
+            return;
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> writes = new ArrayList<>();
+            for (String indexKey : removed) {
+                writes.add(executor.submit(() -> counters.removeEntry(key(indexKey, connectionId), indexKey, connectionId)));
+            }
+            for (String indexKey : added) {
+                writes.add(executor.submit(() -> counters.addEntry(entry(indexKey, connectionId, userId, expiresAt), indexKey, connectionId)));
+            }
+            for (Future<?> write : writes) {
+                try {
+                    write.get();
+                } catch (ExecutionException e) {
+                    log.error("Error writing counted index entry for {}", connectionId, e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Map<String, AttributeValue> key(String indexKey, String connectionId) {
+        return Map.of(
+            INDEX_KEY, AttributeValue.builder().s(indexKey).build(),
+            CONNECTION_ID, AttributeValue.builder().s(connectionId).build()
+        );
+    }
+
+    private static Map<String, AttributeValue> entry(String indexKey, String connectionId, String userId, long expiresAt) {
+        return Map.of(
+            INDEX_KEY, AttributeValue.builder().s(indexKey).build(),
+            CONNECTION_ID, AttributeValue.builder().s(connectionId).build(),
+            USER_ID, AttributeValue.builder().s(userId).build(),
+            EXPIRES_AT, AttributeValue.builder().n(String.valueOf(expiresAt)).build()
+        );
+    }
+}
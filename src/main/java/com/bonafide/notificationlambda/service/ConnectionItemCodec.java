@@ -0,0 +1,179 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Item formats of the connections table. {@link #LEGACY} items carry roles, teams,
+ * department, connectedAt and subscribed topics as separate attributes; {@link #COMPACT}
+ * items pack them into the binary {@link #PACKED} attribute: a version byte, connectedAt
+ * as a varint, then the lists. Every list value is a varint token: even tokens are ids
+ * into a fixed dictionary of the well-known roles and topics, odd tokens carry the length
+ * of an inline UTF-8 string. The key, userId, lastSeen and expiresAt stay top-level
+ * attributes in both formats since keys, conditions and TTL refer to them. Reads accept
+ * either format, so a table migrates as connections reconnect or change subscriptions.
+ */
+public final class ConnectionItemCodec {
+    public static final int LEGACY = 1;
+    public static final int COMPACT = 2;
+    public static final String PACKED = "attrs";
+    public static final List<String> PACKED_FIELDS = List.of("roles", "teams", "department", "connectedAt", "subscribedTopics");
+    /** What eligibility needs of an item, in either format; roles is a reserved word, so every name is a placeholder. */
+    public static final String ELIGIBILITY_PROJECTION = "#connectionId, #userId, #roles, #teams, #subscribedTopics, #attrs, #expiresAt";
+    public static final Map<String, String> ELIGIBILITY_NAMES = Map.of(
+        "#connectionId", "connectionId", "#userId", "userId", "#roles", "roles", "#teams", "teams",
+        "#subscribedTopics", "subscribedTopics", "#attrs", "attrs", "#expiresAt", "expiresAt");
+
+    /** Format 2 dictionary; changing it requires a new version byte. */
+    private static final List<String> DICTIONARY = List.of(
+        "ALL", "PROCESS_COMPLETE", "SYSTEM_ALERTS", "ERROR_ALERTS", "USER", "ADMIN");
+    private static final Map<String, Integer> DICTIONARY_IDS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < DICTIONARY.size(); i++) {
+            DICTIONARY_IDS.put(DICTIONARY.get(i), i);
+        }
+    }
+
+    private ConnectionItemCodec() {
+    }
+
+    public static Map<String, AttributeValue> toItem(ConnectionRecord connection, long expiresAt, int format) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("connectionId", AttributeValue.builder().s(connection.getConnectionId()).build());
+        item.put("userId", AttributeValue.builder().s(connection.getUserId()).build());
+        item.put("lastSeen", AttributeValue.builder().n(String.valueOf(connection.getLastSeen())).build());
+        item.put("expiresAt", AttributeValue.builder().n(String.valueOf(expiresAt)).build());
+        item.putAll(packedAttributes(connection, format));
+        return item;
+    }
+
+    /** The attributes holding the {@link #PACKED_FIELDS} in the given format. */
+    public static Map<String, AttributeValue> packedAttributes(ConnectionRecord connection, int format) {
+        if (format == COMPACT) {
+            return Map.of(PACKED, AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(pack(connection))).build());
+        }
+        return Map.of(
+            "roles", AttributeValue.builder().ss(connection.getRoles()).build(),
+            "teams", AttributeValue.builder().ss(connection.getTeams()).build(),
+            "department", AttributeValue.builder().s(connection.getDepartment()).build(),
+            "connectedAt", AttributeValue.builder().n(String.valueOf(connection.getConnectedAt())).build(),
+            "subscribedTopics", AttributeValue.builder().ss(connection.getSubscribedTopics()).build());
+    }
+
+    public static boolean isCompact(Map<String, AttributeValue> item) {
+        return item.containsKey(PACKED);
+    }
+
+    /**
+     * Maps an item of either format, including one read with a projection, to a record.
+     * Compact items yield a view that unpacks its attributes on first access.
+     */
+    public static ConnectionRecord toRecord(Map<String, AttributeValue> item) {
+        AttributeValue packed = item.get(PACKED);
+        ConnectionRecord connection = packed != null
+            ? new PackedConnectionRecord(packed.b().asByteArrayUnsafe())
+            : ConnectionRecord.builder()
+                .roles(strings(item.get("roles")))
+                .teams(strings(item.get("teams")))
+                .department(item.get("department") != null ? item.get("department").s() : null)
+                .connectedAt(item.get("connectedAt") != null ? Long.parseLong(item.get("connectedAt").n()) : 0)
+                .subscribedTopics(strings(item.get("subscribedTopics")))
+                .build();
+        connection.setConnectionId(item.get("connectionId").s());
+        connection.setUserId(item.get("userId") != null ? item.get("userId").s() : null);
+        connection.setLastSeen(item.get("lastSeen") != null ? Long.parseLong(item.get("lastSeen").n()) : 0);
+        return connection;
+    }
+
+    static byte[] pack(ConnectionRecord connection) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(COMPACT);
+        writeVarint(out, connection.getConnectedAt());
+        writeList(out, connection.getRoles());
+        writeList(out, connection.getTeams());
+        writeList(out, connection.getDepartment() != null ? List.of(connection.getDepartment()) : null);
+        writeList(out, connection.getSubscribedTopics());
+        return out.toByteArray();
+    }
+
+    /** A record holding only the packed fields. */
+    static ConnectionRecord unpack(byte[] packed) {
+        if (packed.length == 0 || packed[0] != COMPACT) {
+            throw new IllegalArgumentException("Unsupported connection item format: " + (packed.length == 0 ? -1 : packed[0]));
+        }
+        int[] position = {1};
+        long connectedAt = readVarint(packed, position);
+        List<String> roles = readList(packed, position);
+        List<String> teams = readList(packed, position);
+        List<String> department = readList(packed, position);
+        return ConnectionRecord.builder()
+            .connectedAt(connectedAt)
+            .roles(roles)
+            .teams(teams)
+            .department(department.isEmpty() ? null : department.get(0))
+            .subscribedTopics(readList(packed, position))
+            .build();
+    }
+
+    private static List<String> readList(byte[] packed, int[] position) {
+        String[] values = new String[(int) readVarint(packed, position)];
+        for (int i = 0; i < values.length; i++) {
+            int token = (int) readVarint(packed, position);
+            if ((token & 1) == 0) {
+                values[i] = DICTIONARY.get(token >>> 1);
+            } else {
+                values[i] = new String(packed, position[0], token >>> 1, StandardCharsets.UTF_8);
+                position[0] += token >>> 1;
+            }
+        }
+        return List.of(values);
+    }
+
+    private static void writeList(ByteArrayOutputStream out, List<String> values) {
+        if (values == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        writeVarint(out, values.size());
+        for (String value : values) {
+            Integer id = DICTIONARY_IDS.get(value);
+            if (id != null) {
+                writeVarint(out, id << 1);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                writeVarint(out, bytes.length << 1 | 1);
+                out.write(bytes, 0, bytes.length);
+            }
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] bytes, int[] position) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static List<String> strings(AttributeValue value) {
+        return value != null && value.hasSs() ? value.ss() : List.of();
+    }
+}
@@ -0,0 +1,294 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.config.JsonMappers;
+import com.bonafide.notificationlambda.model.ConnectionPage;
+import com.bonafide.notificationlambda.model.ConnectionQuery;
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import com.fasterxml.jackson.core.type.TypeReference;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Cursor-paginated listing of connections. Every page is a single Scan, or a single
+ * Query on the recipient index followed by BatchGetItem, limited to the page size and
+ * reading only the requested attributes, so a page costs the same however large the
+ * table is. The cursor is the page's LastEvaluatedKey as URL-safe base64 JSON. Items of
+ * either {@link ConnectionItemCodec} format are listed alike; roles and teams packed in a
+ * compact item cannot be filtered on server-side, so those filters are applied to the page.
+ */
+@Slf4j
+public class ConnectionListing {
+    public static final List<String> FIELDS = List.of(
+        "connectionId", "userId", "roles", "teams", "department", "connectedAt", "lastSeen", "subscribedTopics");
+    private static final int BATCH_GET_LIMIT = 100;
+    private static final int MAX_UNPROCESSED_RETRIES = 3;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final ConnectionIndex connectionIndex;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+
+    public ConnectionListing(DynamoDbClient dynamoDbClient, String tableName, ConnectionIndex connectionIndex,
+                             int defaultPageSize, int maxPageSize) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.connectionIndex = connectionIndex;
+        this.maxPageSize = Math.max(1, maxPageSize);
+        this.defaultPageSize = Math.min(Math.max(1, defaultPageSize), this.maxPageSize);
+    }
+
+    /** Throws IllegalArgumentException for unknown fields, a bad limit or a cursor from a different query. */
+    public ConnectionPage list(ConnectionQuery query) {
+        List<String> fields = query.getFields() == null || query.getFields().isEmpty() ? FIELDS : query.getFields();
+        for (String field : fields) {
+            if (!FIELDS.contains(field)) {
+                throw new IllegalArgumentException("Unknown field: " + field);
+            }
+        }
+        int limit = query.getLimit() != null ? query.getLimit() : defaultPageSize;
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        limit = Math.min(limit, maxPageSize);
+        Map<String, AttributeValue> startKey = decodeCursor(query.getCursor());
+        String indexKey = indexKey(query);
+        if (indexKey != null) {
+            return listFromIndex(query, indexKey, fields, limit, startKey);
+        }
+        return listFromScan(query, fields, limit, startKey);
+    }
+
+    private String indexKey(ConnectionQuery query) {
+        if (connectionIndex == null) {
+            return null;
+        }
+        if (query.getUserId() != null) {
+            return ConnectionIndex.userKey(query.getUserId());
+        }
+        if (query.getTeam() != null) {
+            return ConnectionIndex.teamKey(query.getTeam());
+        }
+        if (query.getRole() != null) {
+            return ConnectionIndex.roleKey(query.getRole());
+        }
+        return null;
+    }
+
+    private ConnectionPage listFromIndex(ConnectionQuery query, String indexKey, List<String> fields, int limit,
+                                         Map<String, AttributeValue> startKey) {
+        if (startKey != null && (startKey.get(ConnectionIndex.INDEX_KEY) == null
+                || !indexKey.equals(startKey.get(ConnectionIndex.INDEX_KEY).s()))) {
+            throw new IllegalArgumentException("cursor does not belong to this query");
+        }
+        Map<String, AttributeValue> nextKey = new HashMap<>();
+        List<String> connectionIds = connectionIndex.queryPage(indexKey, limit, startKey, nextKey);
+        Map<String, String> names = new LinkedHashMap<>();
+        String projection = projection(fields, names, "expiresAt", "userId", "teams", "roles");
+        Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+        for (int i = 0; i < connectionIds.size(); i += BATCH_GET_LIMIT) {
+            batchGet(connectionIds.subList(i, Math.min(i + BATCH_GET_LIMIT, connectionIds.size())), projection, names, items);
+        }
+        long now = Instant.now().getEpochSecond();
+        List<Map<String, Object>> connections = new ArrayList<>(connectionIds.size());
+        for (String connectionId : connectionIds) {
+            Map<String, AttributeValue> item = items.get(connectionId);
+            if (item != null && !isExpired(item, now) && matches(item, query)) {
+                connections.add(project(item, fields));
+            }
+        }
+        return ConnectionPage.builder()
+            .connections(connections)
+            .nextCursor(encodeCursor(nextKey))
+            .build();
+    }
+
+    private ConnectionPage listFromScan(ConnectionQuery query, List<String> fields, int limit,
+                                        Map<String, AttributeValue> startKey) {
+        if (startKey != null && (startKey.size() != 1 || startKey.get(ConnectionIndex.CONNECTION_ID) == null)) {
+            throw new IllegalArgumentException("cursor does not belong to this query");
+        }
+        Map<String, String> names = new LinkedHashMap<>();
+        String projection = query.getTeam() != null || query.getRole() != null
+            ? projection(fields, names, "teams", "roles") : projection(fields, names);
+        Map<String, AttributeValue> values = new HashMap<>();
+        List<String> conditions = new ArrayList<>();
+        names.put("#expiresAt", "expiresAt");
+        values.put(":now", AttributeValue.builder().n(String.valueOf(Instant.now().getEpochSecond())).build());
+        conditions.add("(attribute_not_exists(#expiresAt) OR #expiresAt >= :now)");
+        if (query.getUserId() != null) {
+            names.put("#userId", "userId");
+            values.put(":userId", AttributeValue.builder().s(query.getUserId()).build());
+            conditions.add("#userId = :userId");
+        }
+        if (query.getTeam() != null || query.getRole() != null) {
+            names.put("#" + ConnectionItemCodec.PACKED, ConnectionItemCodec.PACKED);
+        }
+        if (query.getTeam() != null) {
+            names.put("#teams", "teams");
+            values.put(":team", AttributeValue.builder().s(query.getTeam()).build());
+            conditions.add("(contains(#teams, :team) OR attribute_exists(#attrs))");
+        }
+        if (query.getRole() != null) {
+            names.put("#roles", "roles");
+            values.put(":role", AttributeValue.builder().s(query.getRole()).build());
+            conditions.add("(contains(#roles, :role) OR attribute_exists(#attrs))");
+        }
+        ScanRequest.Builder request = ScanRequest.builder()
+            .tableName(tableName)
+            .limit(limit)
+            .projectionExpression(projection)
+            .filterExpression(String.join(" AND ", conditions))
+            .expressionAttributeNames(names)
+            .expressionAttributeValues(values);
+        if (startKey != null) {
+            request.exclusiveStartKey(startKey);
+        }
+        ScanResponse response = dynamoDbClient.scan(request.build());
+        List<Map<String, Object>> connections = new ArrayList<>(response.items().size());
+        for (Map<String, AttributeValue> item : response.items()) {
+            if (matches(item, query)) {
+                connections.add(project(item, fields));
+            }
+        }
+        return ConnectionPage.builder()
+            .connections(connections)
+            .nextCursor(response.hasLastEvaluatedKey() ? encodeCursor(response.lastEvaluatedKey()) : null)
+            .build();
+    }
+
+    private void batchGet(List<String> connectionIds, String projection, Map<String, String> names,
+                          Map<String, Map<String, AttributeValue>> items) {
+        List<Map<String, AttributeValue>> keys = new ArrayList<>(connectionIds.size());
+        connectionIds.forEach(id -> keys.add(Map.of(ConnectionIndex.CONNECTION_ID, AttributeValue.builder().s(id).build())));
+        Map<String, KeysAndAttributes> pending = Map.of(tableName, KeysAndAttributes.builder()
+            .keys(keys)
+            .projectionExpression(projection)
+            .expressionAttributeNames(names)
+            .build());
+        for (int attempt = 0; !pending.isEmpty() && attempt <= MAX_UNPROCESSED_RETRIES; attempt++) {
+            BatchGetItemResponse response = dynamoDbClient.batchGetItem(BatchGetItemRequest.builder()
+                .requestItems(pending)
+                .build());
+            response.responses().getOrDefault(tableName, List.of())
+                .forEach(item -> items.put(item.get(ConnectionIndex.CONNECTION_ID).s(), item));
+            pending = response.hasUnprocessedKeys() ? response.unprocessedKeys() : Map.of();
+        }
+        if (!pending.isEmpty()) {
+            log.warn("{} connections left unread after BatchGetItem retries",
+                pending.get(tableName).keys().size());
+        }
+    }
+
+    /**
+     * Builds a ProjectionExpression over the requested fields plus the attributes needed
+     * internally, adding the packed attribute whenever a field may be stored in it.
+     */
+    private static String projection(List<String> fields, Map<String, String> names, String... internal) {
+        Set<String> attributes = new LinkedHashSet<>();
+        attributes.add(ConnectionIndex.CONNECTION_ID);
+        attributes.addAll(fields);
+        attributes.addAll(Arrays.asList(internal));
+        if (attributes.stream().anyMatch(ConnectionItemCodec.PACKED_FIELDS::contains)) {
+            attributes.add(ConnectionItemCodec.PACKED);
+        }
+        List<String> placeholders = new ArrayList<>(attributes.size());
+        for (String attribute : attributes) {
+            names.put("#" + attribute, attribute);
+            placeholders.add("#" + attribute);
+        }
+        return String.join(", ", placeholders);
+    }
+
+    private static boolean matches(Map<String, AttributeValue> item, ConnectionQuery query) {
+        if (query.getUserId() != null && (item.get("userId") == null || !query.getUserId().equals(item.get("userId").s()))) {
+            return false;
+        }
+        if (query.getTeam() == null && query.getRole() == null) {
+            return true;
+        }
+        ConnectionRecord connection = ConnectionItemCodec.toRecord(item);
+        if (query.getTeam() != null && !connection.getTeams().contains(query.getTeam())) {
+            return false;
+        }
+        return query.getRole() == null || connection.getRoles().contains(query.getRole());
+    }
+
+    private static boolean isExpired(Map<String, AttributeValue> item, long now) {
+        AttributeValue expiresAt = item.get("expiresAt");
+        return expiresAt != null && Long.parseLong(expiresAt.n()) < now;
+    }
+
+    private static Map<String, Object> project(Map<String, AttributeValue> item, List<String> fields) {
+        Map<String, Object> connection = new LinkedHashMap<>();
+        ConnectionRecord packed = ConnectionItemCodec.isCompact(item) ? ConnectionItemCodec.toRecord(item) : null;
+        for (String field : fields) {
+            if (packed != null && ConnectionItemCodec.PACKED_FIELDS.contains(field)) {
+                Object value = "department".equals(field) ? packed.getDepartment()
+                    : "connectedAt".equals(field) ? (Object) packed.getConnectedAt()
+                    : "roles".equals(field) ? packed.getRoles()
+                    : "teams".equals(field) ? packed.getTeams() : packed.getSubscribedTopics();
+                if (value != null) {
+                    connection.put(field, value);
+                }
+                continue;
+            }
+            AttributeValue value = item.get(field);
+            if (value == null) {
+                continue;
+            }
+            if (value.s() != null) {
+                connection.put(field, value.s());
+            } else if (value.n() != null) {
+                connection.put(field, Long.parseLong(value.n()));
+            } else if (value.hasSs()) {
+                connection.put(field, value.ss());
+            }
+        }
+        return connection;
+    }
+
+    private static String encodeCursor(Map<String, AttributeValue> key) {
+        if (key == null || key.isEmpty()) {
+            return null;
+        }
+        Map<String, String> values = new TreeMap<>();
+        key.forEach((name, value) -> values.put(name, value.s()));
+        try {
+            return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(JsonMappers.shared().writeValueAsBytes(values));
+        } catch (Exception e) {
+            log.error("Error encoding cursor", e);
+            return null;
+        }
+    }
+
+    private static Map<String, AttributeValue> decodeCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        Map<String, String> values;
+        try {
+            values = JsonMappers.shared().readValue(
+                new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8),
+                new TypeReference<Map<String, String>>() {});
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        if (values == null || values.isEmpty()) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        Map<String, AttributeValue> key = new HashMap<>();
+        values.forEach((name, value) -> key.put(name, AttributeValue.builder().s(value).build()));
+        return key;
+    }
+}
@@ -0,0 +1,198 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.config.NotificationProperties;
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import lombok.extern.slf4j.Slf4j;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Warm-container copy of the connections table, loaded in full from a scan the container
+ * performs anyway. Write-through from this container and DynamoDB Streams records patch
+ * the copy between loads, but stream batches are spread over shards and containers, so
+ * they never prove it current. Freshness is therefore measured from the last full load
+ * alone: reads are only answered while that load is complete, younger than the TTL and
+ * within the staleness budget of the caller's {@link ReadPurpose}. Unless disabled, an
+ * {@link EligibilityIndex} mirrors the copy so deliveries are matched against attribute bitmaps.
+ */
+@Slf4j
+public class ConnectionRegistry {
+    public enum ReadPurpose {
+        DELIVERY,
+        METRICS,
+        LISTING
+    }
+
+    private final Map<String, ConnectionRecord> connections = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Map<ReadPurpose, Long> stalenessBudgets;
+    private final EligibilityIndex eligibilityIndex;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong staleRejects = new AtomicLong();
+    private final AtomicLong streamRecordsApplied = new AtomicLong();
+    private volatile boolean complete;
+    private volatile long loadedAt;
+
+    public ConnectionRegistry(int maxEntries, long ttlMillis, Map<ReadPurpose, Long> stalenessBudgets) {
+        this(maxEntries, ttlMillis, stalenessBudgets, true);
+    }
+
+    public ConnectionRegistry(int maxEntries, long ttlMillis, Map<ReadPurpose, Long> stalenessBudgets,
+                              boolean bitmapIndexEnabled) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.stalenessBudgets = new EnumMap<>(stalenessBudgets);
+        this.eligibilityIndex = bitmapIndexEnabled ? new EligibilityIndex() : null;
+    }
+
+    public Optional<Collection<ConnectionRecord>> read(ReadPurpose purpose) {
+        if (!isReadable(purpose)) {
+            return Optional.empty();
+        }
+        return Optional.of(Collections.unmodifiableCollection(connections.values()));
+    }
+
+    /** The connections eligible for the query, under the staleness budget of {@link ReadPurpose#DELIVERY}. */
+    public Optional<List<ConnectionRecord>> readEligible(EligibilityQuery query) {
+        if (!isReadable(ReadPurpose.DELIVERY)) {
+            return Optional.empty();
+        }
+        if (eligibilityIndex != null) {
+            return Optional.of(eligibilityIndex.match(query));
+        }
+        List<ConnectionRecord> eligible = new ArrayList<>();
+        for (ConnectionRecord connection : connections.values()) {
+            if (query.matches(connection)) {
+                eligible.add(connection);
+            }
+        }
+        return Optional.of(eligible);
+    }
+
+    private boolean isReadable(ReadPurpose purpose) {
+        if (!complete) {
+            misses.incrementAndGet();
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        long budget = stalenessBudgets.getOrDefault(purpose, 0L);
+        if (now - loadedAt > Math.min(ttlMillis, budget)) {
+            staleRejects.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+
+    public static ConnectionRegistry fromProperties(NotificationProperties properties) {
+        if (!properties.getBoolean("notification.registry.enabled", true)) {
+            return null;
+        }
+        Map<ReadPurpose, Long> budgets = new EnumMap<>(ReadPurpose.class);
+        budgets.put(ReadPurpose.DELIVERY, properties.getLong("notification.registry.staleness-ms.delivery", 30000));
+        budgets.put(ReadPurpose.METRICS, properties.getLong("notification.registry.staleness-ms.metrics", 60000));
+        budgets.put(ReadPurpose.LISTING, properties.getLong("notification.registry.staleness-ms.listing", 10000));
+        return new ConnectionRegistry(
+            properties.getInt("notification.registry.max-entries", 50000),
+            properties.getLong("notification.registry.ttl-ms", 300000),
+            budgets,
+            properties.getBoolean("notification.registry.bitmap-index.enabled", true));
+    }
+
+    public ConnectionRecord get(String connectionId) {
+        return connections.get(connectionId);
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized void load(Collection<ConnectionRecord> snapshot) {
+        connections.clear();
+        if (eligibilityIndex != null) {
+            eligibilityIndex.clear();
+        }
+        if (snapshot.size() > maxEntries) {
+            complete = false;
+            log.info("Connection registry not loaded: {} connections exceed limit {}", snapshot.size(), maxEntries);
+            return;
+        }
+        snapshot.forEach(connection -> {
+            connections.put(connection.getConnectionId(), connection);
+            if (eligibilityIndex != null) {
+                eligibilityIndex.put(connection);
+            }
+        });
+        loadedAt = System.currentTimeMillis();
+        complete = true;
+    }
+
+    public void put(ConnectionRecord connection) {
+        if (!complete) {
+            return;
+        }
+        connections.put(connection.getConnectionId(), connection);
+        if (eligibilityIndex != null) {
+            eligibilityIndex.put(connection);
+        }
+        if (connections.size() > maxEntries) {
+            invalidate();
+        }
+    }
+
+    public void update(String connectionId, UnaryOperator<ConnectionRecord> change) {
+        if (complete) {
+            connections.computeIfPresent(connectionId, (id, connection) -> {
+                ConnectionRecord changed = change.apply(connection);
+                if (eligibilityIndex != null) {
+                    eligibilityIndex.put(changed);
+                }
+                return changed;
+            });
+        }
+    }
+
+    public void remove(String connectionId) {
+        connections.remove(connectionId);
+        if (eligibilityIndex != null) {
+            eligibilityIndex.remove(connectionId);
+        }
+    }
+
+    /**
+     * Counts the records of a stream batch. A batch holds the changes of one shard as seen
+     * by this container, so it does not extend the snapshot's freshness.
+     */
+    public void recordStreamRecords(int recordsApplied) {
+        streamRecordsApplied.addAndGet(recordsApplied);
+    }
+
+    public synchronized void invalidate() {
+        complete = false;
+        connections.clear();
+        if (eligibilityIndex != null) {
+            eligibilityIndex.clear();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long now = System.currentTimeMillis();
+        return Map.of(
+            "loaded", complete,
+            "bitmapIndex", eligibilityIndex != null
+                ? Map.of("connections", eligibilityIndex.size(), "attributes", eligibilityIndex.attributeCount())
+                : Map.of("enabled", false),
+            "size", connections.size(),
+            "hits", hits.get(),
+            "misses", misses.get(),
+            "staleRejects", staleRejects.get(),
+            "streamRecordsApplied", streamRecordsApplied.get(),
+            "ageMs", complete ? now - loadedAt : -1,
+            "stalenessMs", complete ? now - loadedAt : -1
+        );
+    }
+}
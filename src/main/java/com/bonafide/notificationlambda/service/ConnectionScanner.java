@@ -0,0 +1,110 @@
+package com.bonafide.notificationlambda.service;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Parallel segmented scan of the connections table. Each segment follows
+ * {@code LastEvaluatedKey} to completion and hands items to the consumer page by
+ * page, so nothing beyond the current pages is held in memory. The consumer is
+ * called concurrently from the segment workers. A projection narrows the items to the
+ * named attributes; it shrinks responses and unmarshalling, not the read capacity a scan
+ * consumes, which DynamoDB charges on whole items.
+ */
+@Slf4j
+public class ConnectionScanner {
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final int totalSegments;
+    private final int pageSize;
+
+    public ConnectionScanner(DynamoDbClient dynamoDbClient, String tableName, int totalSegments, int pageSize) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.totalSegments = Math.max(1, totalSegments);
+        this.pageSize = pageSize;
+    }
+
+    public void scan(Consumer<Map<String, AttributeValue>> consumer) {
+        scan(consumer, DeliveryMetrics.disabled());
+    }
+
+    /** As {@link #scan(Consumer)}, recording the time spent fetching pages as resolution. */
+    public void scan(Consumer<Map<String, AttributeValue>> consumer, DeliveryMetrics metrics) {
+        scan(consumer, metrics, null, null);
+    }
+
+    /**
+     * As {@link #scan(Consumer, DeliveryMetrics)}, returning only the attributes of {@code projection} when set.
+     * The projection names attributes through the {@code #placeholders} of {@code names}, since several
+     * attribute names (roles, for one) are DynamoDB reserved words.
+     */
+    public void scan(Consumer<Map<String, AttributeValue>> consumer, DeliveryMetrics metrics, String projection,
+                     Map<String, String> names) {
+        if (totalSegments == 1) {
+            scanSegment(0, 1, consumer, metrics, projection, names);
+            return;
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> segments = new ArrayList<>(totalSegments);
+            for (int segment = 0; segment < totalSegments; segment++) {
+                final int current = segment;
+                segments.add(executor.submit(() -> scanSegment(current, totalSegments, consumer, metrics, projection, names)));
+            }
+            for (Future<?> segment : segments) {
+                segment.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Scan segment failed on " + tableName, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Scan interrupted on " + tableName, e);
+        }
+    }
+
+    /** Scans one segment of a parallel scan split into {@code totalSegments}, independent of the configured segment count. */
+    public void scanSegment(int segment, int totalSegments, Consumer<Map<String, AttributeValue>> consumer,
+                            DeliveryMetrics metrics) {
+        scanSegment(segment, totalSegments, consumer, metrics, null, null);
+    }
+
+    public void scanSegment(int segment, int totalSegments, Consumer<Map<String, AttributeValue>> consumer,
+                            DeliveryMetrics metrics, String projection, Map<String, String> names) {
+        Map<String, AttributeValue> startKey = null;
+        int pages = 0;
+        do {
+            ScanRequest.Builder request = ScanRequest.builder().tableName(tableName);
+            if (totalSegments > 1) {
+                request.segment(segment).totalSegments(totalSegments);
+            }
+            if (pageSize > 0) {
+                request.limit(pageSize);
+            }
+            if (projection != null) {
+                request.projectionExpression(projection).expressionAttributeNames(names);
+            }
+            if (startKey != null) {
+                request.exclusiveStartKey(startKey);
+            }
+            long fetchStart = metrics.start();
+            ScanResponse response = dynamoDbClient.scan(request.build());
+            metrics.stop(DeliveryMetrics.Stage.RESOLUTION, fetchStart);
+            response.items().forEach(consumer);
+            pages++;
+            startKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty()
+                ? response.lastEvaluatedKey() : null;
+        } while (startKey != null);
+        log.debug("Scan segment {}/{} of {} finished after {} pages", segment, totalSegments, tableName, pages);
+    }
+}
@@ -1,21 +1,78 @@
 package com.bonafide.notificationlambda.service;
 
+import com.bonafide.notificationlambda.config.NotificationProperties;
+import com.bonafide.notificationlambda.model.ConnectionPage;
+import com.bonafide.notificationlambda.model.ConnectionQuery;
 import com.bonafide.notificationlambda.model.ConnectionRecord;
 import com.bonafide.notificationlambda.model.NotificationRequest;
 import lombok.extern.slf4j.Slf4j;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
 
 @Slf4j
 public class ConnectionService {
+    private static final String KEYS_PROJECTION = "#connectionId, #expiresAt";
+    private static final Map<String, String> KEYS_NAMES = Map.of("#connectionId", "connectionId", "#expiresAt", "expiresAt");
+    private static final int PRUNE_CONCURRENCY = 16;
     private final DynamoDbClient dynamoDbClient;
     private final String tableName;
+    private final ConnectionIndex connectionIndex;
+    private final ConnectionScanner connectionScanner;
+    private final ConnectionRegistry connectionRegistry;
+    private final long connectionTtlSeconds;
+    private final HeartbeatCoalescer heartbeatCoalescer;
+    private final ConnectionListing connectionListing;
+    private final int itemFormat;
 
     public ConnectionService(DynamoDbClient dynamoDbClient, String tableName) {
+        this(dynamoDbClient, tableName, null);
+    }
+
+    public ConnectionService(DynamoDbClient dynamoDbClient, String tableName, String indexTableName) {
+        this(dynamoDbClient, tableName, indexTableName, new NotificationProperties(new Properties()));
+    }
+
+    public ConnectionService(DynamoDbClient dynamoDbClient, String tableName, String indexTableName,
+                             NotificationProperties properties) {
         this.dynamoDbClient = dynamoDbClient;
         this.tableName = tableName;
+        this.connectionTtlSeconds = properties.getLong("notification.connection.ttl-seconds", 7200);
+        this.connectionIndex = indexTableName != null && !indexTableName.isBlank()
+            ? new ConnectionIndex(dynamoDbClient, indexTableName,
+                properties.getBoolean("notification.metrics.counters.enabled", true)
+                    ? new ConnectionCounters(dynamoDbClient, indexTableName,
+                        properties.getInt("notification.metrics.counters.shards", 4),
+                        properties.getLong("notification.metrics.snapshot-ttl-ms", 5000))
+                    : null,
+                properties.getLong("notification.index.entry-ttl-seconds",
+                    properties.getLong("notification.connection.max-duration-seconds", 7200) + connectionTtlSeconds))
+            : null;
+        this.connectionScanner = new ConnectionScanner(dynamoDbClient, tableName,
+            properties.getInt("notification.scan.segments", 4),
+            properties.getInt("notification.scan.page-size", 0));
+        this.connectionRegistry = ConnectionRegistry.fromProperties(properties);
+        this.heartbeatCoalescer = properties.getBoolean("notification.heartbeat.coalescing.enabled", true)
+            ? new HeartbeatCoalescer(this::writeHeartbeat,
+                properties.getLong("notification.heartbeat.freshness-window-seconds", 300),
+                properties.getLong("notification.heartbeat.flush-interval-ms", 60000),
+                properties.getInt("notification.heartbeat.max-buffered", 100),
+                properties.getInt("notification.heartbeat.max-tracked", 100000))
+            : null;
+        this.connectionListing = new ConnectionListing(dynamoDbClient, tableName, connectionIndex,
+            properties.getInt("notification.connections.page-size", 100),
+            properties.getInt("notification.connections.max-page-size", 1000));
+        this.itemFormat = properties.getInt("notification.connection.item-format", ConnectionItemCodec.COMPACT);
     }
 
     public void storeConnection(ConnectionRecord connection) {
@@ -23,18 +80,20 @@ public class ConnectionService {
             software.amazon.awssdk.services.dynamodb.model.PutItemRequest request =
                 software.amazon.awssdk.services.dynamodb.model.PutItemRequest.builder()
                     .tableName(tableName)
-                    .item(Map.of(
-                        "connectionId", software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().s(connection.getConnectionId()).build(),
-                        "userId", software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().s(connection.getUserId()).build(),
-                        "roles", software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().ss(connection.getRoles()).build(),
-                        "teams", software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().ss(connection.getTeams()).build(),
-                        "department", software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().s(connection.getDepartment()).build(),
-                        "connectedAt", software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().n(String.valueOf(connection.getConnectedAt())).build(),
-                        "lastSeen", software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().n(String.valueOf(connection.getLastSeen())).build(),
-                        "subscribedTopics", software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().ss(connection.getSubscribedTopics()).build()
-                    ))
+                    .item(ConnectionItemCodec.toItem(connection, connection.getLastSeen() + connectionTtlSeconds, itemFormat))
+                    .returnValues(ReturnValue.ALL_OLD)
                     .build();
-            dynamoDbClient.putItem(request);
+            software.amazon.awssdk.services.dynamodb.model.PutItemResponse response = dynamoDbClient.putItem(request);
+            if (connectionIndex != null) {
+                if (response.hasAttributes() && !response.attributes().isEmpty()) {
+                    connectionIndex.replaceEntries(mapToConnectionRecord(response.attributes()), connection);
+                } else {
+                    connectionIndex.addEntries(connection);
+                }
+            }
+            if (connectionRegistry != null) {
+                connectionRegistry.put(connection);
+            }
             log.info("Stored connection: {}", connection.getConnectionId());
         } catch (Exception e) {
             log.error("Error storing connection", e);
@@ -42,132 +101,557 @@ public class ConnectionService {
     }
 
     public void removeConnection(String connectionId) {
+        if (deleteConnection(connectionId)) {
+            log.info("Removed connection: {}", connectionId);
+        }
+    }
+
+    /** Deletes the item with ALL_OLD, so the old item names the index entries to remove. */
+    private boolean deleteConnection(String connectionId) {
         try {
             software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest request =
                 software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest.builder()
                     .tableName(tableName)
                     .key(Map.of("connectionId",
                         software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().s(connectionId).build()))
+                    .returnValues(software.amazon.awssdk.services.dynamodb.model.ReturnValue.ALL_OLD)
                     .build();
-            dynamoDbClient.deleteItem(request);
-            log.info("Removed connection: {}", connectionId);
+            software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse response = dynamoDbClient.deleteItem(request);
+            if (heartbeatCoalescer != null) {
+                heartbeatCoalescer.forget(connectionId);
+            }
+            if (connectionRegistry != null) {
+                connectionRegistry.remove(connectionId);
+            }
+            if (connectionIndex != null && response.hasAttributes() && !response.attributes().isEmpty()) {
+                connectionIndex.removeEntries(mapToConnectionRecord(response.attributes()));
+            }
+            return true;
+        } catch (Exception e) {
+            log.error("Error removing connection {}", connectionId, e);
+            return false;
+        }
+    }
+
+    /**
+     * Deletes connections found to be gone during delivery. Without a recipient index they
+     * go in BatchWriteItem chunks. With one, BatchWriteItem cannot return the deleted items,
+     * so each is deleted on its own with ALL_OLD, {@value #PRUNE_CONCURRENCY} at a time,
+     * and its index entries are removed from the old item whichever container pruned it.
+     */
+    public void removeConnections(Collection<String> connectionIds) {
+        if (connectionIds.isEmpty()) {
+            return;
+        }
+        Set<String> unique = new LinkedHashSet<>(connectionIds);
+        for (String connectionId : unique) {
+            if (heartbeatCoalescer != null) {
+                heartbeatCoalescer.forget(connectionId);
+            }
+            if (connectionRegistry != null) {
+                connectionRegistry.remove(connectionId);
+            }
+        }
+        if (connectionIndex != null) {
+            java.util.concurrent.Semaphore permits = new java.util.concurrent.Semaphore(PRUNE_CONCURRENCY);
+            java.util.concurrent.atomic.AtomicInteger pruned = new java.util.concurrent.atomic.AtomicInteger();
+            try (java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newVirtualThreadPerTaskExecutor()) {
+                for (String connectionId : unique) {
+                    permits.acquireUninterruptibly();
+                    executor.submit(() -> {
+                        try {
+                            if (deleteConnection(connectionId)) {
+                                pruned.incrementAndGet();
+                            }
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                }
+            }
+            log.info("Pruned {} stale connections", pruned.get());
+            return;
+        }
+        try {
+            List<software.amazon.awssdk.services.dynamodb.model.WriteRequest> deletes = new ArrayList<>();
+            for (String connectionId : unique) {
+                deletes.add(software.amazon.awssdk.services.dynamodb.model.WriteRequest.builder()
+                    .deleteRequest(software.amazon.awssdk.services.dynamodb.model.DeleteRequest.builder()
+                        .key(Map.of("connectionId", AttributeValue.builder().s(connectionId).build()))
+                        .build())
+                    .build());
+            }
+            int unprocessed = BatchWriter.write(dynamoDbClient, tableName, deletes);
+            log.info("Pruned {} stale connections", deletes.size() - unprocessed);
         } catch (Exception e) {
-            log.error("Error removing connection", e);
+            log.error("Error pruning stale connections", e);
         }
     }
 
     public void updateHeartbeat(String connectionId) {
+        long now = Instant.now().getEpochSecond();
+        if (heartbeatCoalescer != null) {
+            if (heartbeatCoalescer.record(connectionId, now) && connectionRegistry != null) {
+                connectionRegistry.update(connectionId, connection -> connection.toBuilder().lastSeen(now).build());
+            }
+            return;
+        }
+        if (writeHeartbeat(connectionId, now, Long.MAX_VALUE) && connectionRegistry != null) {
+            connectionRegistry.update(connectionId, connection -> connection.toBuilder().lastSeen(now).build());
+        }
+    }
+
+    /** Writes buffered heartbeats whose flush interval has elapsed. */
+    public void flushHeartbeats() {
+        if (heartbeatCoalescer != null) {
+            heartbeatCoalescer.flushIfDue();
+        }
+    }
+
+    public Map<String, Object> getHeartbeatStats() {
+        return heartbeatCoalescer != null ? heartbeatCoalescer.stats() : Map.of("enabled", false);
+    }
+
+    /**
+     * Sets lastSeen and expiresAt unless the stored lastSeen is already at or after
+     * {@code staleBefore}, and never recreates a connection that has been removed.
+     */
+    private boolean writeHeartbeat(String connectionId, long now, long staleBefore) {
         try {
             software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest request =
                 software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest.builder()
                     .tableName(tableName)
                     .key(Map.of("connectionId",
                         software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().s(connectionId).build()))
-                    .updateExpression("SET lastSeen = :timestamp")
-                    .expressionAttributeValues(Map.of(":timestamp",
-                        software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().n(String.valueOf(Instant.now().getEpochSecond())).build()))
+                    .updateExpression("SET lastSeen = :timestamp, expiresAt = :expiresAt")
+                    .conditionExpression("attribute_exists(connectionId) AND lastSeen < :staleBefore")
+                    .expressionAttributeValues(Map.of(
+                        ":timestamp", software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().n(String.valueOf(now)).build(),
+                        ":expiresAt", software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().n(String.valueOf(now + connectionTtlSeconds)).build(),
+                        ":staleBefore", software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().n(String.valueOf(staleBefore)).build()))
                     .build();
             dynamoDbClient.updateItem(request);
+            return true;
+        } catch (software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException e) {
+            return false;
         } catch (Exception e) {
             log.error("Error updating heartbeat", e);
+            return false;
         }
     }
 
+    /**
+     * Replaces the connection's topics. The packed attributes are rewritten whole in the
+     * configured item format, from the registry's copy of the connection or a consistent
+     * read of its item, and the other format's attributes are removed, so an item written
+     * in the other format is converted on the way.
+     */
     public void updateSubscriptions(String connectionId, List<String> topics) {
         try {
-            software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest request =
-                software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest.builder()
+            Map<String, AttributeValue> key = Map.of("connectionId", AttributeValue.builder().s(connectionId).build());
+            ConnectionRecord current = connectionRegistry != null ? connectionRegistry.get(connectionId) : null;
+            if (current == null) {
+                GetItemResponse found = dynamoDbClient.getItem(GetItemRequest.builder()
                     .tableName(tableName)
-                    .key(Map.of("connectionId",
-                        software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().s(connectionId).build()))
-                    .updateExpression("SET subscribedTopics = :topics")
-                    .expressionAttributeValues(Map.of(":topics",
-                        software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().ss(topics).build()))
-                    .build();
-            dynamoDbClient.updateItem(request);
+                    .key(key)
+                    .consistentRead(true)
+                    .build());
+                if (!found.hasItem() || found.item().isEmpty()) {
+                    log.info("Subscriptions not updated, connection {} not found", connectionId);
+                    return;
+                }
+                current = mapToConnectionRecord(found.item());
+            }
+            Map<String, String> names = new HashMap<>();
+            Map<String, AttributeValue> values = new HashMap<>();
+            List<String> assignments = new ArrayList<>();
+            ConnectionItemCodec.packedAttributes(current.toBuilder().subscribedTopics(topics).build(), itemFormat)
+                .forEach((name, value) -> {
+                    names.put("#" + name, name);
+                    values.put(":" + name, value);
+                    assignments.add("#" + name + " = :" + name);
+                });
+            List<String> removals = new ArrayList<>();
+            for (String name : itemFormat == ConnectionItemCodec.COMPACT ? ConnectionItemCodec.PACKED_FIELDS : List.of(ConnectionItemCodec.PACKED)) {
+                names.put("#" + name, name);
+                removals.add("#" + name);
+            }
+            UpdateItemResponse response = dynamoDbClient.updateItem(UpdateItemRequest.builder()
+                .tableName(tableName)
+                .key(key)
+                .updateExpression("SET " + String.join(", ", assignments) + " REMOVE " + String.join(", ", removals))
+                .conditionExpression("attribute_exists(connectionId)")
+                .expressionAttributeNames(names)
+                .expressionAttributeValues(values)
+                .returnValues(ReturnValue.ALL_OLD)
+                .build());
+            if (connectionRegistry != null) {
+                connectionRegistry.update(connectionId, connection -> connection.toBuilder().subscribedTopics(topics).build());
+            }
+            if (connectionIndex != null && response.hasAttributes() && response.attributes().containsKey("userId")) {
+                connectionIndex.updateTopics(mapToConnectionRecord(response.attributes()), topics);
+            }
+        } catch (ConditionalCheckFailedException e) {
+            log.info("Subscriptions not updated, connection {} was removed", connectionId);
         } catch (Exception e) {
             log.error("Error updating subscriptions", e);
         }
     }
 
+    /** The stored connection, from the registry when it holds it, otherwise by a consistent read; null when absent. */
+    public ConnectionRecord getConnection(String connectionId) {
+        ConnectionRecord cached = connectionRegistry != null ? connectionRegistry.get(connectionId) : null;
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            GetItemResponse found = dynamoDbClient.getItem(GetItemRequest.builder()
+                .tableName(tableName)
+                .key(Map.of("connectionId", AttributeValue.builder().s(connectionId).build()))
+                .consistentRead(true)
+                .build());
+            return found.hasItem() && !found.item().isEmpty() ? mapToConnectionRecord(found.item()) : null;
+        } catch (Exception e) {
+            log.error("Error reading connection {}", connectionId, e);
+            return null;
+        }
+    }
+
     public List<ConnectionRecord> getEligibleConnections(NotificationRequest notification) {
+        List<ConnectionRecord> eligible = Collections.synchronizedList(new ArrayList<>());
         try {
-            software.amazon.awssdk.services.dynamodb.model.ScanRequest request =
-                software.amazon.awssdk.services.dynamodb.model.ScanRequest.builder()
-                    .tableName(tableName)
-                    .build();
-            software.amazon.awssdk.services.dynamodb.model.ScanResponse response = dynamoDbClient.scan(request);
-            List<ConnectionRecord> eligible = new ArrayList<>();
-            for (Map<String, software.amazon.awssdk.services.dynamodb.model.AttributeValue> item : response.items()) {
-                ConnectionRecord connection = mapToConnectionRecord(item);
-                boolean isEligibleForNotification = isEligibleForNotification(connection, notification);
-                log.info("is {} eligible :: {}", connection.getUserId(), isEligibleForNotification);
-                log.info("notification :: {}", notification);
-                if (isEligibleForNotification) {
-                    eligible.add(connection);
-                }
-            }
-            return eligible;
+            forEachEligibleConnection(notification, eligible::add);
         } catch (Exception e) {
             log.error("Error getting eligible connections", e);
-            return new ArrayList<>();
         }
+        return new ArrayList<>(eligible);
+    }
+
+    /**
+     * Streams every connection eligible for the notification into the consumer as it is
+     * resolved, without buffering the recipient set. With the scan path the consumer is
+     * invoked concurrently from the scan segment workers.
+     */
+    public void forEachEligibleConnection(NotificationRequest notification, Consumer<ConnectionRecord> consumer) {
+        forEachEligibleConnection(notification, consumer, DeliveryMetrics.disabled());
+    }
+
+    /** As {@link #forEachEligibleConnection(NotificationRequest, Consumer)}, timing resolution and filtering in {@code metrics}. */
+    public void forEachEligibleConnection(NotificationRequest notification, Consumer<ConnectionRecord> consumer,
+                                          DeliveryMetrics metrics) {
+        EligibilityQuery query = EligibilityQuery.compile(notification);
+        if (connectionRegistry != null) {
+            long filteringStart = metrics.start();
+            Optional<List<ConnectionRecord>> cached = connectionRegistry.readEligible(query);
+            metrics.stop(DeliveryMetrics.Stage.FILTERING, filteringStart);
+            if (cached.isPresent()) {
+                cached.get().forEach(consumer);
+                return;
+            }
+        }
+        if (connectionIndex != null) {
+            Optional<Collection<ConnectionRecord>> indexed = Optional.empty();
+            long resolutionStart = metrics.start();
+            try {
+                indexed = connectionIndex.lookup(notification);
+            } catch (Exception e) {
+                log.error("Error resolving connections from index, falling back to scan", e);
+            }
+            metrics.stop(DeliveryMetrics.Stage.RESOLUTION, resolutionStart);
+            if (indexed.isPresent()) {
+                indexed.get().forEach(consumer);
+                return;
+            }
+        }
+        scanConnections(connection -> {
+            if (isEligible(connection, query, metrics)) {
+                consumer.accept(connection);
+            }
+        }, metrics, ConnectionItemCodec.ELIGIBILITY_PROJECTION, ConnectionItemCodec.ELIGIBILITY_NAMES);
+    }
+
+    /**
+     * Whether the notification explicitly asks for a broadcast. Only then is eligibility
+     * skipped; a send whose audience happens to be everyone is still matched per connection.
+     */
+    public boolean isBroadcast(NotificationRequest notification) {
+        return Boolean.TRUE.equals(notification.getBroadcast());
+    }
+
+    /**
+     * Streams the id of every live connection, for a broadcast: from the registry when fresh,
+     * otherwise from a scan projected to the key and expiry, so no record is materialized
+     * and no eligibility is evaluated.
+     */
+    public void forEachConnectionId(Consumer<String> consumer, DeliveryMetrics metrics) {
+        if (connectionRegistry != null) {
+            long resolutionStart = metrics.start();
+            Optional<Collection<ConnectionRecord>> cached = connectionRegistry.read(ConnectionRegistry.ReadPurpose.DELIVERY);
+            metrics.stop(DeliveryMetrics.Stage.RESOLUTION, resolutionStart);
+            if (cached.isPresent()) {
+                for (ConnectionRecord connection : cached.get()) {
+                    consumer.accept(connection.getConnectionId());
+                }
+                return;
+            }
+        }
+        long now = Instant.now().getEpochSecond();
+        connectionScanner.scan(item -> {
+            if (!isExpired(item, now)) {
+                consumer.accept(item.get("connectionId").s());
+            }
+        }, metrics, KEYS_PROJECTION, KEYS_NAMES);
+    }
+
+    /** As {@link #forEachConnectionId(Consumer, DeliveryMetrics)} for one scan segment of a sharded fan-out. */
+    public void forEachConnectionId(int segment, int totalSegments, Consumer<String> consumer, DeliveryMetrics metrics) {
+        long now = Instant.now().getEpochSecond();
+        connectionScanner.scanSegment(segment, totalSegments, item -> {
+            if (!isExpired(item, now)) {
+                consumer.accept(item.get("connectionId").s());
+            }
+        }, metrics, KEYS_PROJECTION, KEYS_NAMES);
+    }
+
+    /**
+     * Matches every notification of a batch against one pass over the connection set
+     * (the registry when fresh, otherwise a single scan), calling the consumer with each
+     * eligible connection and the position of the notification it is eligible for.
+     */
+    public void forEachEligibleConnection(List<NotificationRequest> notifications, ObjIntConsumer<ConnectionRecord> consumer) {
+        forEachEligibleConnection(notifications, consumer, DeliveryMetrics.disabled());
+    }
+
+    public void forEachEligibleConnection(List<NotificationRequest> notifications, ObjIntConsumer<ConnectionRecord> consumer,
+                                          DeliveryMetrics metrics) {
+        List<EligibilityQuery> queries = new ArrayList<>(notifications.size());
+        for (NotificationRequest notification : notifications) {
+            queries.add(EligibilityQuery.compile(notification));
+        }
+        if (connectionRegistry != null) {
+            long filteringStart = metrics.start();
+            List<List<ConnectionRecord>> matched = new ArrayList<>(queries.size());
+            for (EligibilityQuery query : queries) {
+                Optional<List<ConnectionRecord>> cached = connectionRegistry.readEligible(query);
+                if (cached.isEmpty()) {
+                    matched = null;
+                    break;
+                }
+                matched.add(cached.get());
+            }
+            metrics.stop(DeliveryMetrics.Stage.FILTERING, filteringStart);
+            if (matched != null) {
+                for (int i = 0; i < matched.size(); i++) {
+                    for (ConnectionRecord connection : matched.get(i)) {
+                        consumer.accept(connection, i);
+                    }
+                }
+                return;
+            }
+        }
+        scanConnections(connection -> {
+            for (int i = 0; i < queries.size(); i++) {
+                if (isEligible(connection, queries.get(i), metrics)) {
+                    consumer.accept(connection, i);
+                }
+            }
+        }, metrics, ConnectionItemCodec.ELIGIBILITY_PROJECTION, ConnectionItemCodec.ELIGIBILITY_NAMES);
+    }
+
+    /**
+     * Streams the eligible connections of scan segment {@code segment} out of
+     * {@code totalSegments}, for one shard of an asynchronous fan-out. Always scans, since a
+     * scan segment selects the same connections in every worker whatever its registry or
+     * index holds; the partial scan does not seed the registry.
+     */
+    public void forEachEligibleConnection(NotificationRequest notification, int segment, int totalSegments,
+                                          Consumer<ConnectionRecord> consumer, DeliveryMetrics metrics) {
+        long now = Instant.now().getEpochSecond();
+        EligibilityQuery query = EligibilityQuery.compile(notification);
+        connectionScanner.scanSegment(segment, totalSegments, item -> {
+            if (isExpired(item, now)) {
+                return;
+            }
+            ConnectionRecord connection = mapToConnectionRecord(item);
+            if (isEligible(connection, query, metrics)) {
+                consumer.accept(connection);
+            }
+        }, metrics, ConnectionItemCodec.ELIGIBILITY_PROJECTION, ConnectionItemCodec.ELIGIBILITY_NAMES);
+    }
+
+    private static boolean isEligible(ConnectionRecord connection, EligibilityQuery query, DeliveryMetrics metrics) {
+        long filteringStart = metrics.start();
+        boolean eligible = query.matches(connection);
+        metrics.stop(DeliveryMetrics.Stage.FILTERING, filteringStart);
+        return eligible;
     }
 
     public List<ConnectionRecord> getAllConnections() {
+        return getAllConnections(ConnectionRegistry.ReadPurpose.LISTING);
+    }
+
+    public List<ConnectionRecord> getAllConnections(ConnectionRegistry.ReadPurpose purpose) {
         try {
-            software.amazon.awssdk.services.dynamodb.model.ScanRequest request =
-                software.amazon.awssdk.services.dynamodb.model.ScanRequest.builder()
-                    .tableName(tableName)
-                    .build();
-            software.amazon.awssdk.services.dynamodb.model.ScanResponse response = dynamoDbClient.scan(request);
-            return response.items().stream()
-                .map((Map<String, AttributeValue> item) -> mapToConnectionRecord(item))
-                .collect(java.util.stream.Collectors.toList());
+            if (connectionRegistry != null) {
+                Optional<Collection<ConnectionRecord>> cached = connectionRegistry.read(purpose);
+                if (cached.isPresent()) {
+                    return new ArrayList<>(cached.get());
+                }
+            }
+            Queue<ConnectionRecord> connections = new ConcurrentLinkedQueue<>();
+            scanConnections(connections::add);
+            return new ArrayList<>(connections);
         } catch (Exception e) {
             log.error("Error getting all connections", e);
             return new ArrayList<>();
         }
     }
 
-    private ConnectionRecord mapToConnectionRecord(Map<String, software.amazon.awssdk.services.dynamodb.model.AttributeValue> item) {
-        return ConnectionRecord.builder()
-            .connectionId(item.get("connectionId").s())
-            .userId(item.get("userId").s())
-            .roles(item.get("roles").ss())
-            .teams(item.get("teams").ss())
-            .department(item.get("department").s())
-            .connectedAt(Long.parseLong(item.get("connectedAt").n()))
-            .lastSeen(Long.parseLong(item.get("lastSeen").n()))
-            .subscribedTopics(item.get("subscribedTopics").ss())
-            .build();
-    }
-
-    private boolean isEligibleForNotification(ConnectionRecord connection, NotificationRequest notification) {
-        if (notification.getTargetUsers() != null && notification.getTargetUsers().contains(connection.getUserId())) {
-            return true;
-        }
-        if (notification.getProcessOwnerId() != null && notification.getProcessOwnerId().equals(connection.getUserId())) {
-            return true;
-        }
-        if (notification.getRequiredRoles() != null) {
-            for (String role : notification.getRequiredRoles()) {
-                if (connection.getRoles().contains(role)) {
-                    return true;
+    /** One page of connections; invalid queries surface as IllegalArgumentException. */
+    public ConnectionPage listConnections(ConnectionQuery query) {
+        return connectionListing.list(query);
+    }
+
+    /** Counters maintained alongside the recipient index, or null when they are not enabled. */
+    public ConnectionCounters getConnectionCounters() {
+        return connectionIndex != null ? connectionIndex.getCounters() : null;
+    }
+
+    /** See {@link ConnectionIndex#reconcileCounters()}; 0 without an index. */
+    public int reconcileCounters() {
+        return connectionIndex != null ? connectionIndex.reconcileCounters() : 0;
+    }
+
+    public Map<String, Object> getRegistryStats() {
+        return connectionRegistry != null ? connectionRegistry.stats() : Map.of("enabled", false);
+    }
+
+    /**
+     * Applies DynamoDB Streams records for the connections table to the registry, so a
+     * warm container stays current without reloading the whole table. REMOVE records,
+     * including TTL expiries, also clean up the connection's index entries. A record that
+     * fails does not stop the rest of the batch; the registry, having missed a change, is
+     * invalidated, and the sequence numbers of the failed records are returned so the
+     * batch is redelivered from the first of them.
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> applyStreamRecords(List<Map<String, Object>> records) {
+        int applied = 0;
+        List<String> failed = new ArrayList<>();
+        for (Map<String, Object> record : records) {
+            try {
+                String sourceArn = (String) record.get("eventSourceARN");
+                if (sourceArn != null && !sourceArn.contains(":table/" + tableName + "/")) {
+                    continue;
+                }
+                String eventName = (String) record.get("eventName");
+                Map<String, Object> change = (Map<String, Object>) record.get("dynamodb");
+                if (change == null) {
+                    continue;
+                }
+                if ("REMOVE".equals(eventName)) {
+                    Map<String, AttributeValue> keys = fromStreamImage((Map<String, Object>) change.get("Keys"));
+                    if (connectionRegistry != null) {
+                        connectionRegistry.remove(keys.get("connectionId").s());
+                    }
+                    if (connectionIndex != null && change.get("OldImage") != null) {
+                        connectionIndex.removeEntries(mapToConnectionRecord(fromStreamImage((Map<String, Object>) change.get("OldImage"))));
+                    }
+                } else if (connectionRegistry != null && change.get("NewImage") != null) {
+                    connectionRegistry.put(mapToConnectionRecord(fromStreamImage((Map<String, Object>) change.get("NewImage"))));
+                }
+                applied++;
+            } catch (Exception e) {
+                log.error("Error applying stream record, invalidating connection registry", e);
+                if (connectionRegistry != null) {
+                    connectionRegistry.invalidate();
+                }
+                Object change = record.get("dynamodb");
+                Object sequenceNumber = change instanceof Map ? ((Map<?, ?>) change).get("SequenceNumber") : null;
+                if (sequenceNumber != null) {
+                    failed.add(sequenceNumber.toString());
                 }
             }
         }
-        if (notification.getTargetTeams() != null) {
-            for (String team : notification.getTargetTeams()) {
-                if (connection.getTeams().contains(team)) {
-                    return true;
+        if (connectionRegistry != null) {
+            connectionRegistry.recordStreamRecords(applied);
+        }
+        return failed;
+    }
+
+    /**
+     * Scans the whole table into the consumer. Since every row is read anyway, the rows
+     * also seed the registry as long as they fit within its size bound.
+     */
+    private void scanConnections(Consumer<ConnectionRecord> consumer) {
+        scanConnections(consumer, DeliveryMetrics.disabled(), null, null);
+    }
+
+    /** Without a registry to seed, only the attributes of {@code projection} are read when it is set. */
+    private void scanConnections(Consumer<ConnectionRecord> consumer, DeliveryMetrics metrics, String projection,
+                                 Map<String, String> names) {
+        long now = Instant.now().getEpochSecond();
+        if (connectionRegistry == null) {
+            connectionScanner.scan(item -> {
+                if (!isExpired(item, now)) {
+                    consumer.accept(mapToConnectionRecord(item));
                 }
+            }, metrics, projection, names);
+            return;
+        }
+        Queue<ConnectionRecord> snapshot = new ConcurrentLinkedQueue<>();
+        java.util.concurrent.atomic.AtomicInteger size = new java.util.concurrent.atomic.AtomicInteger();
+        connectionScanner.scan(item -> {
+            if (isExpired(item, now)) {
+                return;
+            }
+            ConnectionRecord connection = mapToConnectionRecord(item);
+            if (size.incrementAndGet() <= connectionRegistry.getMaxEntries()) {
+                snapshot.add(connection);
+            } else {
+                snapshot.clear();
             }
+            consumer.accept(connection);
+        }, metrics);
+        if (size.get() <= connectionRegistry.getMaxEntries()) {
+            connectionRegistry.load(snapshot);
         }
-        if (connection.getSubscribedTopics().contains(notification.getType()) ||
-            connection.getSubscribedTopics().contains("ALL")) {
-            return true;
+    }
+
+    /** TTL deletion runs in the background, so rows past expiresAt can still be returned by a scan. */
+    private static boolean isExpired(Map<String, AttributeValue> item, long now) {
+        AttributeValue expiresAt = item.get("expiresAt");
+        return expiresAt != null && Long.parseLong(expiresAt.n()) < now;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, AttributeValue> fromStreamImage(Map<String, Object> image) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        image.forEach((name, value) -> item.put(name, fromStreamValue((Map<String, Object>) value)));
+        return item;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AttributeValue fromStreamValue(Map<String, Object> value) {
+        Map.Entry<String, Object> typed = value.entrySet().iterator().next();
+        switch (typed.getKey()) {
+            case "S": return AttributeValue.builder().s((String) typed.getValue()).build();
+            case "N": return AttributeValue.builder().n(String.valueOf(typed.getValue())).build();
+            case "BOOL": return AttributeValue.builder().bool((Boolean) typed.getValue()).build();
+            case "NULL": return AttributeValue.builder().nul(true).build();
+            case "SS": return AttributeValue.builder().ss((List<String>) typed.getValue()).build();
+            case "NS": return AttributeValue.builder().ns(((List<Object>) typed.getValue()).stream()
+                .map(String::valueOf).collect(java.util.stream.Collectors.toList())).build();
+            case "B": return AttributeValue.builder().b(software.amazon.awssdk.core.SdkBytes.fromByteArray(
+                Base64.getDecoder().decode((String) typed.getValue()))).build();
+            case "L": return AttributeValue.builder().l(((List<Map<String, Object>>) typed.getValue()).stream()
+                .map(ConnectionService::fromStreamValue).collect(java.util.stream.Collectors.toList())).build();
+            case "M": return AttributeValue.builder().m(fromStreamImage((Map<String, Object>) typed.getValue())).build();
+            default: throw new IllegalArgumentException("Unsupported stream attribute type: " + typed.getKey());
         }
-        return false;
+    }
+
+    private ConnectionRecord mapToConnectionRecord(Map<String, software.amazon.awssdk.services.dynamodb.model.AttributeValue> item) {
+        return ConnectionItemCodec.toRecord(item);
     }
 } 
\ No newline at end of file
@@ -0,0 +1,104 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.config.JsonMappers;
+import com.bonafide.notificationlambda.config.NotificationProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opens a {@link DeliveryMetrics} per send and publishes it at the end of the invocation
+ * as CloudWatch Embedded Metric Format, one JSON document per line on the
+ * {@value #METRICS_LOGGER} logger, which CloudWatch Logs turns into metrics without any
+ * API call. Driven by {@code notification.metrics.*}.
+ */
+@Slf4j
+public class DeliveryInstrumentation {
+    public static final String METRICS_LOGGER = "notification.metrics";
+    private static final Logger METRICS = LoggerFactory.getLogger(METRICS_LOGGER);
+
+    private final boolean enabled;
+    private final boolean emitEnabled;
+    private final boolean timingsInResult;
+    private final String namespace;
+
+    public DeliveryInstrumentation(boolean enabled, boolean emitEnabled, boolean timingsInResult, String namespace) {
+        this.enabled = enabled;
+        this.emitEnabled = emitEnabled;
+        this.timingsInResult = timingsInResult;
+        this.namespace = namespace;
+    }
+
+    public static DeliveryInstrumentation fromProperties(NotificationProperties properties) {
+        return new DeliveryInstrumentation(
+            properties.getBoolean("notification.metrics.enabled", true),
+            properties.getBoolean("notification.metrics.emf.enabled", true),
+            properties.getBoolean("notification.metrics.result-stage-timings", false),
+            properties.getString("notification.metrics.namespace", "BonafideNotifications"));
+    }
+
+    public DeliveryMetrics open() {
+        return enabled ? new DeliveryMetrics(true) : DeliveryMetrics.disabled();
+    }
+
+    /** Stage timings to attach to a NotificationResult, or null when they are not requested. */
+    public Map<String, Double> resultTimings(DeliveryMetrics metrics) {
+        return timingsInResult && metrics.isEnabled() ? metrics.stageMillis() : null;
+    }
+
+    /**
+     * Emits the invocation's metrics under the {@code Operation} dimension, plus one
+     * {@code SendErrors} document per error class under {@code Operation, ErrorClass}.
+     */
+    public void publish(DeliveryMetrics metrics, String operation, int notifications, int recipients, int delivered) {
+        if (!metrics.isEnabled() || !emitEnabled || !METRICS.isInfoEnabled()) {
+            return;
+        }
+        try {
+            Map<String, Object> values = new LinkedHashMap<>();
+            metrics.stageMillis().forEach((stage, millis) ->
+                values.put(Character.toUpperCase(stage.charAt(0)) + stage.substring(1) + "Time", millis));
+            values.put("Notifications", notifications);
+            values.put("Recipients", recipients);
+            values.put("Delivered", delivered);
+            values.put("Sends", metrics.getSends());
+            values.put("SendLatencyP50", metrics.sendLatencyMillis(0.5));
+            values.put("SendLatencyP90", metrics.sendLatencyMillis(0.9));
+            values.put("SendLatencyP99", metrics.sendLatencyMillis(0.99));
+            values.put("SendLatencyMax", metrics.sendLatencyMillis(1.0));
+            Map<String, Object> document = document(Map.of("Operation", operation), values);
+            document.put("errors", metrics.getErrors());
+            METRICS.info(JsonMappers.shared().writeValueAsString(document));
+            for (Map.Entry<String, Long> error : metrics.getErrors().entrySet()) {
+                Map<String, String> dimensions = new LinkedHashMap<>();
+                dimensions.put("Operation", operation);
+                dimensions.put("ErrorClass", error.getKey());
+                METRICS.info(JsonMappers.shared().writeValueAsString(document(dimensions, Map.of("SendErrors", error.getValue()))));
+            }
+        } catch (Exception e) {
+            log.error("Error publishing delivery metrics", e);
+        }
+    }
+
+    private Map<String, Object> document(Map<String, String> dimensions, Map<String, Object> values) {
+        List<Map<String, String>> definitions = new ArrayList<>(values.size());
+        values.forEach((name, value) -> definitions.add(Map.of("Name", name, "Unit", unit(name))));
+        Map<String, Object> directive = new LinkedHashMap<>();
+        directive.put("Namespace", namespace);
+        directive.put("Dimensions", List.of(new ArrayList<>(dimensions.keySet())));
+        directive.put("Metrics", definitions);
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("_aws", Map.of("Timestamp", System.currentTimeMillis(), "CloudWatchMetrics", List.of(directive)));
+        document.putAll(dimensions);
+        document.putAll(values);
+        return document;
+    }
+
+    private static String unit(String metric) {
+        return metric.endsWith("Time") || metric.startsWith("SendLatency") ? "Milliseconds" : "Count";
+    }
+}
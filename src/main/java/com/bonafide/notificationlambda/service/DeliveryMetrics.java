@@ -0,0 +1,141 @@
+package com.bonafide.notificationlambda.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation of one send or batch: time spent per {@link Stage}, a histogram of
+ * per-connection send latency and the number of failed sends per error class. Stage times
+ * are summed over every thread working on the stage, so with a parallel scan or concurrent
+ * sends they can add up to more than the wall time. Recording is lock-free; a disabled
+ * instance skips the clock reads altogether.
+ */
+public class DeliveryMetrics {
+    public enum Stage {
+        RESOLUTION("resolution"),
+        FILTERING("filtering"),
+        ENCODING("encoding"),
+        FAN_OUT("fanOut"),
+        PRUNING("pruning");
+
+        private final String key;
+
+        Stage(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    /** Four sub-buckets per power of two of microseconds, i.e. at most 25% relative error. */
+    private static final int BUCKETS = 160;
+    private static final DeliveryMetrics DISABLED = new DeliveryMetrics(false);
+
+    private final boolean enabled;
+    private final LongAdder[] stageNanos = new LongAdder[Stage.values().length];
+    private final AtomicLongArray sendLatency = new AtomicLongArray(BUCKETS);
+    private final LongAdder sends = new LongAdder();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    public DeliveryMetrics(boolean enabled) {
+        this.enabled = enabled;
+        for (int i = 0; i < stageNanos.length; i++) {
+            stageNanos[i] = new LongAdder();
+        }
+    }
+
+    public static DeliveryMetrics disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Start time to pass to {@link #stop}; 0 when disabled. */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public void stop(Stage stage, long startNanos) {
+        if (enabled) {
+            stageNanos[stage.ordinal()].add(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Records the outcome of one connection's send, from its first attempt to the final
+     * outcome including retries. {@code errorClass} is null for a delivered send.
+     */
+    public void recordSend(long startNanos, String errorClass) {
+        if (!enabled) {
+            return;
+        }
+        sendLatency.incrementAndGet(bucket((System.nanoTime() - startNanos) / 1000));
+        sends.increment();
+        if (errorClass != null) {
+            errors.computeIfAbsent(errorClass, key -> new LongAdder()).increment();
+        }
+    }
+
+    /** Milliseconds per stage, keyed by {@link Stage#getKey()}. */
+    public Map<String, Double> stageMillis() {
+        Map<String, Double> millis = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            millis.put(stage.getKey(), Math.round(stageNanos[stage.ordinal()].sum() / 1000.0) / 1000.0);
+        }
+        return millis;
+    }
+
+    public long getSends() {
+        return sends.sum();
+    }
+
+    public Map<String, Long> getErrors() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        errors.forEach((errorClass, count) -> counts.put(errorClass, count.sum()));
+        return counts;
+    }
+
+    /** Upper bound, in milliseconds, of the bucket holding the given quantile of send latencies; 0 without sends. */
+    public double sendLatencyMillis(double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += sendLatency.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += sendLatency.get(i);
+            if (seen >= rank) {
+                return upperBoundMicros(i) / 1000.0;
+            }
+        }
+        return upperBoundMicros(BUCKETS - 1) / 1000.0;
+    }
+
+    static int bucket(long micros) {
+        if (micros < 4) {
+            return (int) Math.max(0, micros);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - 2)) & 3;
+        return Math.min(BUCKETS - 1, (exponent - 1) * 4 + sub);
+    }
+
+    static long upperBoundMicros(int bucket) {
+        if (bucket < 4) {
+            return bucket + 1;
+        }
+        int exponent = bucket / 4 + 1;
+        return (long) (4 + bucket % 4 + 1) << (exponent - 2);
+    }
+}
@@ -0,0 +1,57 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.config.NotificationProperties;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.LimitExceededException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry rules for postToConnection, driven by {@code notification.retry.*}: up to
+ * {@code max-attempts} attempts with full-jitter exponential backoff starting at
+ * {@code delay-ms}, never sleeping past the delivery deadline.
+ */
+public class DeliveryRetryPolicy {
+    private static final long MAX_BACKOFF_MS = 20000;
+    private final int maxAttempts;
+    private final long baseDelayMs;
+
+    public DeliveryRetryPolicy(int maxAttempts, long baseDelayMs) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMs = Math.max(1, baseDelayMs);
+    }
+
+    public static DeliveryRetryPolicy fromProperties(NotificationProperties properties) {
+        return new DeliveryRetryPolicy(
+            properties.getInt("notification.retry.max-attempts", 3),
+            properties.getLong("notification.retry.delay-ms", 1000));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /** Backoff before attempt {@code attempt + 1}, drawn uniformly from [0, delay * 2^(attempt - 1)]. */
+    public long backoffMillis(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MS, baseDelayMs << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    public static boolean isThrottle(Exception e) {
+        if (e instanceof LimitExceededException) {
+            return true;
+        }
+        if (e instanceof AwsServiceException) {
+            AwsServiceException serviceException = (AwsServiceException) e;
+            return serviceException.statusCode() == 429 || serviceException.isThrottlingException();
+        }
+        return false;
+    }
+
+    public static boolean isRetryable(Exception e) {
+        if (isThrottle(e) || e instanceof SdkClientException) {
+            return true;
+        }
+        return e instanceof AwsServiceException && ((AwsServiceException) e).statusCode() >= 500;
+    }
+}
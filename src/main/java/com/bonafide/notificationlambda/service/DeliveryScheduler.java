@@ -0,0 +1,111 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.NotificationPriority;
+import lombok.extern.slf4j.Slf4j;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shares the container's send concurrency between notifications by priority. Sends wait
+ * in one queue per {@link NotificationPriority} and are started on virtual threads in
+ * priority order whenever a slot frees up, so a CRITICAL notification overtakes the
+ * queued remainder of a fan-out already in progress. A share of the slots is reserved for
+ * HIGH and CRITICAL, and LOW only runs when no higher priority send is waiting and stays
+ * under its own cap, deferring under load.
+ */
+@Slf4j
+public class DeliveryScheduler {
+    private final int maxInFlight;
+    private final int reservedForHigh;
+    private final int maxLowInFlight;
+    private final Map<NotificationPriority, ArrayDeque<Runnable>> queues = new EnumMap<>(NotificationPriority.class);
+    private final Map<NotificationPriority, Integer> running = new EnumMap<>(NotificationPriority.class);
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private int inFlight;
+
+    public DeliveryScheduler(int maxInFlight, double highReservedShare, double lowMaxShare) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.reservedForHigh = Math.min(this.maxInFlight - 1, (int) Math.floor(this.maxInFlight * highReservedShare));
+        this.maxLowInFlight = Math.max(1, (int) Math.floor(this.maxInFlight * lowMaxShare));
+        for (NotificationPriority priority : NotificationPriority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+            running.put(priority, 0);
+        }
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void submit(NotificationPriority priority, Runnable send) {
+        synchronized (this) {
+            queues.get(priority).add(send);
+        }
+        dispatch();
+    }
+
+    public synchronized Map<NotificationPriority, Integer> queueDepths() {
+        Map<NotificationPriority, Integer> depths = new EnumMap<>(NotificationPriority.class);
+        queues.forEach((priority, queue) -> depths.put(priority, queue.size()));
+        return depths;
+    }
+
+    private void dispatch() {
+        List<Runnable> ready = new ArrayList<>();
+        synchronized (this) {
+            NotificationPriority priority;
+            while ((priority = nextRunnablePriority()) != null) {
+                Runnable send = queues.get(priority).poll();
+                inFlight++;
+                running.merge(priority, 1, Integer::sum);
+                ready.add(wrap(priority, send));
+            }
+        }
+        for (Runnable send : ready) {
+            executor.execute(send);
+        }
+    }
+
+    private NotificationPriority nextRunnablePriority() {
+        if (inFlight >= maxInFlight) {
+            return null;
+        }
+        if (!queues.get(NotificationPriority.CRITICAL).isEmpty()) {
+            return NotificationPriority.CRITICAL;
+        }
+        if (!queues.get(NotificationPriority.HIGH).isEmpty()) {
+            return NotificationPriority.HIGH;
+        }
+        if (inFlight >= maxInFlight - reservedForHigh) {
+            return null;
+        }
+        if (!queues.get(NotificationPriority.MEDIUM).isEmpty()) {
+            return NotificationPriority.MEDIUM;
+        }
+        if (!queues.get(NotificationPriority.LOW).isEmpty() && running.get(NotificationPriority.LOW) < maxLowInFlight) {
+            return NotificationPriority.LOW;
+        }
+        return null;
+    }
+
+    private Runnable wrap(NotificationPriority priority, Runnable send) {
+        return () -> {
+            try {
+                send.run();
+            } catch (RuntimeException e) {
+                log.error("Unhandled error in {} send", priority, e);
+            } finally {
+                synchronized (this) {
+                    inFlight--;
+                    running.merge(priority, -1, Integer::sum);
+                }
+                dispatch();
+            }
+        };
+    }
+}
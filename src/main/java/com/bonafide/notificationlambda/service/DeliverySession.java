@@ -0,0 +1,231 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import com.bonafide.notificationlambda.model.NotificationPriority;
+import com.bonafide.notificationlambda.model.NotificationResult;
+import com.bonafide.notificationlambda.model.NotificationStatus;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiClient;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.GoneException;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.PostToConnectionRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivery of one notification to recipients handed over one at a time while they
+ * are still being resolved. Posts are queued on the shared {@link DeliveryScheduler}
+ * at the notification's priority; at most {@code maxPending} posts of this session are
+ * queued or running, and {@link #deliver} blocks the producer once that limit is
+ * reached. Each post is paced by the shared {@link AdaptiveRateLimiter}, retried per
+ * {@link DeliveryRetryPolicy} and abandoned once the session deadline has passed.
+ * Every post's latency and final outcome is recorded in the session's {@link DeliveryMetrics}.
+ * {@link #deliver} is safe to call from several threads.
+ */
+@Slf4j
+public class DeliverySession {
+    private final ApiGatewayManagementApiClient client;
+    private final SdkBytes payload;
+    private final DeliveryScheduler scheduler;
+    private final NotificationPriority priority;
+    private final int maxPending;
+    private final Semaphore pending;
+    private final long openedAtNanos = System.nanoTime();
+    private final AtomicLong firstDeliveryNanos = new AtomicLong();
+    private final DeliveryRetryPolicy retryPolicy;
+    private final AdaptiveRateLimiter rateLimiter;
+    private final long deadlineNanos;
+    private final DeliveryMetrics metrics;
+    private final AtomicInteger retries = new AtomicInteger();
+    private final AtomicInteger throttled = new AtomicInteger();
+    private final AtomicInteger deadlineExceeded = new AtomicInteger();
+    private final AtomicInteger successful = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final Queue<String> goneConnectionIds = new ConcurrentLinkedQueue<>();
+
+    DeliverySession(ApiGatewayManagementApiClient client, SdkBytes payload, DeliveryScheduler scheduler,
+                    NotificationPriority priority, int maxPending, DeliveryRetryPolicy retryPolicy,
+                    AdaptiveRateLimiter rateLimiter, long deadlineNanos) {
+        this(client, payload, scheduler, priority, maxPending, retryPolicy, rateLimiter, deadlineNanos, DeliveryMetrics.disabled());
+    }
+
+    DeliverySession(ApiGatewayManagementApiClient client, SdkBytes payload, DeliveryScheduler scheduler,
+                    NotificationPriority priority, int maxPending, DeliveryRetryPolicy retryPolicy,
+                    AdaptiveRateLimiter rateLimiter, long deadlineNanos, DeliveryMetrics metrics) {
+        this.client = client;
+        this.metrics = metrics;
+        this.retryPolicy = retryPolicy;
+        this.rateLimiter = rateLimiter;
+        this.deadlineNanos = deadlineNanos;
+        this.payload = payload;
+        this.scheduler = scheduler;
+        this.priority = priority;
+        this.maxPending = Math.max(1, maxPending);
+        this.pending = new Semaphore(this.maxPending);
+    }
+
+    public void deliver(ConnectionRecord connection) {
+        deliver(connection.getConnectionId());
+    }
+
+    /** Delivers to a connection known only by its id, as a broadcast streams them. */
+    public void deliver(String connectionId) {
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.incrementAndGet();
+            metrics.recordSend(metrics.start(), "Interrupted");
+            return;
+        }
+        try {
+            scheduler.submit(priority, () -> {
+                try {
+                    post(connectionId);
+                } finally {
+                    pending.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            pending.release();
+            log.error("Error scheduling send to connection: {}", connectionId, e);
+            failed.incrementAndGet();
+            metrics.recordSend(metrics.start(), "Scheduling");
+        }
+    }
+
+    private void post(String connectionId) {
+        PostToConnectionRequest request = PostToConnectionRequest.builder()
+            .connectionId(connectionId)
+            .data(payload)
+            .build();
+        long start = metrics.start();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (!rateLimiter.acquire(deadlineNanos)) {
+                    log.debug("Delivery deadline reached before sending to connection: {}", connectionId);
+                    deadlineExceeded.incrementAndGet();
+                    failed.incrementAndGet();
+                    metrics.recordSend(start, "DeadlineExceeded");
+                    return;
+                }
+                client.postToConnection(request);
+                rateLimiter.onSuccess();
+                firstDeliveryNanos.compareAndSet(0, System.nanoTime());
+                successful.incrementAndGet();
+                metrics.recordSend(start, null);
+                return;
+            } catch (GoneException e) {
+                log.debug("Stale connection queued for pruning: {}", connectionId);
+                goneConnectionIds.add(connectionId);
+                failed.incrementAndGet();
+                metrics.recordSend(start, "Gone");
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.incrementAndGet();
+                metrics.recordSend(start, "Interrupted");
+                return;
+            } catch (Exception e) {
+                if (DeliveryRetryPolicy.isThrottle(e)) {
+                    rateLimiter.onThrottle();
+                    throttled.incrementAndGet();
+                }
+                if (!DeliveryRetryPolicy.isRetryable(e) || attempt >= retryPolicy.getMaxAttempts() || !backoff(attempt)) {
+                    log.error("Error sending to connection: {} after {} attempts", connectionId, attempt, e);
+                    failed.incrementAndGet();
+                    metrics.recordSend(start, errorClass(e));
+                    return;
+                }
+                retries.incrementAndGet();
+            }
+        }
+    }
+
+    private static String errorClass(Exception e) {
+        if (DeliveryRetryPolicy.isThrottle(e)) {
+            return "Throttled";
+        }
+        if (e instanceof SdkClientException) {
+            return "Network";
+        }
+        if (e instanceof AwsServiceException) {
+            return ((AwsServiceException) e).statusCode() >= 500 ? "ServerError" : "ClientError";
+        }
+        return e.getClass().getSimpleName();
+    }
+
+    /** Sleeps before the next attempt; returns false when the backoff would cross the deadline. */
+    private boolean backoff(int attempt) {
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(retryPolicy.backoffMillis(attempt));
+        if (System.nanoTime() + delayNanos - deadlineNanos > 0) {
+            return false;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(delayNanos);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Waits for every outstanding post and aggregates the exact sent/failed counts. */
+    public NotificationResult complete() {
+        pending.acquireUninterruptibly(maxPending);
+        pending.release(maxPending);
+        if (retries.get() > 0 || throttled.get() > 0) {
+            log.info("Delivery retried {} sends, {} throttled, send rate now {}/s",
+                retries.get(), throttled.get(), String.format("%.1f", rateLimiter.currentRate()));
+        }
+        if (deadlineExceeded.get() > 0 || !goneConnectionIds.isEmpty()) {
+            log.warn("Delivery left {} connections unattempted at the deadline, {} stale connections queued for pruning",
+                deadlineExceeded.get(), goneConnectionIds.size());
+        }
+        int sent = successful.get();
+        int notSent = failed.get();
+        int total = sent + notSent;
+        long firstDelivery = firstDeliveryNanos.get();
+        if (total == 0) {
+            return NotificationResult.builder()
+                .status("NO_RECIPIENTS")
+                .sent(0)
+                .failed(0)
+                .totalRecipients(0)
+                .message("No eligible recipients found")
+                .priority(priority.name())
+                .build();
+        }
+        return NotificationResult.builder()
+            .status(status(sent, notSent).name())
+            .sent(sent)
+            .failed(notSent)
+            .totalRecipients(total)
+            .message(deadlineExceeded.get() > 0
+                ? String.format("Sent to %d/%d connections (%d not attempted before the deadline)", sent, total, deadlineExceeded.get())
+                : String.format("Sent to %d/%d connections", sent, total))
+            .priority(priority.name())
+            .timeToFirstDeliveryMs(firstDelivery != 0 ? (firstDelivery - openedAtNanos) / 1_000_000 : null)
+            .build();
+    }
+
+    /** Connections that answered GoneException; complete once {@link #complete()} has returned. */
+    public List<String> getGoneConnectionIds() {
+        return new ArrayList<>(goneConnectionIds);
+    }
+
+    private static NotificationStatus status(int sent, int failed) {
+        if (sent == 0) {
+            return NotificationStatus.FAILED;
+        }
+        return failed == 0 ? NotificationStatus.SENT : NotificationStatus.PARTIAL;
+    }
+}
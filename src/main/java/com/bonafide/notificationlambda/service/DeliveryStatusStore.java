@@ -0,0 +1,162 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.DeliveryAggregate;
+import com.bonafide.notificationlambda.model.NotificationPriority;
+import com.bonafide.notificationlambda.model.NotificationRequest;
+import com.bonafide.notificationlambda.model.NotificationResult;
+import com.bonafide.notificationlambda.model.NotificationStatus;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Completion aggregates of asynchronous fan-outs, one item per notification id in the
+ * status table. Each shard adds its counts together with its shard number, conditioned on
+ * the number not having been added yet, so a worker invocation retried by Lambda never
+ * counts a shard twice. Items expire {@code ttlSeconds} after creation.
+ */
+@Slf4j
+public class DeliveryStatusStore {
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final long ttlSeconds;
+
+    public DeliveryStatusStore(DynamoDbClient dynamoDbClient, String tableName, long ttlSeconds) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public DeliveryAggregate create(String notificationId, NotificationRequest notification, int totalShards) {
+        long now = Instant.now().getEpochSecond();
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("notificationId", s(notificationId));
+        item.put("type", s(notification.getType() != null ? notification.getType() : "UNKNOWN"));
+        item.put("priority", s(NotificationPriority.from(notification.getPriority()).name()));
+        item.put("totalShards", n(totalShards));
+        item.put("completedShards", n(0));
+        item.put("failedShards", n(0));
+        item.put("sent", n(0));
+        item.put("failed", n(0));
+        item.put("totalRecipients", n(0));
+        item.put("createdAt", n(now));
+        item.put("updatedAt", n(now));
+        item.put("expiresAt", n(now + ttlSeconds));
+        dynamoDbClient.putItem(PutItemRequest.builder()
+            .tableName(tableName)
+            .item(item)
+            .conditionExpression("attribute_not_exists(notificationId)")
+            .build());
+        return toAggregate(item);
+    }
+
+    /**
+     * Adds a shard's result; a FAILED result also counts as a failed shard. Returns false
+     * when the shard had already been recorded.
+     */
+    public boolean recordShard(String notificationId, int shard, NotificationResult result) {
+        try {
+            dynamoDbClient.updateItem(UpdateItemRequest.builder()
+                .tableName(tableName)
+                .key(Map.of("notificationId", s(notificationId)))
+                .updateExpression("SET updatedAt = :now ADD completedShards :one, failedShards :shardFailed, sent :sent, failed :failed, "
+                    + "totalRecipients :recipients, shardsDone :shard")
+                .conditionExpression("attribute_exists(notificationId) AND NOT contains(shardsDone, :shardNumber)")
+                .expressionAttributeValues(Map.of(
+                    ":now", n(Instant.now().getEpochSecond()),
+                    ":one", n(1),
+                    ":shardFailed", n(NotificationStatus.FAILED.name().equals(result.getStatus()) ? 1 : 0),
+                    ":sent", n(result.getSent()),
+                    ":failed", n(result.getFailed()),
+                    ":recipients", n(result.getTotalRecipients()),
+                    ":shard", AttributeValue.builder().ns(String.valueOf(shard)).build(),
+                    ":shardNumber", n(shard)))
+                .build());
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            log.warn("Shard {} of notification {} already recorded or notification unknown", shard, notificationId);
+            return false;
+        }
+    }
+
+    /** True when the shard's result has already been added, e.g. before Lambda retried its worker. */
+    public boolean isShardRecorded(String notificationId, int shard) {
+        GetItemResponse response = dynamoDbClient.getItem(GetItemRequest.builder()
+            .tableName(tableName)
+            .key(Map.of("notificationId", s(notificationId)))
+            .projectionExpression("shardsDone")
+            .consistentRead(true)
+            .build());
+        AttributeValue shardsDone = response.hasItem() ? response.item().get("shardsDone") : null;
+        return shardsDone != null && shardsDone.hasNs() && shardsDone.ns().contains(String.valueOf(shard));
+    }
+
+    /** The aggregate, or null when the id is unknown or has expired. */
+    public DeliveryAggregate get(String notificationId) {
+        GetItemResponse response = dynamoDbClient.getItem(GetItemRequest.builder()
+            .tableName(tableName)
+            .key(Map.of("notificationId", s(notificationId)))
+            .consistentRead(true)
+            .build());
+        return response.hasItem() && !response.item().isEmpty() ? toAggregate(response.item()) : null;
+    }
+
+    private static DeliveryAggregate toAggregate(Map<String, AttributeValue> item) {
+        int totalShards = intValue(item, "totalShards");
+        int completedShards = intValue(item, "completedShards");
+        int failedShards = intValue(item, "failedShards");
+        int sent = intValue(item, "sent");
+        int failed = intValue(item, "failed");
+        return DeliveryAggregate.builder()
+            .notificationId(item.get("notificationId").s())
+            .status(status(totalShards, completedShards, failedShards, sent, failed))
+            .type(item.containsKey("type") ? item.get("type").s() : null)
+            .priority(item.containsKey("priority") ? item.get("priority").s() : null)
+            .totalShards(totalShards)
+            .completedShards(completedShards)
+            .failedShards(failedShards)
+            .sent(sent)
+            .failed(failed)
+            .totalRecipients(intValue(item, "totalRecipients"))
+            .createdAt(item.containsKey("createdAt") ? Long.parseLong(item.get("createdAt").n()) : 0)
+            .updatedAt(item.containsKey("updatedAt") ? Long.parseLong(item.get("updatedAt").n()) : 0)
+            .build();
+    }
+
+    private static String status(int totalShards, int completedShards, int failedShards, int sent, int failed) {
+        if (completedShards < totalShards) {
+            return NotificationStatus.IN_PROGRESS.name();
+        }
+        if (failedShards > 0) {
+            return sent > 0 ? NotificationStatus.PARTIAL.name() : NotificationStatus.FAILED.name();
+        }
+        if (sent + failed == 0) {
+            return "NO_RECIPIENTS";
+        }
+        if (sent == 0) {
+            return NotificationStatus.FAILED.name();
+        }
+        return failed == 0 ? NotificationStatus.SENT.name() : NotificationStatus.PARTIAL.name();
+    }
+
+    private static int intValue(Map<String, AttributeValue> item, String name) {
+        AttributeValue value = item.get(name);
+        return value != null && value.n() != null ? Integer.parseInt(value.n()) : 0;
+    }
+
+    private static AttributeValue s(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+
+    private static AttributeValue n(long value) {
+        return AttributeValue.builder().n(String.valueOf(value)).build();
+    }
+}
@@ -0,0 +1,181 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.config.NotificationProperties;
+import com.bonafide.notificationlambda.model.NotificationPriority;
+import com.bonafide.notificationlambda.model.NotificationRequest;
+import com.bonafide.notificationlambda.model.NotificationResult;
+import com.bonafide.notificationlambda.model.NotificationStatus;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Merges bursts within a batch send into digest frames. Notifications of the same type
+ * and priority whose timestamps lie within the pair's window of the first of them form a
+ * group, and a connection eligible for several notifications of a group receives them as
+ * one {@code NOTIFICATION_DIGEST} frame instead of one frame each. The window is taken
+ * from {@code notification.digest.window-ms.type.<TYPE>}, then
+ * {@code notification.digest.window-ms.priority.<PRIORITY>}, then
+ * {@code notification.digest.window-ms}; 0 disables coalescing. CRITICAL is never coalesced.
+ */
+public class DigestCoalescer {
+    private final NotificationProperties properties;
+    private final long defaultWindowMillis;
+    private final Map<String, Long> windows = new ConcurrentHashMap<>();
+
+    public DigestCoalescer(NotificationProperties properties) {
+        this.properties = properties;
+        this.defaultWindowMillis = properties.getLong("notification.digest.window-ms", 2000);
+    }
+
+    public static DigestCoalescer fromProperties(NotificationProperties properties) {
+        return properties.getBoolean("notification.digest.enabled", true) ? new DigestCoalescer(properties) : null;
+    }
+
+    /** Groups the batch; the returned batch is empty when no two notifications coalesce. */
+    public Batch plan(List<NotificationRequest> notifications) {
+        Map<String, List<Integer>> candidates = new LinkedHashMap<>();
+        for (int i = 0; i < notifications.size(); i++) {
+            NotificationRequest notification = notifications.get(i);
+            NotificationPriority priority = NotificationPriority.from(notification.getPriority());
+            if (priority != NotificationPriority.CRITICAL && windowMillis(notification.getType(), priority) > 0) {
+                candidates.computeIfAbsent(notification.getType() + "|" + priority, key -> new ArrayList<>()).add(i);
+            }
+        }
+        int[] groups = new int[notifications.size()];
+        Arrays.fill(groups, -1);
+        int groupCount = 0;
+        for (List<Integer> members : candidates.values()) {
+            NotificationRequest first = notifications.get(members.get(0));
+            long window = windowMillis(first.getType(), NotificationPriority.from(first.getPriority()));
+            members.sort(Comparator.comparingLong(i -> notifications.get(i).getTimestamp()));
+            List<Integer> current = new ArrayList<>();
+            long startedAt = 0;
+            for (int i : members) {
+                long timestamp = notifications.get(i).getTimestamp();
+                if (!current.isEmpty() && (timestamp - startedAt) * 1000 > window) {
+                    groupCount = assign(current, groups, groupCount);
+                    current = new ArrayList<>();
+                }
+                if (current.isEmpty()) {
+                    startedAt = timestamp;
+                }
+                current.add(i);
+            }
+            groupCount = assign(current, groups, groupCount);
+        }
+        return new Batch(notifications, groups, groupCount > 0);
+    }
+
+    /** Combines a notification's own frames with the digest frames that carried it. */
+    public static NotificationResult merge(NotificationResult own, NotificationResult digest) {
+        int sent = own.getSent() + digest.getSent();
+        int failed = own.getFailed() + digest.getFailed();
+        int total = sent + failed;
+        Long firstDelivery = own.getTimeToFirstDeliveryMs() == null ? digest.getTimeToFirstDeliveryMs()
+            : digest.getTimeToFirstDeliveryMs() == null ? own.getTimeToFirstDeliveryMs()
+            : Long.valueOf(Math.min(own.getTimeToFirstDeliveryMs(), digest.getTimeToFirstDeliveryMs()));
+        String status = total == 0 ? "NO_RECIPIENTS"
+            : sent == 0 ? NotificationStatus.FAILED.name()
+            : failed == 0 ? NotificationStatus.SENT.name() : NotificationStatus.PARTIAL.name();
+        return NotificationResult.builder()
+            .status(status)
+            .sent(sent)
+            .failed(failed)
+            .totalRecipients(total)
+            .message(total == 0 ? own.getMessage()
+                : String.format("Sent to %d/%d connections (%d in digest frames)", sent, total, digest.getTotalRecipients()))
+            .priority(own.getPriority())
+            .timeToFirstDeliveryMs(firstDelivery)
+            .build();
+    }
+
+    private long windowMillis(String type, NotificationPriority priority) {
+        return windows.computeIfAbsent(type + "|" + priority, key -> properties.getLong(
+            "notification.digest.window-ms.type." + type,
+            properties.getLong("notification.digest.window-ms.priority." + priority.name(), defaultWindowMillis)));
+    }
+
+    private static int assign(List<Integer> members, int[] groups, int groupCount) {
+        if (members.size() < 2) {
+            return groupCount;
+        }
+        for (int i : members) {
+            groups[i] = groupCount;
+        }
+        return groupCount + 1;
+    }
+
+    /**
+     * A planned batch. Connections eligible for coalesced notifications are collected with
+     * {@link #add} while recipients are resolved, and sent once resolution is over by
+     * {@link #deliver}, which opens one digest session per distinct set of notifications.
+     */
+    public static final class Batch {
+        private final List<NotificationRequest> notifications;
+        private final int[] groups;
+        private final boolean coalescing;
+        private final Map<String, BitSet> pending = new ConcurrentHashMap<>();
+        private final Map<BitSet, DeliverySession> digestSessions = new LinkedHashMap<>();
+
+        private Batch(List<NotificationRequest> notifications, int[] groups, boolean coalescing) {
+            this.notifications = notifications;
+            this.groups = groups;
+            this.coalescing = coalescing;
+        }
+
+        public boolean isCoalesced(int notification) {
+            return coalescing && groups[notification] >= 0;
+        }
+
+        /** Records that the connection is eligible for a coalesced notification; safe to call concurrently. */
+        public void add(String connectionId, int notification) {
+            BitSet eligible = pending.computeIfAbsent(connectionId, key -> new BitSet());
+            synchronized (eligible) {
+                eligible.set(notification);
+            }
+        }
+
+        /**
+         * Sends what was collected: a notification that is the only one of its group for a
+         * connection goes through that notification's own session, several go as a digest.
+         */
+        public void deliver(IntFunction<DeliverySession> ownSession, Function<List<NotificationRequest>, DeliverySession> digestSession) {
+            for (Map.Entry<String, BitSet> entry : pending.entrySet()) {
+                Map<Integer, BitSet> byGroup = new LinkedHashMap<>();
+                BitSet eligible = entry.getValue();
+                for (int i = eligible.nextSetBit(0); i >= 0; i = eligible.nextSetBit(i + 1)) {
+                    byGroup.computeIfAbsent(groups[i], group -> new BitSet()).set(i);
+                }
+                for (BitSet members : byGroup.values()) {
+                    if (members.cardinality() == 1) {
+                        ownSession.apply(members.nextSetBit(0)).deliver(entry.getKey());
+                    } else {
+                        digestSessions.computeIfAbsent(members, key -> digestSession.apply(members(key))).deliver(entry.getKey());
+                    }
+                }
+            }
+            pending.clear();
+        }
+
+        /** Digest sessions opened by {@link #deliver}, keyed by the positions of the notifications they carry. */
+        public Map<BitSet, DeliverySession> getDigestSessions() {
+            return digestSessions;
+        }
+
+        private List<NotificationRequest> members(BitSet positions) {
+            List<NotificationRequest> members = new ArrayList<>(positions.cardinality());
+            for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+                members.add(notifications.get(i));
+            }
+            return members;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bitmap index over the connections held by the {@link ConnectionRegistry}. Connections
+ * get dense ordinals, reused after removal, and every user id, role, team and topic is
+ * interned into an attribute id owning an {@link OrdinalBitmap} of the connections that
+ * carry it. {@link #match} ORs the bitmaps of the attributes an {@link EligibilityQuery}
+ * targets into one bitset over the ordinal space and reads the eligible connections off
+ * its set bits, so no connection's attributes are compared one by one.
+ */
+public class EligibilityIndex {
+    private static final int USER = 0;
+    private static final int ROLE = 1;
+    private static final int TEAM = 2;
+    private static final int TOPIC = 3;
+    private static final int[] NO_ATTRIBUTES = new int[0];
+
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private ConnectionRecord[] records = new ConnectionRecord[16];
+    private int[][] attributesByOrdinal = new int[16][];
+    private int[] freeOrdinals = new int[16];
+    private int freeCount;
+    private int ordinalLimit;
+
+    private final List<Map<String, Integer>> attributeIds = List.of(new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>());
+    private OrdinalBitmap[] bitmaps = new OrdinalBitmap[16];
+    private String[] attributeNames = new String[16];
+    private int[] attributeKinds = new int[16];
+    private int[] freeAttributeIds = new int[16];
+    private int freeAttributeCount;
+    private int attributeLimit;
+
+    /** Adds or replaces the connection; a change of lastSeen alone leaves the bitmaps untouched. */
+    public synchronized void put(ConnectionRecord connection) {
+        Integer existing = ordinals.get(connection.getConnectionId());
+        if (existing != null) {
+            if (sameAttributes(records[existing], connection)) {
+                records[existing] = connection;
+                return;
+            }
+            unindex(existing);
+        }
+        int ordinal = existing != null ? existing : allocateOrdinal();
+        ordinals.put(connection.getConnectionId(), ordinal);
+        records[ordinal] = connection;
+        List<Integer> attributes = new ArrayList<>();
+        attributes.add(attribute(USER, connection.getUserId()));
+        addAll(attributes, ROLE, connection.getRoles());
+        addAll(attributes, TEAM, connection.getTeams());
+        addAll(attributes, TOPIC, connection.getSubscribedTopics());
+        int[] ids = new int[attributes.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = attributes.get(i);
+            bitmaps[ids[i]].add(ordinal);
+        }
+        attributesByOrdinal[ordinal] = ids;
+    }
+
+    public synchronized void remove(String connectionId) {
+        Integer ordinal = ordinals.remove(connectionId);
+        if (ordinal == null) {
+            return;
+        }
+        unindex(ordinal);
+        records[ordinal] = null;
+        if (freeCount == freeOrdinals.length) {
+            freeOrdinals = Arrays.copyOf(freeOrdinals, freeCount * 2);
+        }
+        freeOrdinals[freeCount++] = ordinal;
+    }
+
+    public synchronized void clear() {
+        ordinals.clear();
+        records = new ConnectionRecord[16];
+        attributesByOrdinal = new int[16][];
+        freeCount = 0;
+        ordinalLimit = 0;
+        for (Map<String, Integer> ids : attributeIds) {
+            ids.clear();
+        }
+        bitmaps = new OrdinalBitmap[16];
+        attributeNames = new String[16];
+        attributeKinds = new int[16];
+        freeAttributeCount = 0;
+        attributeLimit = 0;
+    }
+
+    public synchronized int size() {
+        return ordinals.size();
+    }
+
+    /** Number of interned user ids, roles, teams and topics. */
+    public synchronized int attributeCount() {
+        return attributeLimit - freeAttributeCount;
+    }
+
+    /** The connections eligible for the query. */
+    public synchronized List<ConnectionRecord> match(EligibilityQuery query) {
+        long[] words = new long[(ordinalLimit + 63) >>> 6];
+        orInto(words, USER, query.getUsers());
+        orInto(words, ROLE, query.getRoles());
+        orInto(words, TEAM, query.getTeams());
+        orInto(words, TOPIC, query.getTopics());
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        List<ConnectionRecord> eligible = new ArrayList<>(count);
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            while (word != 0) {
+                eligible.add(records[(i << 6) + Long.numberOfTrailingZeros(word)]);
+                word &= word - 1;
+            }
+        }
+        return eligible;
+    }
+
+    private void orInto(long[] words, int kind, Collection<String> values) {
+        for (String value : values) {
+            Integer id = attributeIds.get(kind).get(value);
+            if (id != null) {
+                bitmaps[id].orInto(words);
+            }
+        }
+    }
+
+    private void unindex(int ordinal) {
+        for (int id : attributesByOrdinal[ordinal]) {
+            bitmaps[id].remove(ordinal);
+            if (bitmaps[id].isEmpty()) {
+                releaseAttribute(id);
+            }
+        }
+        attributesByOrdinal[ordinal] = NO_ATTRIBUTES;
+    }
+
+    private int allocateOrdinal() {
+        if (freeCount > 0) {
+            return freeOrdinals[--freeCount];
+        }
+        if (ordinalLimit == records.length) {
+            records = Arrays.copyOf(records, ordinalLimit * 2);
+            attributesByOrdinal = Arrays.copyOf(attributesByOrdinal, ordinalLimit * 2);
+        }
+        return ordinalLimit++;
+    }
+
+    private void addAll(List<Integer> attributes, int kind, List<String> values) {
+        if (values == null) {
+            return;
+        }
+        for (String value : values) {
+            int id = attribute(kind, value);
+            if (!attributes.contains(id)) {
+                attributes.add(id);
+            }
+        }
+    }
+
+    /** Interns the attribute, allocating an id and an empty bitmap on first sight. */
+    private int attribute(int kind, String value) {
+        Integer id = attributeIds.get(kind).get(value);
+        if (id != null) {
+            return id;
+        }
+        int allocated;
+        if (freeAttributeCount > 0) {
+            allocated = freeAttributeIds[--freeAttributeCount];
+        } else {
+            if (attributeLimit == bitmaps.length) {
+                bitmaps = Arrays.copyOf(bitmaps, attributeLimit * 2);
+                attributeNames = Arrays.copyOf(attributeNames, attributeLimit * 2);
+                attributeKinds = Arrays.copyOf(attributeKinds, attributeLimit * 2);
+            }
+            allocated = attributeLimit++;
+        }
+        bitmaps[allocated] = new OrdinalBitmap();
+        attributeNames[allocated] = value;
+        attributeKinds[allocated] = kind;
+        attributeIds.get(kind).put(value, allocated);
+        return allocated;
+    }
+
+    private void releaseAttribute(int id) {
+        attributeIds.get(attributeKinds[id]).remove(attributeNames[id]);
+        bitmaps[id] = null;
+        attributeNames[id] = null;
+        if (freeAttributeCount == freeAttributeIds.length) {
+            freeAttributeIds = Arrays.copyOf(freeAttributeIds, freeAttributeCount * 2);
+        }
+        freeAttributeIds[freeAttributeCount++] = id;
+    }
+
+    private static boolean sameAttributes(ConnectionRecord indexed, ConnectionRecord connection) {
+        return Objects.equals(indexed.getUserId(), connection.getUserId())
+            && Objects.equals(indexed.getRoles(), connection.getRoles())
+            && Objects.equals(indexed.getTeams(), connection.getTeams())
+            && Objects.equals(indexed.getSubscribedTopics(), connection.getSubscribedTopics());
+    }
+}
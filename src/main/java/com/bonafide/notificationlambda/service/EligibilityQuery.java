@@ -0,0 +1,82 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import com.bonafide.notificationlambda.model.NotificationRequest;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A notification's eligibility rule compiled once per send: a connection is eligible when
+ * its user is targeted or owns the process, or any of its roles, teams or topics is
+ * targeted, where a notification targets its own type and ALL as topics. The connection
+ * scan applies the same rule, evaluated either per connection by hash lookups or by
+ * {@link EligibilityIndex} as an OR over attribute bitmaps.
+ */
+public final class EligibilityQuery {
+    static final String ALL_TOPICS = "ALL";
+
+    private final Set<String> users;
+    private final Set<String> roles;
+    private final Set<String> teams;
+    private final Set<String> topics;
+
+    private EligibilityQuery(Set<String> users, Set<String> roles, Set<String> teams, Set<String> topics) {
+        this.users = users;
+        this.roles = roles;
+        this.teams = teams;
+        this.topics = topics;
+    }
+
+    public static EligibilityQuery compile(NotificationRequest notification) {
+        Set<String> users = toSet(notification.getTargetUsers());
+        if (notification.getProcessOwnerId() != null) {
+            users.add(notification.getProcessOwnerId());
+        }
+        Set<String> topics = new HashSet<>();
+        if (notification.getType() != null) {
+            topics.add(notification.getType());
+        }
+        topics.add(ALL_TOPICS);
+        return new EligibilityQuery(users, toSet(notification.getRequiredRoles()), toSet(notification.getTargetTeams()), topics);
+    }
+
+    public boolean matches(ConnectionRecord connection) {
+        return users.contains(connection.getUserId())
+            || containsAny(roles, connection.getRoles())
+            || containsAny(teams, connection.getTeams())
+            || containsAny(topics, connection.getSubscribedTopics());
+    }
+
+    Set<String> getUsers() {
+        return users;
+    }
+
+    Set<String> getRoles() {
+        return roles;
+    }
+
+    Set<String> getTeams() {
+        return teams;
+    }
+
+    Set<String> getTopics() {
+        return topics;
+    }
+
+    private static boolean containsAny(Set<String> targeted, List<String> values) {
+        if (targeted.isEmpty() || values == null) {
+            return false;
+        }
+        for (String value : values) {
+            if (targeted.contains(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<String> toSet(List<String> values) {
+        return values != null ? new HashSet<>(values) : new HashSet<>();
+    }
+}
@@ -0,0 +1,123 @@
+package com.bonafide.notificationlambda.service;
+
+import lombok.extern.slf4j.Slf4j;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind buffer for heartbeats. A heartbeat is dropped when this container
+ * recorded one for the same connection within the freshness window; accepted ones are
+ * buffered and flushed together once the buffer is full or its oldest entry reaches the
+ * flush interval, so write volume follows the freshness window instead of the client's
+ * heartbeat rate.
+ */
+@Slf4j
+public class HeartbeatCoalescer {
+    /** Writes one buffered heartbeat; returns false when the stored item was already fresh. */
+    @FunctionalInterface
+    public interface HeartbeatWriter {
+        boolean write(String connectionId, long lastSeen, long staleBefore);
+    }
+
+    private final HeartbeatWriter writer;
+    private final long freshnessWindowSeconds;
+    private final long flushIntervalMillis;
+    private final int maxBuffered;
+    private final Map<String, Long> lastRecorded;
+    private final Map<String, Long> pending = new ConcurrentHashMap<>();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong skippedFresh = new AtomicLong();
+    private volatile long oldestPendingAt;
+
+    public HeartbeatCoalescer(HeartbeatWriter writer, long freshnessWindowSeconds, long flushIntervalMillis,
+                              int maxBuffered, int maxTracked) {
+        this.writer = writer;
+        this.freshnessWindowSeconds = freshnessWindowSeconds;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.maxBuffered = Math.max(1, maxBuffered);
+        this.lastRecorded = java.util.Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxTracked;
+            }
+        });
+    }
+
+    /** Returns true when the heartbeat was accepted into the buffer. */
+    public boolean record(String connectionId, long now) {
+        received.incrementAndGet();
+        Long previous = lastRecorded.get(connectionId);
+        if (previous != null && now - previous < freshnessWindowSeconds) {
+            coalesced.incrementAndGet();
+            return false;
+        }
+        lastRecorded.put(connectionId, now);
+        if (pending.isEmpty()) {
+            oldestPendingAt = System.currentTimeMillis();
+        }
+        pending.put(connectionId, now);
+        if (pending.size() >= maxBuffered) {
+            flush();
+        }
+        return true;
+    }
+
+    public void forget(String connectionId) {
+        lastRecorded.remove(connectionId);
+        pending.remove(connectionId);
+    }
+
+    /** Flushes the buffer if it is due; called at the end of every invocation before the container freezes. */
+    public void flushIfDue() {
+        if (!pending.isEmpty() && System.currentTimeMillis() - oldestPendingAt >= flushIntervalMillis) {
+            flush();
+        }
+    }
+
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<String, Long>> batch = new ArrayList<>(pending.entrySet());
+        batch.forEach(entry -> pending.remove(entry.getKey(), entry.getValue()));
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Boolean>> writes = new ArrayList<>(batch.size());
+            for (Map.Entry<String, Long> entry : batch) {
+                writes.add(executor.submit(() ->
+                    writer.write(entry.getKey(), entry.getValue(), entry.getValue() - freshnessWindowSeconds)));
+            }
+            for (Future<Boolean> write : writes) {
+                try {
+                    if (write.get()) {
+                        written.incrementAndGet();
+                    } else {
+                        skippedFresh.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    log.error("Error flushing heartbeat", e);
+                }
+            }
+        }
+        log.info("Flushed {} heartbeats ({} received, {} coalesced, {} written, {} already fresh)",
+            batch.size(), received.get(), coalesced.get(), written.get(), skippedFresh.get());
+    }
+
+    public Map<String, Object> stats() {
+        return Map.of(
+            "received", received.get(),
+            "coalesced", coalesced.get(),
+            "written", written.get(),
+            "skippedFresh", skippedFresh.get(),
+            "buffered", pending.size()
+        );
+    }
+}
@@ -1,34 +1,85 @@
 package com.bonafide.notificationlambda.service;
 
+import com.bonafide.notificationlambda.config.JsonMappers;
+import com.bonafide.notificationlambda.config.LazyComponent;
+import com.bonafide.notificationlambda.model.ConnectionPage;
+import com.bonafide.notificationlambda.model.ConnectionQuery;
 import com.bonafide.notificationlambda.model.ConnectionRecord;
+import com.bonafide.notificationlambda.model.DeliveryAggregate;
 import com.bonafide.notificationlambda.model.NotificationRequest;
 import com.bonafide.notificationlambda.model.NotificationResult;
+import com.bonafide.notificationlambda.model.NotificationStatus;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Supplier;
 
 @Slf4j
 public class HttpApiService {
-    private final NotificationService notificationService;
-    private final ConnectionService connectionService;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String DELIVERIES_PATH = "/api/notifications/deliveries/";
+    private static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+    private final Supplier<NotificationService> notificationService;
+    private final Supplier<ConnectionService> connectionService;
+    private final Supplier<ShardedFanout> shardedFanout;
+    private final boolean asyncByDefault;
+    private final ObjectMapper objectMapper = JsonMappers.shared();
 
     public HttpApiService(NotificationService notificationService, ConnectionService connectionService) {
+        this(() -> notificationService, () -> connectionService);
+    }
+
+    /** Services are resolved per request, so routes such as /health never build the delivery stack. */
+    public HttpApiService(Supplier<NotificationService> notificationService, Supplier<ConnectionService> connectionService) {
+        this(notificationService, connectionService, () -> null, false);
+    }
+
+    /**
+     * With a fan-out supplying non-null, {@code POST /send} hands the notification to it and
+     * answers 202 when {@code asyncByDefault} is set or the request passes {@code async=true}.
+     */
+    public HttpApiService(Supplier<NotificationService> notificationService, Supplier<ConnectionService> connectionService,
+                          Supplier<ShardedFanout> shardedFanout, boolean asyncByDefault) {
         this.notificationService = notificationService;
         this.connectionService = connectionService;
+        this.shardedFanout = shardedFanout;
+        this.asyncByDefault = asyncByDefault;
     }
 
+    /** Routes with the default notification timeout as deadline, without building the delivery stack for it. */
     public Map<String, Object> handleRequest(String method, String path, Map<String, Object> event) {
+        return handleRequest(method, path, event, System.currentTimeMillis() + DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    public Map<String, Object> handleRequest(String method, String path, Map<String, Object> event, long deadlineMillis) {
+        Map<String, String> params = new HashMap<>();
+        if (event.get("queryStringParameters") instanceof Map<?, ?> query) {
+            query.forEach((name, value) -> params.put(name.toString(), value != null ? value.toString() : null));
+        }
+        return handleRequest(method, path, (String) event.get("body"), params, deadlineMillis);
+    }
+
+    /** Routes a request whose body and query parameters have already been extracted from the event. */
+    public Map<String, Object> handleRequest(String method, String path, String body, Map<String, String> params,
+                                             long deadlineMillis) {
         try {
             if ("POST".equals(method) && "/api/notifications/send".equals(path)) {
-                return handleSendNotification(event);
+                String async = params.get("async");
+                if (async != null ? Boolean.parseBoolean(async) : asyncByDefault) {
+                    return handleSubmitNotification(body);
+                }
+                return handleSendNotification(body, deadlineMillis);
+            } else if ("POST".equals(method) && "/api/notifications/send-batch".equals(path)) {
+                return handleSendNotificationBatch(body, deadlineMillis);
             } else if ("GET".equals(method) && "/api/notifications/metrics".equals(path)) {
-                return handleGetMetrics(event);
+                return handleGetMetrics();
             } else if ("GET".equals(method) && "/api/notifications/health".equals(path)) {
-                return handleHealthCheck(event);
+                return handleHealthCheck();
             } else if ("GET".equals(method) && "/api/notifications/connections".equals(path)) {
-                return handleGetConnections(event);
+                return handleGetConnections(params);
+            } else if ("GET".equals(method) && path != null && path.startsWith(DELIVERIES_PATH)) {
+                return handleGetDelivery(path.substring(DELIVERIES_PATH.length()));
             } else {
                 return createJsonResponse(404, Map.of("error", "Not found: " + method + " " + path));
             }
@@ -38,17 +89,69 @@ public class HttpApiService {
         }
     }
 
-    private Map<String, Object> handleSendNotification(Map<String, Object> event) throws Exception {
-        String body = (String) event.get("body");
+    private Map<String, Object> handleSendNotification(String body, long deadlineMillis) throws Exception {
         NotificationRequest request = objectMapper.readValue(body, NotificationRequest.class);
-        NotificationResult result = notificationService.sendNotification(request);
-        return createJsonResponse(200, Map.of(
+        NotificationResult result = notificationService.get().sendNotification(request, deadlineMillis);
+        Map<String, Object> response = new LinkedHashMap<>(Map.of(
             "status", result.getStatus(),
             "sent", result.getSent(),
             "failed", result.getFailed(),
             "totalRecipients", result.getTotalRecipients(),
             "message", result.getMessage()
         ));
+        if (result.getPriority() != null) {
+            response.put("priority", result.getPriority());
+        }
+        if (result.getTimeToFirstDeliveryMs() != null) {
+            response.put("timeToFirstDeliveryMs", result.getTimeToFirstDeliveryMs());
+        }
+        if (result.getDuplicate() != null) {
+            response.put("duplicate", result.getDuplicate());
+        }
+        return createJsonResponse(NotificationStatus.IN_PROGRESS.name().equals(result.getStatus()) ? 202 : 200, response);
+    }
+
+    private Map<String, Object> handleSubmitNotification(String body) throws Exception {
+        ShardedFanout fanout = shardedFanout.get();
+        if (fanout == null) {
+            return createJsonResponse(400, Map.of("error", "Asynchronous delivery is not configured"));
+        }
+        NotificationRequest request = objectMapper.readValue(body, NotificationRequest.class);
+        DeliveryAggregate aggregate = fanout.submit(request);
+        return createJsonResponse(202, Map.of(
+            "notificationId", aggregate.getNotificationId(),
+            "status", aggregate.getStatus(),
+            "totalShards", aggregate.getTotalShards(),
+            "statusUrl", DELIVERIES_PATH + aggregate.getNotificationId()
+        ));
+    }
+
+    private Map<String, Object> handleGetDelivery(String notificationId) {
+        ShardedFanout fanout = shardedFanout.get();
+        if (fanout == null) {
+            return createJsonResponse(400, Map.of("error", "Asynchronous delivery is not configured"));
+        }
+        DeliveryAggregate aggregate = notificationId.isBlank() ? null : fanout.getDelivery(notificationId);
+        if (aggregate == null) {
+            return createJsonResponse(404, Map.of("error", "Unknown notification: " + notificationId));
+        }
+        return createJsonResponse(200, aggregate);
+    }
+
+    private Map<String, Object> handleSendNotificationBatch(String body, long deadlineMillis) throws Exception {
+        JsonNode notifications = objectMapper.readTree(body).path("notifications");
+        if (!notifications.isArray()) {
+            return createJsonResponse(400, Map.of("error", "Body must contain a notifications array"));
+        }
+        List<NotificationRequest> requests = new ArrayList<>();
+        for (JsonNode notification : notifications) {
+            requests.add(objectMapper.treeToValue(notification, NotificationRequest.class));
+        }
+        List<NotificationResult> results = notificationService.get().sendNotifications(requests, deadlineMillis);
+        return createJsonResponse(200, Map.of(
+            "count", results.size(),
+            "results", results
+        ));
     }
 
     private Map<String, Object> createJsonResponse(int statusCode, Object body) {
@@ -66,19 +169,37 @@ public class HttpApiService {
         }
     }
 
-    private Map<String, Object> handleGetMetrics(Map<String, Object> event) {
-        List<ConnectionRecord> connections = connectionService.getAllConnections();
+    private Map<String, Object> handleGetMetrics() {
+        ConnectionCounters counters = connectionService.get().getConnectionCounters();
+        if (counters != null) {
+            Map<String, Long> values = counters.read();
+            return createJsonResponse(200, Map.of(
+                "activeConnections", values.getOrDefault(ConnectionCounters.TOTAL_CONNECTIONS, 0L),
+                "connectionsByRole", ConnectionCounters.byPrefix(values, "role#"),
+                "connectionsByTeam", ConnectionCounters.byPrefix(values, "team#"),
+                "connectionsByDepartment", ConnectionCounters.byPrefix(values, "department#"),
+                "connectionsByTopic", ConnectionCounters.byPrefix(values, "topic#"),
+                "registry", connectionService.get().getRegistryStats(),
+                "heartbeats", connectionService.get().getHeartbeatStats(),
+                "initMs", LazyComponent.initTimes(),
+                "timestamp", Instant.now().getEpochSecond()
+            ));
+        }
+        List<ConnectionRecord> connections = connectionService.get().getAllConnections(ConnectionRegistry.ReadPurpose.METRICS);
         Map<String, Object> metrics = Map.of(
             "activeConnections", connections.size(),
             "connectionsByRole", countByAttribute(connections, "roles"),
             "connectionsByTeam", countByAttribute(connections, "teams"),
             "connectionsByDepartment", countByAttribute(connections, "department"),
+            "registry", connectionService.get().getRegistryStats(),
+            "heartbeats", connectionService.get().getHeartbeatStats(),
+            "initMs", LazyComponent.initTimes(),
             "timestamp", Instant.now().getEpochSecond()
         );
         return createJsonResponse(200, metrics);
     }
 
-    private Map<String, Object> handleHealthCheck(Map<String, Object> event) {
+    private Map<String, Object> handleHealthCheck() {
         return createJsonResponse(200, Map.of(
             "status", "UP",
             "service", "notification-service",
@@ -87,15 +208,32 @@ public class HttpApiService {
         ));
     }
 
-    private Map<String, Object> handleGetConnections(Map<String, Object> event) {
-        List<ConnectionRecord> connections = connectionService.getAllConnections();
-        return createJsonResponse(200, Map.of(
-            "count", connections.size(),
-            "connections", connections
-        ));
+    private Map<String, Object> handleGetConnections(Map<String, String> params) {
+        ConnectionPage page;
+        try {
+            String fields = params.get("fields");
+            String limit = params.get("limit");
+            page = connectionService.get().listConnections(ConnectionQuery.builder()
+                .userId(params.get("userId"))
+                .team(params.get("team"))
+                .role(params.get("role"))
+                .fields(fields != null ? Arrays.asList(fields.split("\\s*,\\s*")) : null)
+                .limit(limit != null ? Integer.valueOf(limit) : null)
+                .cursor(params.get("cursor"))
+                .build());
+        } catch (IllegalArgumentException e) {
+            return createJsonResponse(400, Map.of("error", e.getMessage()));
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("count", page.getConnections().size());
+        response.put("connections", page.getConnections());
+        if (page.getNextCursor() != null) {
+            response.put("nextCursor", page.getNextCursor());
+        }
+        return createJsonResponse(200, response);
     }
 
-    private Map<String, Integer> countByAttribute(List<ConnectionRecord> connections, String attribute) {
+    Map<String, Integer> countByAttribute(List<ConnectionRecord> connections, String attribute) {
         Map<String, Integer> counts = new HashMap<>();
         for (ConnectionRecord conn : connections) {
             List<String> values = new ArrayList<>();
@@ -0,0 +1,192 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.config.JsonMappers;
+import com.bonafide.notificationlambda.config.NotificationProperties;
+import com.bonafide.notificationlambda.model.NotificationResult;
+import com.bonafide.notificationlambda.model.NotificationStatus;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Deduplicates sends by idempotency key. A container-local LRU answers retries that land
+ * on the same warm container; across containers the first send claims the key with a
+ * conditional put in the status table ({@code idempotency#<key>}), holding an in-progress
+ * lease of {@code leaseSeconds}. Later sends with the key get the stored result, or an
+ * IN_PROGRESS result while the lease holds. A lease left behind by a send that died is
+ * taken over once it expires, and a send that failed outright releases its key so the
+ * caller's retry is attempted again. Without a table only the local cache deduplicates.
+ */
+@Slf4j
+public class IdempotencyStore {
+    private static final String KEY_PREFIX = "idempotency#";
+    private static final String IN_PROGRESS = NotificationStatus.IN_PROGRESS.name();
+    private static final String COMPLETE = "COMPLETE";
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final long leaseSeconds;
+    private final long ttlSeconds;
+    private final Map<String, Entry> recent;
+
+    private static final class Entry {
+        private final NotificationResult result;
+        private final long expiresAt;
+
+        private Entry(NotificationResult result, long expiresAt) {
+            this.result = result;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public IdempotencyStore(DynamoDbClient dynamoDbClient, String tableName, int cacheSize, long leaseSeconds,
+                            long ttlSeconds) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName != null && !tableName.isBlank() ? tableName : null;
+        this.leaseSeconds = leaseSeconds;
+        this.ttlSeconds = ttlSeconds;
+        this.recent = java.util.Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    public static IdempotencyStore fromProperties(NotificationProperties properties, DynamoDbClient dynamoDbClient,
+                                                  String tableName) {
+        return new IdempotencyStore(dynamoDbClient, tableName,
+            properties.getInt("notification.idempotency.cache-size", 10000),
+            properties.getLong("notification.idempotency.lease-seconds", 120),
+            properties.getLong("notification.idempotency.ttl-seconds", 86400));
+    }
+
+    /**
+     * Claims the key for a new send. Returns empty when the caller now owns the send and must
+     * report it with {@link #complete}; otherwise the earlier send's result or IN_PROGRESS.
+     */
+    public Optional<NotificationResult> claim(String key) {
+        long now = Instant.now().getEpochSecond();
+        Entry cached = recent.get(key);
+        if (cached != null && cached.expiresAt > now) {
+            return Optional.of(duplicate(cached.result));
+        }
+        if (tableName == null) {
+            recent.put(key, new Entry(inProgress(), now + leaseSeconds));
+            return Optional.empty();
+        }
+        try {
+            dynamoDbClient.putItem(PutItemRequest.builder()
+                .tableName(tableName)
+                .item(Map.of(
+                    "notificationId", s(KEY_PREFIX + key),
+                    "status", s(IN_PROGRESS),
+                    "leaseExpiresAt", n(now + leaseSeconds),
+                    "expiresAt", n(now + ttlSeconds)))
+                .conditionExpression("attribute_not_exists(notificationId) OR leaseExpiresAt < :now")
+                .expressionAttributeValues(Map.of(":now", n(now)))
+                .build());
+            recent.put(key, new Entry(inProgress(), now + leaseSeconds));
+            return Optional.empty();
+        } catch (ConditionalCheckFailedException e) {
+            return Optional.of(duplicate(stored(key)));
+        } catch (Exception e) {
+            log.error("Error claiming idempotency key {}, sending without deduplication", key, e);
+            return Optional.empty();
+        }
+    }
+
+    /** Records the result of a send claimed with {@link #claim}. */
+    public void complete(String key, NotificationResult result) {
+        long expiresAt = Instant.now().getEpochSecond() + ttlSeconds;
+        recent.put(key, new Entry(result, expiresAt));
+        if (tableName == null) {
+            return;
+        }
+        try {
+            dynamoDbClient.updateItem(UpdateItemRequest.builder()
+                .tableName(tableName)
+                .key(Map.of("notificationId", s(KEY_PREFIX + key)))
+                .updateExpression("SET #status = :complete, #result = :result, leaseExpiresAt = :expiresAt, expiresAt = :expiresAt")
+                .expressionAttributeNames(Map.of("#status", "status", "#result", "result"))
+                .expressionAttributeValues(Map.of(
+                    ":complete", s(COMPLETE),
+                    ":result", s(JsonMappers.shared().writeValueAsString(result)),
+                    ":expiresAt", n(expiresAt)))
+                .build());
+        } catch (Exception e) {
+            log.error("Error recording result for idempotency key {}", key, e);
+        }
+    }
+
+    /** Gives up a claim without a result, letting the next send with the key go ahead. */
+    public void release(String key) {
+        recent.remove(key);
+        if (tableName == null) {
+            return;
+        }
+        try {
+            dynamoDbClient.deleteItem(DeleteItemRequest.builder()
+                .tableName(tableName)
+                .key(Map.of("notificationId", s(KEY_PREFIX + key)))
+                .conditionExpression("#status = :inProgress")
+                .expressionAttributeNames(Map.of("#status", "status"))
+                .expressionAttributeValues(Map.of(":inProgress", s(IN_PROGRESS)))
+                .build());
+        } catch (ConditionalCheckFailedException e) {
+            log.debug("Idempotency key {} was completed elsewhere", key);
+        } catch (Exception e) {
+            log.error("Error releasing idempotency key {}", key, e);
+        }
+    }
+
+    private NotificationResult stored(String key) {
+        try {
+            Map<String, AttributeValue> item = dynamoDbClient.getItem(GetItemRequest.builder()
+                .tableName(tableName)
+                .key(Map.of("notificationId", s(KEY_PREFIX + key)))
+                .consistentRead(true)
+                .build()).item();
+            if (item != null && COMPLETE.equals(item.get("status").s())) {
+                NotificationResult result = JsonMappers.shared().readValue(item.get("result").s(), NotificationResult.class);
+                recent.put(key, new Entry(result, Long.parseLong(item.get("expiresAt").n())));
+                return result;
+            }
+        } catch (Exception e) {
+            log.error("Error reading result for idempotency key {}", key, e);
+        }
+        return inProgress();
+    }
+
+    private static NotificationResult inProgress() {
+        return NotificationResult.builder()
+            .status(IN_PROGRESS)
+            .message("A send with this idempotency key is in progress")
+            .build();
+    }
+
+    private static NotificationResult duplicate(NotificationResult result) {
+        NotificationResult copy = new NotificationResult(result.getStatus(), result.getSent(), result.getFailed(),
+            result.getTotalRecipients(), result.getMessage(), result.getPriority(), result.getTimeToFirstDeliveryMs(),
+            result.getStageTimingsMs(), null);
+        copy.setDuplicate(true);
+        return copy;
+    }
+
+    private static AttributeValue s(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+
+    private static AttributeValue n(long value) {
+        return AttributeValue.builder().n(String.valueOf(value)).build();
+    }
+}
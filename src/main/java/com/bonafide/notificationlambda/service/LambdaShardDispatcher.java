@@ -0,0 +1,41 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.DeliveryShard;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.lambda.LambdaClient;
+import software.amazon.awssdk.services.lambda.model.InvocationType;
+import software.amazon.awssdk.services.lambda.model.InvokeRequest;
+import java.util.Map;
+
+/**
+ * Dispatches each shard as an asynchronous ({@code Event}) invocation of the notification
+ * function with the {@code deliver_shard} direct-invoke action. Lambda queues the event
+ * and retries a failed worker, so dispatch returns as soon as the event is accepted.
+ */
+public class LambdaShardDispatcher implements ShardDispatcher {
+    private final LambdaClient lambdaClient;
+    private final String functionName;
+    private final ObjectMapper objectMapper;
+
+    public LambdaShardDispatcher(LambdaClient lambdaClient, String functionName, ObjectMapper objectMapper) {
+        this.lambdaClient = lambdaClient;
+        this.functionName = functionName;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void dispatch(DeliveryShard shard) {
+        try {
+            lambdaClient.invoke(InvokeRequest.builder()
+                .functionName(functionName)
+                .invocationType(InvocationType.EVENT)
+                .payload(SdkBytes.fromByteArrayUnsafe(objectMapper.writeValueAsBytes(Map.of(
+                    "action", "deliver_shard",
+                    "shard", shard))))
+                .build());
+        } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize shard " + shard.getShard(), e);
+        }
+    }
+}
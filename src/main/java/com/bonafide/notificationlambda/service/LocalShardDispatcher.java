@@ -0,0 +1,40 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.DeliveryShard;
+import lombok.extern.slf4j.Slf4j;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Runs shards in this container on virtual threads instead of separate invocations,
+ * for tests, simulations and deployments where one container's fan-out is enough.
+ * Shards are not durable: one still running when the invocation returns may be frozen with
+ * the container and lost if it is reclaimed, leaving its aggregate IN_PROGRESS. Use the
+ * Lambda dispatcher where every shard must complete.
+ */
+@Slf4j
+public class LocalShardDispatcher implements ShardDispatcher {
+    private final Consumer<DeliveryShard> worker;
+    private final ExecutorService executor;
+
+    public LocalShardDispatcher(Consumer<DeliveryShard> worker) {
+        this(worker, Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    public LocalShardDispatcher(Consumer<DeliveryShard> worker, ExecutorService executor) {
+        this.worker = worker;
+        this.executor = executor;
+    }
+
+    @Override
+    public void dispatch(DeliveryShard shard) {
+        executor.execute(() -> {
+            try {
+                worker.accept(shard);
+            } catch (RuntimeException e) {
+                log.error("Error delivering shard {} of notification {}", shard.getShard(), shard.getNotificationId(), e);
+            }
+        });
+    }
+}
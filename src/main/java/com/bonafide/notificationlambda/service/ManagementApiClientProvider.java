@@ -0,0 +1,138 @@
+package com.bonafide.notificationlambda.service;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiClient;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.GetConnectionRequest;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Owns the API Gateway Management client for the lifetime of the container: one SDK
+ * client over one pooled HTTP client, built on first use and optionally pre-warmed so
+ * pooled TLS connections already exist when the first notification goes out. SDK retries
+ * are disabled; {@link DeliveryRetryPolicy} decides when a post is retried.
+ */
+@Slf4j
+public class ManagementApiClientProvider implements AutoCloseable {
+    private static final String PREWARM_CONNECTION_ID = "prewarm";
+    private final String apiEndpoint;
+    private final String region;
+    private final int maxConnections;
+    private final Duration connectionMaxIdleTime;
+    private final boolean tcpKeepAlive;
+    private final boolean wrapped;
+    private volatile ApiGatewayManagementApiClient client;
+    private SdkHttpClient httpClient;
+
+    public ManagementApiClientProvider(String apiEndpoint, String region, int maxConnections,
+                                       long connectionMaxIdleMillis, boolean tcpKeepAlive) {
+        this.apiEndpoint = apiEndpoint;
+        this.region = region;
+        this.maxConnections = maxConnections;
+        this.connectionMaxIdleTime = Duration.ofMillis(connectionMaxIdleMillis);
+        this.tcpKeepAlive = tcpKeepAlive;
+        this.wrapped = false;
+    }
+
+    /**
+     * Serves an already built client, e.g. a stand-in. Pre-warming is skipped, and
+     * {@link #close()} leaves the client to its owner, since there is nothing to rebuild it from.
+     */
+    public ManagementApiClientProvider(ApiGatewayManagementApiClient client) {
+        this.apiEndpoint = null;
+        this.region = null;
+        this.maxConnections = 0;
+        this.connectionMaxIdleTime = Duration.ZERO;
+        this.tcpKeepAlive = false;
+        this.wrapped = true;
+        this.client = client;
+    }
+
+    public ApiGatewayManagementApiClient get() {
+        ApiGatewayManagementApiClient current = client;
+        if (current == null) {
+            synchronized (this) {
+                current = client;
+                if (current == null) {
+                    current = build();
+                    client = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Opens up to {@code connections} pooled connections by issuing concurrent GetConnection
+     * calls for a connection id that does not exist. The expected error responses are ignored;
+     * what matters is the TLS session left behind in the pool.
+     */
+    public void prewarm(int connections) {
+        if (connections <= 0 || apiEndpoint == null || apiEndpoint.isBlank()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        ApiGatewayManagementApiClient warmClient = get();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> calls = new ArrayList<>();
+            for (int i = 0; i < Math.min(connections, maxConnections); i++) {
+                calls.add(executor.submit(() -> {
+                    try {
+                        warmClient.getConnection(GetConnectionRequest.builder().connectionId(PREWARM_CONNECTION_ID).build());
+                    } catch (Exception e) {
+                        log.debug("Pre-warm call completed with {}", e.getClass().getSimpleName());
+                    }
+                }));
+            }
+            for (Future<?> call : calls) {
+                call.get();
+            }
+        } catch (Exception e) {
+            log.warn("Error pre-warming API Gateway Management connections", e);
+        }
+        log.info("Pre-warmed {} API Gateway Management connections in {} ms",
+            Math.min(connections, maxConnections), System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (wrapped) {
+            return;
+        }
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+        if (httpClient != null) {
+            httpClient.close();
+            httpClient = null;
+        }
+    }
+
+    private ApiGatewayManagementApiClient build() {
+        httpClient = ApacheHttpClient.builder()
+            .maxConnections(maxConnections)
+            .connectionMaxIdleTime(connectionMaxIdleTime)
+            .tcpKeepAlive(tcpKeepAlive)
+            .useIdleConnectionReaper(true)
+            .build();
+        return ApiGatewayManagementApiClient.builder()
+            .endpointOverride(URI.create(apiEndpoint))
+            .region(Region.of(region))
+            .httpClient(httpClient)
+            .overrideConfiguration(ClientOverrideConfiguration.builder()
+                .retryPolicy(RetryPolicy.none())
+                .build())
+            .build();
+    }
+}
@@ -0,0 +1,56 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.NotificationRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.core.SdkBytes;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Serializes the notification envelope once, straight to UTF-8 bytes. The returned
+ * {@link SdkBytes} is never mutated, so the same instance is handed to every
+ * PostToConnection request of a fan-out instead of re-encoding the payload per recipient.
+ */
+public class NotificationPayloadEncoder {
+    private final ObjectMapper objectMapper;
+
+    public NotificationPayloadEncoder(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public SdkBytes encode(NotificationRequest notification) {
+        try {
+            Map<String, Object> payload = Map.of(
+                "type", "NOTIFICATION",
+                "payload", notification,
+                "metadata", Map.of(
+                    "sentAt", Instant.now().toString(),
+                    "notificationId", UUID.randomUUID().toString()
+                )
+            );
+            return SdkBytes.fromByteArrayUnsafe(objectMapper.writeValueAsBytes(payload));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to create notification payload", e);
+        }
+    }
+
+    /** One frame carrying several notifications, in the order given, as {@code NOTIFICATION_DIGEST}. */
+    public SdkBytes encodeDigest(List<NotificationRequest> notifications) {
+        try {
+            Map<String, Object> payload = Map.of(
+                "type", "NOTIFICATION_DIGEST",
+                "payload", notifications,
+                "metadata", Map.of(
+                    "sentAt", Instant.now().toString(),
+                    "notificationId", UUID.randomUUID().toString(),
+                    "count", notifications.size()
+                )
+            );
+            return SdkBytes.fromByteArrayUnsafe(objectMapper.writeValueAsBytes(payload));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to create digest payload", e);
+        }
+    }
+}
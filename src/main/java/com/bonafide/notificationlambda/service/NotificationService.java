@@ -1,37 +1,152 @@
 package com.bonafide.notificationlambda.service;
 
+import com.bonafide.notificationlambda.config.NotificationProperties;
 import com.bonafide.notificationlambda.model.ConnectionRecord;
+import com.bonafide.notificationlambda.model.DeliveryShard;
 import com.bonafide.notificationlambda.model.NotificationRequest;
 import com.bonafide.notificationlambda.model.NotificationResult;
+import lombok.Builder;
 import lombok.extern.slf4j.Slf4j;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 @Slf4j
 public class NotificationService {
     private final ConnectionService connectionService;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    private static final long DEFAULT_TIMEOUT_MS = 30000;
     private final WebSocketService webSocketService;
+    private final DeliveryScheduler deliveryScheduler;
+    private final long timeoutMillis;
+    private final DeliveryInstrumentation instrumentation;
+    private final IdempotencyStore idempotencyStore;
+    private final DigestCoalescer digestCoalescer;
+    private final CatchUpBuffer catchUpBuffer;
 
     public NotificationService(ConnectionService connectionService, WebSocketService webSocketService) {
+        this(connectionService, webSocketService, null, 0, null, null, null, null);
+    }
+
+    /**
+     * Only the connection and WebSocket services are required. An unset scheduler, timeout or
+     * instrumentation gets the defaults; an unset idempotency store, digest coalescer or
+     * catch-up buffer leaves that feature off.
+     */
+    @Builder
+    public NotificationService(ConnectionService connectionService, WebSocketService webSocketService,
+                               DeliveryScheduler deliveryScheduler, long timeoutMillis, DeliveryInstrumentation instrumentation,
+                               IdempotencyStore idempotencyStore, DigestCoalescer digestCoalescer, CatchUpBuffer catchUpBuffer) {
         this.connectionService = connectionService;
         this.webSocketService = webSocketService;
+        this.deliveryScheduler = deliveryScheduler != null ? deliveryScheduler
+            : new DeliveryScheduler(DEFAULT_MAX_IN_FLIGHT, 0.25, 0.5);
+        this.timeoutMillis = timeoutMillis > 0 ? timeoutMillis : DEFAULT_TIMEOUT_MS;
+        this.instrumentation = instrumentation != null ? instrumentation
+            : DeliveryInstrumentation.fromProperties(new NotificationProperties(new Properties()));
+        this.idempotencyStore = idempotencyStore;
+        this.digestCoalescer = digestCoalescer;
+        this.catchUpBuffer = catchUpBuffer;
+    }
+
+    /** Deadline for a send started now: the configured timeout, capped by the invocation's remaining time. */
+    public long deadlineFor(long remainingInvocationMillis) {
+        return System.currentTimeMillis() + Math.min(timeoutMillis, remainingInvocationMillis);
     }
 
     public NotificationResult sendNotification(NotificationRequest request) {
+        return sendNotification(request, System.currentTimeMillis() + timeoutMillis);
+    }
+
+    /**
+     * Sends the notification. A request repeating the idempotency key of an earlier send gets
+     * that send's result, or IN_PROGRESS while it runs, without resolving or sending again.
+     */
+    public NotificationResult sendNotification(NotificationRequest request, long deadlineMillis) {
+        String idempotencyKey = request.getIdempotencyKey();
+        if (idempotencyStore == null || idempotencyKey == null || idempotencyKey.isBlank()) {
+            return deliverToAudience(request, deadlineMillis);
+        }
+        Optional<NotificationResult> earlier = idempotencyStore.claim(idempotencyKey);
+        if (earlier.isPresent()) {
+            log.info("Duplicate send for idempotency key {} - Status: {}", idempotencyKey, earlier.get().getStatus());
+            return earlier.get();
+        }
+        NotificationResult result = deliverToAudience(request, deadlineMillis);
+        if ("FAILED".equals(result.getStatus()) && result.getSent() == 0) {
+            idempotencyStore.release(idempotencyKey);
+        } else {
+            idempotencyStore.complete(idempotencyKey, result);
+        }
+        return result;
+    }
+
+    /**
+     * A broadcast streams connection ids straight into the fan-out; any other notification
+     * is matched against each connection's attributes.
+     */
+    private NotificationResult deliverToAudience(NotificationRequest request, long deadlineMillis) {
+        String catchUpId = catchUpBuffer != null ? CatchUpBuffer.notificationId(request) : null;
+        if (connectionService.isBroadcast(request)) {
+            return deliver(request, deadlineMillis, "broadcast", catchUpId, connectionService::forEachConnectionId);
+        }
+        return deliver(request, deadlineMillis, "send", catchUpId, (connectionIds, metrics) ->
+            connectionService.forEachEligibleConnection(request, connection -> connectionIds.accept(connection.getConnectionId()), metrics));
+    }
+
+    /**
+     * Delivers one shard of an asynchronous fan-out to the eligible connections of its scan
+     * segment. Shard 0 records the notification for catch-up under the fan-out's notification
+     * id, so a send is recorded once even when the worker is retried.
+     */
+    public NotificationResult deliverShard(DeliveryShard shard, long deadlineMillis) {
+        NotificationRequest request = shard.getNotification();
+        String catchUpId = catchUpBuffer != null && shard.getShard() == 0 ? shard.getNotificationId() : null;
+        if (connectionService.isBroadcast(request)) {
+            return deliver(request, deadlineMillis, "deliver_shard", catchUpId, (connectionIds, metrics) ->
+                connectionService.forEachConnectionId(shard.getShard(), shard.getTotalShards(), connectionIds, metrics));
+        }
+        return deliver(request, deadlineMillis, "deliver_shard", catchUpId, (connectionIds, metrics) ->
+            connectionService.forEachEligibleConnection(request, shard.getShard(), shard.getTotalShards(),
+                connection -> connectionIds.accept(connection.getConnectionId()), metrics));
+    }
+
+    /**
+     * Hands the notification to every recipient, then records it for catch-up under
+     * {@code catchUpId} (when not null) while the sends complete.
+     */
+    private NotificationResult deliver(NotificationRequest request, long deadlineMillis, String operation, String catchUpId,
+                                       BiConsumer<Consumer<String>, DeliveryMetrics> recipients) {
+        DeliveryMetrics metrics = instrumentation.open();
+        Thread recording = null;
         try {
-            List<ConnectionRecord> eligibleConnections = connectionService.getEligibleConnections(request);
-            if (eligibleConnections.isEmpty()) {
+            DeliverySession session = webSocketService.openSession(request, deliveryScheduler, deadlineMillis, metrics);
+            recipients.accept(connectionId -> {
+                long handoffStart = metrics.start();
+                session.deliver(connectionId);
+                metrics.stop(DeliveryMetrics.Stage.FAN_OUT, handoffStart);
+            }, metrics);
+            recording = recordForCatchUp(catchUpId != null ? Map.of(catchUpId, request) : Map.of());
+            NotificationResult result = complete(session, metrics);
+            prune(session.getGoneConnectionIds(), metrics);
+            result.setStageTimingsMs(instrumentation.resultTimings(metrics));
+            instrumentation.publish(metrics, operation, 1, result.getTotalRecipients(), result.getSent());
+            if (result.getTotalRecipients() == 0) {
                 log.warn("No eligible connections found for notification: {}", request.getType());
-                return NotificationResult.builder()
-                    .status("NO_RECIPIENTS")
-                    .sent(0)
-                    .failed(0)
-                    .totalRecipients(0)
-                    .message("No eligible recipients found")
-                    .build();
+                return result;
             }
-            NotificationResult result = webSocketService.sendToConnections(eligibleConnections, request);
-            log.info("Notification sent - Type: {}, Module: {}, Recipients: {}, Successful: {}", 
-                request.getType(), request.getModuleName(), result.getTotalRecipients(), result.getSent());
+            log.info("Notification sent - Type: {}, Module: {}, Priority: {}, Recipients: {}, Successful: {}, First delivery: {} ms",
+                request.getType(), request.getModuleName(), result.getPriority(), result.getTotalRecipients(), result.getSent(),
+                result.getTimeToFirstDeliveryMs());
             return result;
         } catch (Exception e) {
             log.error("Failed to send notification", e);
@@ -42,6 +157,173 @@ public class NotificationService {
                 .totalRecipients(0)
                 .message("Failed to send notification: " + e.getMessage())
                 .build();
+        } finally {
+            awaitRecorded(recording);
+        }
+    }
+
+    /**
+     * Records the notifications for catch-up on a virtual thread, off the delivery path. The
+     * caller joins it before returning so a frozen container does not drop the write.
+     */
+    private Thread recordForCatchUp(Map<String, NotificationRequest> notifications) {
+        if (catchUpBuffer == null || notifications.isEmpty()) {
+            return null;
+        }
+        return Thread.ofVirtual().start(() -> catchUpBuffer.record(notifications));
+    }
+
+    private static void awaitRecorded(Thread recording) {
+        if (recording == null) {
+            return;
+        }
+        try {
+            recording.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public List<NotificationResult> sendNotifications(List<NotificationRequest> requests) {
+        return sendNotifications(requests, System.currentTimeMillis() + timeoutMillis);
+    }
+
+    public List<NotificationResult> sendNotifications(List<NotificationRequest> requests, long deadlineMillis) {
+        if (requests.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<DeliverySession> sessions = new ArrayList<>(requests.size());
+        DeliveryMetrics metrics = instrumentation.open();
+        Thread recording = null;
+        try {
+            for (NotificationRequest request : requests) {
+                sessions.add(webSocketService.openSession(request, deliveryScheduler, deadlineMillis, metrics));
+            }
+            DigestCoalescer.Batch digests = digestCoalescer != null ? digestCoalescer.plan(requests) : null;
+            connectionService.forEachEligibleConnection(requests, (connection, i) -> {
+                long handoffStart = metrics.start();
+                if (digests != null && digests.isCoalesced(i)) {
+                    digests.add(connection.getConnectionId(), i);
+                } else {
+                    sessions.get(i).deliver(connection);
+                }
+                metrics.stop(DeliveryMetrics.Stage.FAN_OUT, handoffStart);
+            }, metrics);
+            if (digests != null) {
+                long handoffStart = metrics.start();
+                digests.deliver(sessions::get, members ->
+                    webSocketService.openDigestSession(members, deliveryScheduler, deadlineMillis, metrics));
+                metrics.stop(DeliveryMetrics.Stage.FAN_OUT, handoffStart);
+            }
+            if (catchUpBuffer != null) {
+                Map<String, NotificationRequest> recorded = new LinkedHashMap<>();
+                requests.forEach(request -> recorded.put(CatchUpBuffer.notificationId(request), request));
+                recording = recordForCatchUp(recorded);
+            }
+            List<NotificationResult> results = new ArrayList<>(requests.size());
+            Set<String> goneConnectionIds = new HashSet<>();
+            for (DeliverySession session : sessions) {
+                results.add(complete(session, metrics));
+                goneConnectionIds.addAll(session.getGoneConnectionIds());
+            }
+            if (digests != null) {
+                for (Map.Entry<BitSet, DeliverySession> digest : digests.getDigestSessions().entrySet()) {
+                    NotificationResult digestResult = complete(digest.getValue(), metrics);
+                    goneConnectionIds.addAll(digest.getValue().getGoneConnectionIds());
+                    digest.getKey().stream().forEach(i -> results.set(i, DigestCoalescer.merge(results.get(i), digestResult)));
+                }
+            }
+            prune(goneConnectionIds, metrics);
+            Map<String, Double> timings = instrumentation.resultTimings(metrics);
+            results.forEach(result -> result.setStageTimingsMs(timings));
+            instrumentation.publish(metrics, "send_batch", requests.size(),
+                results.stream().mapToInt(NotificationResult::getTotalRecipients).sum(),
+                results.stream().mapToInt(NotificationResult::getSent).sum());
+            log.info("Notification batch sent - Notifications: {}, Successful: {}",
+                requests.size(), results.stream().mapToInt(NotificationResult::getSent).sum());
+            return results;
+        } catch (Exception e) {
+            log.error("Failed to send notification batch", e);
+            List<NotificationResult> results = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                results.add(NotificationResult.builder()
+                    .status("FAILED")
+                    .sent(0)
+                    .failed(0)
+                    .totalRecipients(0)
+                    .message("Failed to send notification: " + e.getMessage())
+                    .build());
+            }
+            return results;
+        } finally {
+            awaitRecorded(recording);
+        }
+    }
+
+    public boolean isCatchUpEnabled() {
+        return catchUpBuffer != null;
+    }
+
+    /**
+     * Replays to a reconnected connection the buffered notifications it is eligible for that
+     * were sent after {@code sinceMillis}, as digest frames. Connections found gone are left
+     * to their $disconnect rather than pruned, since the connection has only just been stored.
+     */
+    public NotificationResult replay(String connectionId, long sinceMillis, long deadlineMillis) {
+        ConnectionRecord connection = catchUpBuffer != null ? connectionService.getConnection(connectionId) : null;
+        if (connection == null) {
+            return NotificationResult.builder()
+                .status("NO_RECIPIENTS")
+                .message("Nothing to replay for connection " + connectionId)
+                .build();
+        }
+        DeliveryMetrics metrics = instrumentation.open();
+        try {
+            List<List<NotificationRequest>> frames = catchUpBuffer.frames(connection, sinceMillis);
+            List<DeliverySession> sessions = new ArrayList<>(frames.size());
+            int replayed = 0;
+            for (List<NotificationRequest> frame : frames) {
+                DeliverySession session = webSocketService.openDigestSession(frame, deliveryScheduler, deadlineMillis, metrics);
+                session.deliver(connectionId);
+                sessions.add(session);
+                replayed += frame.size();
+            }
+            int sent = 0;
+            int failed = 0;
+            for (DeliverySession session : sessions) {
+                NotificationResult frame = complete(session, metrics);
+                sent += frame.getSent();
+                failed += frame.getFailed();
+            }
+            instrumentation.publish(metrics, "replay", replayed, 1, sent);
+            log.info("Replayed {} notifications to {} in {} frames, {} delivered", replayed, connectionId, frames.size(), sent);
+            return NotificationResult.builder()
+                .status(frames.isEmpty() ? "NO_RECIPIENTS" : sent == 0 ? "FAILED" : failed == 0 ? "SENT" : "PARTIAL")
+                .sent(sent)
+                .failed(failed)
+                .totalRecipients(frames.size())
+                .message(String.format("Replayed %d notifications in %d frames", replayed, frames.size()))
+                .build();
+        } catch (Exception e) {
+            log.error("Failed to replay notifications to {}", connectionId, e);
+            return NotificationResult.builder()
+                .status("FAILED")
+                .message("Failed to replay notifications: " + e.getMessage())
+                .build();
         }
     }
-} 
\ No newline at end of file
+
+    /** Waits for the session's outstanding sends; the wait counts towards fan-out. */
+    private static NotificationResult complete(DeliverySession session, DeliveryMetrics metrics) {
+        long start = metrics.start();
+        NotificationResult result = session.complete();
+        metrics.stop(DeliveryMetrics.Stage.FAN_OUT, start);
+        return result;
+    }
+
+    private void prune(Collection<String> goneConnectionIds, DeliveryMetrics metrics) {
+        long start = metrics.start();
+        connectionService.removeConnections(goneConnectionIds);
+        metrics.stop(DeliveryMetrics.Stage.PRUNING, start);
+    }
+}
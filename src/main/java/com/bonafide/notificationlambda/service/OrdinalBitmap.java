@@ -0,0 +1,132 @@
+package com.bonafide.notificationlambda.service;
+
+import java.util.Arrays;
+
+/**
+ * Set of connection ordinals in the style of a Roaring bitmap: the ordinal space is cut
+ * into chunks of 65536, and each chunk holds a sorted array of its low 16 bits while
+ * sparse, switching to a 1024-word bitset once it passes 4096 entries. Rare attributes
+ * such as a user id cost a few bytes, common ones such as a role cost 8 KB per chunk.
+ * Not thread-safe; {@link EligibilityIndex} guards access.
+ */
+final class OrdinalBitmap {
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int CHUNK_WORDS = 1024;
+
+    private Chunk[] chunks = new Chunk[0];
+    private int cardinality;
+
+    void add(int ordinal) {
+        int key = ordinal >>> 16;
+        if (key >= chunks.length) {
+            chunks = Arrays.copyOf(chunks, key + 1);
+        }
+        if (chunks[key] == null) {
+            chunks[key] = new Chunk();
+        }
+        if (chunks[key].add((char) ordinal)) {
+            cardinality++;
+        }
+    }
+
+    void remove(int ordinal) {
+        int key = ordinal >>> 16;
+        if (key < chunks.length && chunks[key] != null && chunks[key].remove((char) ordinal)) {
+            cardinality--;
+            if (chunks[key].size == 0) {
+                chunks[key] = null;
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    /** ORs this set into a dense bitset over the ordinal space, word by word where a chunk is dense. */
+    void orInto(long[] words) {
+        for (int key = 0; key < chunks.length; key++) {
+            if (chunks[key] != null) {
+                chunks[key].orInto(words, key * CHUNK_WORDS);
+            }
+        }
+    }
+
+    private static final class Chunk {
+        private char[] values = new char[4];
+        private long[] bits;
+        private int size;
+
+        private boolean add(char low) {
+            if (bits != null) {
+                long mask = 1L << low;
+                if ((bits[low >>> 6] & mask) != 0) {
+                    return false;
+                }
+                bits[low >>> 6] |= mask;
+                size++;
+                return true;
+            }
+            int position = Arrays.binarySearch(values, 0, size, low);
+            if (position >= 0) {
+                return false;
+            }
+            if (size == ARRAY_LIMIT) {
+                toBits();
+                return add(low);
+            }
+            position = -position - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, size * 2));
+            }
+            System.arraycopy(values, position, values, position + 1, size - position);
+            values[position] = low;
+            size++;
+            return true;
+        }
+
+        private boolean remove(char low) {
+            if (bits != null) {
+                long mask = 1L << low;
+                if ((bits[low >>> 6] & mask) == 0) {
+                    return false;
+                }
+                bits[low >>> 6] &= ~mask;
+                size--;
+                return true;
+            }
+            int position = Arrays.binarySearch(values, 0, size, low);
+            if (position < 0) {
+                return false;
+            }
+            System.arraycopy(values, position + 1, values, position, size - position - 1);
+            size--;
+            return true;
+        }
+
+        private void toBits() {
+            bits = new long[CHUNK_WORDS];
+            for (int i = 0; i < size; i++) {
+                bits[values[i] >>> 6] |= 1L << values[i];
+            }
+            values = null;
+        }
+
+        private void orInto(long[] words, int offset) {
+            if (bits != null) {
+                int limit = Math.min(CHUNK_WORDS, words.length - offset);
+                for (int i = 0; i < limit; i++) {
+                    words[offset + i] |= bits[i];
+                }
+                return;
+            }
+            for (int i = 0; i < size; i++) {
+                words[offset + (values[i] >>> 6)] |= 1L << values[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import java.util.List;
+
+/**
+ * Record read from a {@link ConnectionItemCodec#COMPACT} item. Its packed fields stay
+ * packed until one of them is first read or written, so a row whose eligibility is settled
+ * by its user id, or that is only delivered to, is never unpacked.
+ */
+final class PackedConnectionRecord extends ConnectionRecord {
+    private volatile byte[] packed;
+
+    PackedConnectionRecord(byte[] packed) {
+        this.packed = packed;
+    }
+
+    @Override
+    public List<String> getRoles() {
+        unpack();
+        return super.getRoles();
+    }
+
+    @Override
+    public List<String> getTeams() {
+        unpack();
+        return super.getTeams();
+    }
+
+    @Override
+    public String getDepartment() {
+        unpack();
+        return super.getDepartment();
+    }
+
+    @Override
+    public long getConnectedAt() {
+        unpack();
+        return super.getConnectedAt();
+    }
+
+    @Override
+    public List<String> getSubscribedTopics() {
+        unpack();
+        return super.getSubscribedTopics();
+    }
+
+    @Override
+    public void setRoles(List<String> roles) {
+        unpack();
+        super.setRoles(roles);
+    }
+
+    @Override
+    public void setTeams(List<String> teams) {
+        unpack();
+        super.setTeams(teams);
+    }
+
+    @Override
+    public void setDepartment(String department) {
+        unpack();
+        super.setDepartment(department);
+    }
+
+    @Override
+    public void setConnectedAt(long connectedAt) {
+        unpack();
+        super.setConnectedAt(connectedAt);
+    }
+
+    @Override
+    public void setSubscribedTopics(List<String> subscribedTopics) {
+        unpack();
+        super.setSubscribedTopics(subscribedTopics);
+    }
+
+    @Override
+    public ConnectionRecordBuilder toBuilder() {
+        unpack();
+        return super.toBuilder();
+    }
+
+    private void unpack() {
+        if (packed == null) {
+            return;
+        }
+        synchronized (this) {
+            if (packed != null) {
+                ConnectionRecord unpacked = ConnectionItemCodec.unpack(packed);
+                super.setRoles(unpacked.getRoles());
+                super.setTeams(unpacked.getTeams());
+                super.setDepartment(unpacked.getDepartment());
+                super.setConnectedAt(unpacked.getConnectedAt());
+                super.setSubscribedTopics(unpacked.getSubscribedTopics());
+                packed = null;
+            }
+        }
+    }
+}
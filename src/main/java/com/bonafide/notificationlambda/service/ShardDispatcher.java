@@ -0,0 +1,11 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.DeliveryShard;
+
+/**
+ * Hands a shard of an asynchronous fan-out to a worker. Dispatch only has to start the
+ * work; the worker reports the shard's result to the {@link DeliveryStatusStore}.
+ */
+public interface ShardDispatcher {
+    void dispatch(DeliveryShard shard);
+}
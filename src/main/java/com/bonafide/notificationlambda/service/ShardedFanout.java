@@ -0,0 +1,88 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.config.NotificationProperties;
+import com.bonafide.notificationlambda.model.DeliveryAggregate;
+import com.bonafide.notificationlambda.model.DeliveryShard;
+import com.bonafide.notificationlambda.model.NotificationRequest;
+import com.bonafide.notificationlambda.model.NotificationResult;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Asynchronous fan-out: {@link #submit} records a new notification id in the
+ * {@link DeliveryStatusStore}, splits the connections table into {@code shards} scan
+ * segments and hands each segment to a worker through the {@link ShardDispatcher}, without
+ * resolving or delivering anything itself. Workers deliver their segment and report it with
+ * {@link #recordShard}; the aggregate is complete once every shard has reported, and a
+ * retried worker whose shard already reported skips it instead of sending again. A request
+ * with an idempotency key gets an id derived from the key, so resubmitting it returns the
+ * existing aggregate instead of fanning out again.
+ */
+@Slf4j
+public class ShardedFanout {
+    private final DeliveryStatusStore statusStore;
+    private final ShardDispatcher dispatcher;
+    private final int shards;
+
+    public ShardedFanout(DeliveryStatusStore statusStore, ShardDispatcher dispatcher, int shards) {
+        this.statusStore = statusStore;
+        this.dispatcher = dispatcher;
+        this.shards = Math.max(1, shards);
+    }
+
+    public static ShardedFanout fromProperties(NotificationProperties properties, DeliveryStatusStore statusStore,
+                                               ShardDispatcher dispatcher) {
+        return new ShardedFanout(statusStore, dispatcher, properties.getInt("notification.fanout.shards", 8));
+    }
+
+    public DeliveryAggregate submit(NotificationRequest notification) {
+        String idempotencyKey = notification.getIdempotencyKey();
+        boolean keyed = idempotencyKey != null && !idempotencyKey.isBlank();
+        String notificationId = keyed
+            ? UUID.nameUUIDFromBytes(idempotencyKey.getBytes(StandardCharsets.UTF_8)).toString()
+            : UUID.randomUUID().toString();
+        DeliveryAggregate aggregate;
+        try {
+            aggregate = statusStore.create(notificationId, notification, shards);
+        } catch (ConditionalCheckFailedException e) {
+            if (!keyed) {
+                throw e;
+            }
+            log.info("Duplicate submit for idempotency key {} - Notification: {}", idempotencyKey, notificationId);
+            return statusStore.get(notificationId);
+        }
+        for (int shard = 0; shard < shards; shard++) {
+            try {
+                dispatcher.dispatch(DeliveryShard.builder()
+                    .notificationId(notificationId)
+                    .shard(shard)
+                    .totalShards(shards)
+                    .notification(notification)
+                    .build());
+            } catch (Exception e) {
+                log.error("Error dispatching shard {} of notification {}", shard, notificationId, e);
+                statusStore.recordShard(notificationId, shard, NotificationResult.builder()
+                    .status("FAILED")
+                    .message("Dispatch failed: " + e.getMessage())
+                    .build());
+            }
+        }
+        log.info("Notification {} submitted - Type: {}, Shards: {}", notificationId, notification.getType(), shards);
+        return aggregate;
+    }
+
+    public boolean isShardRecorded(DeliveryShard shard) {
+        return statusStore.isShardRecorded(shard.getNotificationId(), shard.getShard());
+    }
+
+    public void recordShard(DeliveryShard shard, NotificationResult result) {
+        statusStore.recordShard(shard.getNotificationId(), shard.getShard(), result);
+    }
+
+    /** The completion aggregate, or null when the id is unknown or has expired. */
+    public DeliveryAggregate getDelivery(String notificationId) {
+        return statusStore.get(notificationId);
+    }
+}
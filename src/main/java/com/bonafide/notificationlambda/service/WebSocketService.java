@@ -1,25 +1,50 @@
 package com.bonafide.notificationlambda.service;
 
+import com.bonafide.notificationlambda.config.JsonMappers;
+import com.bonafide.notificationlambda.config.NotificationProperties;
 import com.bonafide.notificationlambda.model.ConnectionRecord;
+import com.bonafide.notificationlambda.model.NotificationPriority;
 import com.bonafide.notificationlambda.model.NotificationRequest;
 import com.bonafide.notificationlambda.model.NotificationResult;
 import lombok.extern.slf4j.Slf4j;
-import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiClient;
-import java.net.URI;
-import java.time.Instant;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.GetConnectionRequest;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.GoneException;
 import java.util.List;
-import java.util.Map;
-import java.util.UUID;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class WebSocketService {
-    private final String apiEndpoint;
-    private final String region;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    private static final long DEFAULT_CONNECTION_MAX_IDLE_MS = 60000;
+    private static final long DEFAULT_TIMEOUT_MS = 30000;
+    private static final long CONNECTION_POLL_MS = 100;
+    private static final NotificationProperties DEFAULTS = new NotificationProperties(new Properties());
+    private final ManagementApiClientProvider clientProvider;
+    private final DeliveryScheduler defaultScheduler;
+    private final DeliveryRetryPolicy retryPolicy;
+    private final AdaptiveRateLimiter rateLimiter;
+    private final int maxPendingPerSession;
+    private final NotificationPayloadEncoder payloadEncoder = new NotificationPayloadEncoder(JsonMappers.shared());
 
     public WebSocketService(String apiEndpoint, String region) {
-        this.apiEndpoint = apiEndpoint;
-        this.region = region;
+        this(new ManagementApiClientProvider(apiEndpoint, region, DEFAULT_MAX_IN_FLIGHT, DEFAULT_CONNECTION_MAX_IDLE_MS, true),
+            DEFAULT_MAX_IN_FLIGHT, DeliveryRetryPolicy.fromProperties(DEFAULTS),
+            AdaptiveRateLimiter.fromProperties(DEFAULTS), DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public WebSocketService(ManagementApiClientProvider clientProvider, int maxInFlight, DeliveryRetryPolicy retryPolicy,
+                            AdaptiveRateLimiter rateLimiter, int maxPendingPerSession) {
+        this.clientProvider = clientProvider;
+        this.defaultScheduler = new DeliveryScheduler(maxInFlight, 0, 1);
+        this.retryPolicy = retryPolicy;
+        this.rateLimiter = rateLimiter;
+        this.maxPendingPerSession = maxPendingPerSession;
+    }
+
+    public void prewarm(int connections) {
+        clientProvider.prewarm(connections);
     }
 
     public NotificationResult sendToConnections(List<ConnectionRecord> connections, NotificationRequest notification) {
@@ -33,37 +58,10 @@ public class WebSocketService {
                 .build();
         }
         try {
-            ApiGatewayManagementApiClient client = ApiGatewayManagementApiClient.builder()
-                .endpointOverride(URI.create(apiEndpoint))
-                .region(software.amazon.awssdk.regions.Region.of(region))
-                .build();
-            int successful = 0;
-            int failed = 0;
-            String payload = createNotificationPayload(notification);
-            for (ConnectionRecord connection : connections) {
-                try {
-                    software.amazon.awssdk.services.apigatewaymanagementapi.model.PostToConnectionRequest request =
-                        software.amazon.awssdk.services.apigatewaymanagementapi.model.PostToConnectionRequest.builder()
-                            .connectionId(connection.getConnectionId())
-                            .data(software.amazon.awssdk.core.SdkBytes.fromUtf8String(payload))
-                            .build();
-                    client.postToConnection(request);
-                    successful++;
-                } catch (software.amazon.awssdk.services.apigatewaymanagementapi.model.GoneException e) {
-                    log.warn("Stale connection removed: {}", connection.getConnectionId());
-                    failed++;
-                } catch (Exception e) {
-                    log.error("Error sending to connection: {}", connection.getConnectionId(), e);
-                    failed++;
-                }
-            }
-            return NotificationResult.builder()
-                .status(successful > 0 ? "SENT" : "FAILED")
-                .sent(successful)
-                .failed(failed)
-                .totalRecipients(connections.size())
-                .message(String.format("Sent to %d/%d connections", successful, connections.size()))
-                .build();
+            DeliverySession session = openSession(notification, defaultScheduler,
+                System.currentTimeMillis() + DEFAULT_TIMEOUT_MS);
+            connections.forEach(session::deliver);
+            return session.complete();
         } catch (Exception e) {
             log.error("Error sending notifications", e);
             return NotificationResult.builder()
@@ -76,19 +74,65 @@ public class WebSocketService {
         }
     }
 
-    private String createNotificationPayload(NotificationRequest notification) {
-        try {
-            Map<String, Object> payload = Map.of(
-                "type", "NOTIFICATION",
-                "payload", notification,
-                "metadata", Map.of(
-                    "sentAt", Instant.now().toString(),
-                    "notificationId", UUID.randomUUID().toString()
-                )
-            );
-            return new ObjectMapper().writeValueAsString(payload);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to create notification payload", e);
+    /**
+     * Opens a delivery session for the notification. {@code deadlineMillis} is the epoch time
+     * after which no further send or retry is started.
+     */
+    public DeliverySession openSession(NotificationRequest notification, DeliveryScheduler scheduler, long deadlineMillis) {
+        return openSession(notification, scheduler, deadlineMillis, DeliveryMetrics.disabled());
+    }
+
+    /** As {@link #openSession(NotificationRequest, DeliveryScheduler, long)}, recording encoding and sends in {@code metrics}. */
+    public DeliverySession openSession(NotificationRequest notification, DeliveryScheduler scheduler, long deadlineMillis,
+                                       DeliveryMetrics metrics) {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis - System.currentTimeMillis());
+        long encodingStart = metrics.start();
+        SdkBytes payload = payloadEncoder.encode(notification);
+        metrics.stop(DeliveryMetrics.Stage.ENCODING, encodingStart);
+        return new DeliverySession(clientProvider.get(), payload, scheduler, NotificationPriority.from(notification.getPriority()),
+            maxPendingPerSession, retryPolicy, rateLimiter, deadlineNanos, metrics);
+    }
+
+    /** Opens a session whose posts carry the notifications as one digest frame, at the highest of their priorities. */
+    public DeliverySession openDigestSession(List<NotificationRequest> notifications, DeliveryScheduler scheduler,
+                                             long deadlineMillis, DeliveryMetrics metrics) {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis - System.currentTimeMillis());
+        long encodingStart = metrics.start();
+        SdkBytes payload = payloadEncoder.encodeDigest(notifications);
+        metrics.stop(DeliveryMetrics.Stage.ENCODING, encodingStart);
+        NotificationPriority priority = NotificationPriority.LOW;
+        for (NotificationRequest notification : notifications) {
+            NotificationPriority own = NotificationPriority.from(notification.getPriority());
+            priority = own.compareTo(priority) > 0 ? own : priority;
+        }
+        return new DeliverySession(clientProvider.get(), payload, scheduler, priority,
+            maxPendingPerSession, retryPolicy, rateLimiter, deadlineNanos, metrics);
+    }
+
+    /**
+     * Waits up to {@code waitMillis} for API Gateway to report the connection, which it only
+     * does once its $connect has returned; posts before that are rejected as gone.
+     */
+    public boolean awaitConnection(String connectionId, long waitMillis) {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (true) {
+            try {
+                clientProvider.get().getConnection(GetConnectionRequest.builder().connectionId(connectionId).build());
+                return true;
+            } catch (GoneException e) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+            } catch (Exception e) {
+                log.warn("Could not check connection {}, replaying anyway", connectionId, e);
+                return true;
+            }
+            try {
+                Thread.sleep(CONNECTION_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
         }
     }
-} 
\ No newline at end of file
+}
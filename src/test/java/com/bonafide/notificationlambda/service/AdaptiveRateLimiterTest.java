@@ -0,0 +1,50 @@
+package com.bonafide.notificationlambda.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveRateLimiterTest {
+
+    @Test
+    void throttlingHalvesTheRateDownToTheFloor() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(100, 10, 1000, 20, 0.5);
+
+        limiter.onThrottle();
+        assertEquals(50, limiter.currentRate(), 1e-9);
+        for (int i = 0; i < 20; i++) {
+            limiter.onThrottle();
+        }
+        assertEquals(10, limiter.currentRate(), 1e-9);
+    }
+
+    @Test
+    void successesRaiseTheRateUpToTheCeiling() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(100, 10, 120, 20, 0.5);
+
+        limiter.onSuccess();
+        assertEquals(100.2, limiter.currentRate(), 1e-9);
+        for (int i = 0; i < 100_000; i++) {
+            limiter.onSuccess();
+        }
+        assertEquals(120, limiter.currentRate(), 1e-9);
+    }
+
+    @Test
+    void initialRateIsClampedIntoTheBounds() {
+        assertEquals(10, new AdaptiveRateLimiter(1, 10, 100, 20, 0.5).currentRate(), 1e-9);
+        assertEquals(100, new AdaptiveRateLimiter(1000, 10, 100, 20, 0.5).currentRate(), 1e-9);
+        assertEquals(0.1, new AdaptiveRateLimiter(0, 0, 100, 20, 0.5).currentRate(), 1e-9);
+    }
+
+    @Test
+    void acquireRefusesSlotsBeyondTheDeadline() throws InterruptedException {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(1, 1, 1, 20, 0.5);
+        long deadline = System.nanoTime() + 100_000_000L;
+
+        assertTrue(limiter.acquire(deadline));
+        assertFalse(limiter.acquire(deadline));
+    }
+}
@@ -0,0 +1,106 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionItemCodecTest {
+
+    private static ConnectionRecord connection() {
+        return ConnectionRecord.builder()
+            .connectionId("c-1")
+            .userId("u-1")
+            .roles(List.of("ADMIN", "auditor"))
+            .teams(List.of("team-a", "équipe-b"))
+            .department("finance")
+            .connectedAt(1_700_000_000_123L)
+            .lastSeen(1_700_000_100L)
+            .subscribedTopics(List.of("ALL", "PROCESS_COMPLETE", "x".repeat(200)))
+            .build();
+    }
+
+    private static void assertSameConnection(ConnectionRecord expected, ConnectionRecord actual) {
+        assertEquals(expected.getConnectionId(), actual.getConnectionId());
+        assertEquals(expected.getUserId(), actual.getUserId());
+        assertEquals(expected.getRoles(), actual.getRoles());
+        assertEquals(expected.getTeams(), actual.getTeams());
+        assertEquals(expected.getDepartment(), actual.getDepartment());
+        assertEquals(expected.getConnectedAt(), actual.getConnectedAt());
+        assertEquals(expected.getLastSeen(), actual.getLastSeen());
+        assertEquals(expected.getSubscribedTopics(), actual.getSubscribedTopics());
+    }
+
+    @Test
+    void compactItemRoundTrips() {
+        Map<String, AttributeValue> item = ConnectionItemCodec.toItem(connection(), 42, ConnectionItemCodec.COMPACT);
+
+        assertTrue(ConnectionItemCodec.isCompact(item));
+        assertFalse(item.containsKey("roles"));
+        assertEquals("42", item.get("expiresAt").n());
+        assertSameConnection(connection(), ConnectionItemCodec.toRecord(item));
+    }
+
+    @Test
+    void legacyItemRoundTrips() {
+        Map<String, AttributeValue> item = ConnectionItemCodec.toItem(connection(), 42, ConnectionItemCodec.LEGACY);
+
+        assertFalse(ConnectionItemCodec.isCompact(item));
+        assertSameConnection(connection(), ConnectionItemCodec.toRecord(item));
+    }
+
+    @Test
+    void compactItemKeepsEmptyAttributesEmpty() {
+        ConnectionRecord empty = ConnectionRecord.builder()
+            .connectionId("c-2")
+            .userId("u-2")
+            .roles(List.of())
+            .teams(List.of())
+            .subscribedTopics(List.of())
+            .build();
+
+        ConnectionRecord decoded = ConnectionItemCodec.toRecord(ConnectionItemCodec.toItem(empty, 0, ConnectionItemCodec.COMPACT));
+
+        assertSameConnection(empty, decoded);
+    }
+
+    @Test
+    void compactItemReadsNullAttributesAsEmpty() {
+        ConnectionRecord sparse = ConnectionRecord.builder().connectionId("c-3").userId("u-3").build();
+
+        ConnectionRecord decoded = ConnectionItemCodec.toRecord(ConnectionItemCodec.toItem(sparse, 0, ConnectionItemCodec.COMPACT));
+
+        assertEquals(List.of(), decoded.getRoles());
+        assertEquals(List.of(), decoded.getTeams());
+        assertEquals(List.of(), decoded.getSubscribedTopics());
+        assertNull(decoded.getDepartment());
+        assertEquals(0, decoded.getConnectedAt());
+    }
+
+    @Test
+    void projectedLegacyItemReadsMissingAttributesAsEmpty() {
+        ConnectionRecord decoded = ConnectionItemCodec.toRecord(Map.of(
+            "connectionId", AttributeValue.builder().s("c-4").build(),
+            "userId", AttributeValue.builder().s("u-4").build()));
+
+        assertEquals("c-4", decoded.getConnectionId());
+        assertEquals(List.of(), decoded.getRoles());
+        assertEquals(List.of(), decoded.getTeams());
+        assertEquals(List.of(), decoded.getSubscribedTopics());
+        assertNull(decoded.getDepartment());
+        assertEquals(0, decoded.getLastSeen());
+    }
+
+    @Test
+    void unpackRejectsUnknownVersions() {
+        assertThrows(IllegalArgumentException.class, () -> ConnectionItemCodec.unpack(new byte[] {9, 0}));
+        assertThrows(IllegalArgumentException.class, () -> ConnectionItemCodec.unpack(new byte[0]));
+    }
+}
@@ -0,0 +1,48 @@
+package com.bonafide.notificationlambda.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeliveryRetryPolicyTest {
+    private static final int SAMPLES = 2000;
+
+    private static long maxBackoff(DeliveryRetryPolicy policy, int attempt) {
+        long max = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            long backoff = policy.backoffMillis(attempt);
+            assertTrue(backoff >= 0, "negative backoff " + backoff);
+            max = Math.max(max, backoff);
+        }
+        return max;
+    }
+
+    @Test
+    void backoffStaysWithinTheExponentialCeiling() {
+        DeliveryRetryPolicy policy = new DeliveryRetryPolicy(5, 100);
+
+        for (int attempt = 1; attempt <= 5; attempt++) {
+            long ceiling = 100L << (attempt - 1);
+            long max = maxBackoff(policy, attempt);
+            assertTrue(max <= ceiling, "attempt " + attempt + " backed off " + max + " ms");
+            assertTrue(max > ceiling / 2, "attempt " + attempt + " never came near " + ceiling + " ms");
+        }
+    }
+
+    @Test
+    void backoffIsCappedForLateAttempts() {
+        DeliveryRetryPolicy policy = new DeliveryRetryPolicy(100, 1000);
+
+        assertTrue(maxBackoff(policy, 10) <= 20000);
+        assertTrue(maxBackoff(policy, 64) <= 20000);
+    }
+
+    @Test
+    void constructorClampsToAtLeastOneAttemptAndOneMillisecond() {
+        DeliveryRetryPolicy policy = new DeliveryRetryPolicy(0, 0);
+
+        assertEquals(1, policy.getMaxAttempts());
+        assertTrue(maxBackoff(policy, 1) <= 1);
+    }
+}
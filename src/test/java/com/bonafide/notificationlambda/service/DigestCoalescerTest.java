@@ -0,0 +1,155 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.config.NotificationProperties;
+import com.bonafide.notificationlambda.model.NotificationRequest;
+import com.bonafide.notificationlambda.model.NotificationResult;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DigestCoalescerTest {
+
+    /** Records the connections handed to it instead of posting. */
+    private static final class RecordingSession extends DeliverySession {
+        private final List<String> delivered = new ArrayList<>();
+
+        RecordingSession() {
+            super(null, null, null, null, 1, null, null, 0);
+        }
+
+        @Override
+        public void deliver(String connectionId) {
+            delivered.add(connectionId);
+        }
+    }
+
+    private static DigestCoalescer coalescer(String... properties) {
+        Properties values = new Properties();
+        for (int i = 0; i < properties.length; i += 2) {
+            values.setProperty(properties[i], properties[i + 1]);
+        }
+        return new DigestCoalescer(new NotificationProperties(values));
+    }
+
+    private static NotificationRequest notification(String type, String priority, long timestamp) {
+        return NotificationRequest.builder().type(type).priority(priority).timestamp(timestamp).build();
+    }
+
+    private static BitSet positions(int... positions) {
+        BitSet bits = new BitSet();
+        for (int position : positions) {
+            bits.set(position);
+        }
+        return bits;
+    }
+
+    @Test
+    void groupsSameTypeAndPriorityWithinTheWindow() {
+        List<NotificationRequest> batch = List.of(
+            notification("PROCESS_COMPLETE", "MEDIUM", 100),
+            notification("PROCESS_COMPLETE", "MEDIUM", 101),
+            notification("PROCESS_COMPLETE", "HIGH", 101),
+            notification("SYSTEM_ALERTS", "MEDIUM", 100),
+            notification("PROCESS_COMPLETE", "MEDIUM", 110));
+
+        DigestCoalescer.Batch plan = coalescer("notification.digest.window-ms", "2000").plan(batch);
+
+        assertTrue(plan.isCoalesced(0));
+        assertTrue(plan.isCoalesced(1));
+        assertFalse(plan.isCoalesced(2));
+        assertFalse(plan.isCoalesced(3));
+        assertFalse(plan.isCoalesced(4));
+    }
+
+    @Test
+    void windowIsMeasuredFromTheFirstOfAGroup() {
+        List<NotificationRequest> batch = List.of(
+            notification("PROCESS_COMPLETE", "MEDIUM", 103),
+            notification("PROCESS_COMPLETE", "MEDIUM", 100),
+            notification("PROCESS_COMPLETE", "MEDIUM", 102),
+            notification("PROCESS_COMPLETE", "MEDIUM", 105));
+        DigestCoalescer.Batch plan = coalescer("notification.digest.window-ms", "2000").plan(batch);
+        Map<String, RecordingSession> own = new HashMap<>();
+        Map<List<NotificationRequest>, RecordingSession> digests = new HashMap<>();
+
+        for (int i = 0; i < batch.size(); i++) {
+            plan.add("c-1", i);
+        }
+        plan.deliver(i -> own.computeIfAbsent("own-" + i, key -> new RecordingSession()),
+            members -> digests.computeIfAbsent(members, key -> new RecordingSession()));
+
+        assertEquals(2, plan.getDigestSessions().size());
+        assertTrue(plan.getDigestSessions().containsKey(positions(1, 2)));
+        assertTrue(plan.getDigestSessions().containsKey(positions(0, 3)));
+        assertTrue(own.isEmpty());
+        digests.values().forEach(session -> assertEquals(List.of("c-1"), session.delivered));
+    }
+
+    @Test
+    void connectionsSplitByWhatTheyAreEligibleFor() {
+        List<NotificationRequest> batch = List.of(
+            notification("PROCESS_COMPLETE", "MEDIUM", 100),
+            notification("PROCESS_COMPLETE", "MEDIUM", 100),
+            notification("PROCESS_COMPLETE", "MEDIUM", 101));
+        DigestCoalescer.Batch plan = coalescer().plan(batch);
+        Map<Integer, RecordingSession> own = new HashMap<>();
+
+        plan.add("all", 0);
+        plan.add("all", 1);
+        plan.add("all", 2);
+        plan.add("pair", 0);
+        plan.add("pair", 2);
+        plan.add("single", 1);
+        plan.deliver(i -> own.computeIfAbsent(i, key -> new RecordingSession()), members -> new RecordingSession());
+
+        Map<BitSet, DeliverySession> digests = plan.getDigestSessions();
+        assertEquals(2, digests.size());
+        assertEquals(List.of("all"), ((RecordingSession) digests.get(positions(0, 1, 2))).delivered);
+        assertEquals(List.of("pair"), ((RecordingSession) digests.get(positions(0, 2))).delivered);
+        assertEquals(List.of("single"), own.get(1).delivered);
+        assertNull(own.get(0));
+    }
+
+    @Test
+    void criticalAndZeroWindowsAreNeverCoalesced() {
+        List<NotificationRequest> batch = List.of(
+            notification("ERROR_ALERTS", "CRITICAL", 100),
+            notification("ERROR_ALERTS", "CRITICAL", 100),
+            notification("SYSTEM_ALERTS", "LOW", 100),
+            notification("SYSTEM_ALERTS", "LOW", 100),
+            notification("PROCESS_COMPLETE", "HIGH", 100),
+            notification("PROCESS_COMPLETE", "HIGH", 100));
+
+        DigestCoalescer.Batch plan = coalescer(
+            "notification.digest.window-ms.type.SYSTEM_ALERTS", "0",
+            "notification.digest.window-ms.priority.HIGH", "0").plan(batch);
+
+        for (int i = 0; i < batch.size(); i++) {
+            assertFalse(plan.isCoalesced(i), "notification " + i);
+        }
+    }
+
+    @Test
+    void mergeAddsDigestFramesToTheNotificationsOwn() {
+        NotificationResult own = NotificationResult.builder().sent(3).failed(1).timeToFirstDeliveryMs(40L).priority("MEDIUM").build();
+        NotificationResult digest = NotificationResult.builder().sent(5).totalRecipients(5).timeToFirstDeliveryMs(15L).build();
+
+        NotificationResult merged = DigestCoalescer.merge(own, digest);
+
+        assertEquals("PARTIAL", merged.getStatus());
+        assertEquals(8, merged.getSent());
+        assertEquals(1, merged.getFailed());
+        assertEquals(9, merged.getTotalRecipients());
+        assertEquals(15L, merged.getTimeToFirstDeliveryMs());
+        assertEquals("MEDIUM", merged.getPriority());
+    }
+}
@@ -0,0 +1,108 @@
+package com.bonafide.notificationlambda.service;
+
+import com.bonafide.notificationlambda.model.ConnectionRecord;
+import com.bonafide.notificationlambda.model.NotificationRequest;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EligibilityIndexTest {
+
+    private static ConnectionRecord connection(int i) {
+        return ConnectionRecord.builder()
+            .connectionId("c-" + i)
+            .userId("u-" + i % 500)
+            .roles(i % 3 == 0 ? List.of("ADMIN") : List.of("USER"))
+            .teams(List.of("team-" + i % 7))
+            .subscribedTopics(i % 64 == 63 ? List.of("TOPIC_" + i % 5) : List.of())
+            .build();
+    }
+
+    private static Set<String> ids(List<ConnectionRecord> connections) {
+        Set<String> ids = new TreeSet<>();
+        connections.forEach(connection -> ids.add(connection.getConnectionId()));
+        return ids;
+    }
+
+    private static Set<String> expected(List<ConnectionRecord> population, EligibilityQuery query) {
+        List<ConnectionRecord> eligible = new ArrayList<>();
+        for (ConnectionRecord connection : population) {
+            if (query.matches(connection)) {
+                eligible.add(connection);
+            }
+        }
+        return ids(eligible);
+    }
+
+    @Test
+    void matchesTheSameConnectionsAsTheQueryAcrossWordBoundaries() {
+        List<ConnectionRecord> population = new ArrayList<>();
+        EligibilityIndex index = new EligibilityIndex();
+        for (int i = 0; i < 70000; i++) {
+            population.add(connection(i));
+            index.put(population.get(i));
+        }
+        List<NotificationRequest> notifications = List.of(
+            NotificationRequest.builder().type("TOPIC_3").build(),
+            NotificationRequest.builder().type("TOPIC_1").targetUsers(List.of("u-63", "u-64")).build(),
+            NotificationRequest.builder().type("NONE").requiredRoles(List.of("ADMIN")).targetTeams(List.of("team-2")).build(),
+            NotificationRequest.builder().type("NONE").targetUsers(List.of("u-nobody")).build());
+
+        for (NotificationRequest notification : notifications) {
+            EligibilityQuery query = EligibilityQuery.compile(notification);
+            assertEquals(expected(population, query), ids(index.match(query)));
+        }
+    }
+
+    @Test
+    void unionAcrossAttributesCountsSharedConnectionsOnce() {
+        EligibilityIndex index = new EligibilityIndex();
+        for (int i = 0; i < 130; i++) {
+            index.put(ConnectionRecord.builder()
+                .connectionId("c-" + i)
+                .userId("u-" + i)
+                .roles(List.of(i < 64 ? "ADMIN" : "USER"))
+                .teams(List.of(i >= 60 && i < 70 ? "team-a" : "team-b"))
+                .build());
+        }
+
+        List<ConnectionRecord> matched = index.match(EligibilityQuery.compile(NotificationRequest.builder()
+            .type("NONE")
+            .requiredRoles(List.of("ADMIN"))
+            .targetTeams(List.of("team-a"))
+            .build()));
+
+        assertEquals(70, matched.size());
+        assertEquals(70, ids(matched).size());
+    }
+
+    @Test
+    void reusedOrdinalsMatchOnlyTheNewAttributes() {
+        EligibilityIndex index = new EligibilityIndex();
+        for (int i = 0; i < 200; i++) {
+            index.put(connection(i));
+        }
+        index.remove("c-63");
+        index.remove("c-64");
+        index.put(ConnectionRecord.builder().connectionId("c-new").userId("u-new").roles(List.of("AUDITOR")).build());
+        index.put(connection(64).toBuilder().roles(List.of("AUDITOR")).build());
+
+        Set<String> auditors = ids(index.match(EligibilityQuery.compile(NotificationRequest.builder()
+            .type("NONE")
+            .requiredRoles(List.of("AUDITOR"))
+            .build())));
+        Set<String> admins = ids(index.match(EligibilityQuery.compile(NotificationRequest.builder()
+            .type("NONE")
+            .requiredRoles(List.of("ADMIN"))
+            .build())));
+
+        assertEquals(Set.of("c-new", "c-64"), auditors);
+        assertTrue(admins.stream().noneMatch(id -> id.equals("c-63") || id.equals("c-new") || id.equals("c-64")));
+        assertEquals(200, index.size());
+    }
+}
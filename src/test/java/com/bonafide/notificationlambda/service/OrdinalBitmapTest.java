@@ -0,0 +1,92 @@
+package com.bonafide.notificationlambda.service;
+
+import org.junit.jupiter.api.Test;
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrdinalBitmapTest {
+    private static final int[] BOUNDARIES = {0, 63, 64, 127, 128, 65535, 65536, 65599, 131071, 131072};
+
+    private static BitSet bits(OrdinalBitmap bitmap, int ordinalLimit) {
+        long[] words = new long[(ordinalLimit + 63) >>> 6];
+        bitmap.orInto(words);
+        return BitSet.valueOf(words);
+    }
+
+    @Test
+    void keepsOrdinalsAcrossWordAndChunkBoundaries() {
+        OrdinalBitmap bitmap = new OrdinalBitmap();
+        BitSet expected = new BitSet();
+        for (int ordinal : BOUNDARIES) {
+            bitmap.add(ordinal);
+            expected.set(ordinal);
+        }
+        bitmap.add(64);
+
+        assertEquals(BOUNDARIES.length, bitmap.cardinality());
+        assertEquals(expected, bits(bitmap, 131073));
+    }
+
+    @Test
+    void unionOfBitmapsCoversBothAcrossWordBoundaries() {
+        OrdinalBitmap low = new OrdinalBitmap();
+        OrdinalBitmap high = new OrdinalBitmap();
+        low.add(63);
+        low.add(65535);
+        high.add(64);
+        high.add(65536);
+        high.add(63);
+
+        long[] words = new long[(65537 + 63) >>> 6];
+        low.orInto(words);
+        high.orInto(words);
+
+        BitSet expected = new BitSet();
+        expected.set(63);
+        expected.set(64);
+        expected.set(65535);
+        expected.set(65536);
+        assertEquals(expected, BitSet.valueOf(words));
+    }
+
+    @Test
+    void switchesToDenseChunksWithoutLosingOrdinals() {
+        OrdinalBitmap bitmap = new OrdinalBitmap();
+        BitSet expected = new BitSet();
+        for (int ordinal = 1; ordinal < 65536 * 2; ordinal += 13) {
+            bitmap.add(ordinal);
+            expected.set(ordinal);
+        }
+
+        assertTrue(bitmap.cardinality() > 4096 * 2);
+        assertEquals(expected.cardinality(), bitmap.cardinality());
+        assertEquals(expected, bits(bitmap, 65536 * 2));
+    }
+
+    @Test
+    void removesOrdinalsFromSparseAndDenseChunks() {
+        OrdinalBitmap bitmap = new OrdinalBitmap();
+        for (int ordinal = 0; ordinal < 5000; ordinal++) {
+            bitmap.add(ordinal);
+        }
+        bitmap.add(65536);
+        bitmap.remove(63);
+        bitmap.remove(64);
+        bitmap.remove(65536);
+        bitmap.remove(70000);
+
+        BitSet expected = new BitSet();
+        expected.set(0, 5000);
+        expected.clear(63);
+        expected.clear(64);
+        assertEquals(4998, bitmap.cardinality());
+        assertEquals(expected, bits(bitmap, 65537));
+
+        for (int ordinal = 0; ordinal < 5000; ordinal++) {
+            bitmap.remove(ordinal);
+        }
+        assertTrue(bitmap.isEmpty());
+    }
+}